@@ -0,0 +1,117 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ADFSTrustCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ADFSTrustCacheTests {
+
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String DOMAIN = "lindft6.com";
+
+    private static final URI AUTHORITY = URI.create("https://fs.lindft6.com/adfs");
+
+    private long mNowMillis;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new FileMockContext(InstrumentationRegistry.getContext());
+        mNowMillis = TimeUnit.DAYS.toMillis(1);
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return mNowMillis;
+            }
+
+            @Override
+            long nanoTime() {
+                return TimeUnit.MILLISECONDS.toNanos(mNowMillis);
+            }
+        });
+        AuthenticationSettings.INSTANCE.setADFSTrustCacheTtlMillis(TTL_MILLIS);
+        ADFSTrustCache.resetForTesting();
+    }
+
+    @After
+    public void tearDown() {
+        ADFSTrustCache.resetForTesting();
+        AuthenticationSettings.INSTANCE.setADFSTrustCacheTtlMillis(TimeUnit.DAYS.toMillis(1));
+        Clock.setInstance(null);
+    }
+
+    @Test
+    public void testPersistedTrustIsReadBack() {
+        ADFSTrustCache.addTrusted(mContext, DOMAIN, AUTHORITY);
+        ADFSTrustCache.resetForTesting();
+        assertFalse(ADFSTrustCache.isTrusted(mContext, DOMAIN, AUTHORITY));
+
+        mNowMillis += TTL_MILLIS / 2;
+        ADFSTrustCache.readPersistedTrust(mContext);
+
+        assertTrue(ADFSTrustCache.isTrusted(mContext, DOMAIN, AUTHORITY));
+        assertFalse(ADFSTrustCache.isTrusted(mContext, "contoso.com", AUTHORITY));
+    }
+
+    @Test
+    public void testTrustExpires() {
+        ADFSTrustCache.addTrusted(mContext, DOMAIN, AUTHORITY);
+        assertTrue(ADFSTrustCache.isTrusted(mContext, DOMAIN, AUTHORITY));
+
+        mNowMillis += TTL_MILLIS;
+        assertFalse(ADFSTrustCache.isTrusted(mContext, DOMAIN, AUTHORITY));
+
+        ADFSTrustCache.resetForTesting();
+        ADFSTrustCache.readPersistedTrust(mContext);
+        assertFalse(ADFSTrustCache.isTrusted(mContext, DOMAIN, AUTHORITY));
+    }
+
+    @Test
+    public void testTrustWithoutPersistenceLastsForTheProcess() {
+        AuthenticationSettings.INSTANCE.setADFSTrustCacheTtlMillis(0);
+        ADFSTrustCache.addTrusted(mContext, DOMAIN, AUTHORITY);
+
+        mNowMillis += TimeUnit.DAYS.toMillis(30);
+        assertTrue(ADFSTrustCache.isTrusted(mContext, DOMAIN, AUTHORITY));
+    }
+}
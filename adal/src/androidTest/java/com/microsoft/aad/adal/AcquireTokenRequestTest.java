@@ -62,6 +62,7 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -104,6 +105,7 @@ public final class AcquireTokenRequestTest {
      */
     private static final String VALID_AUTHORITY = "https://login.windows.net/test.onmicrosoft.com";
     private static final int ACTIVITY_TIME_OUT = 1000;
+    private static final int REQUEST_TIME_OUT = 200;
     private static final int MINUS_MINUTE = 10;
     private static final int EXTEND_MINUS_MINUTE = 60;
     private static final String TEST_UPN = "testupn";
@@ -1034,6 +1036,45 @@ public final class AcquireTokenRequestTest {
         }
     }
 
+    /**
+     * Test for the request timeout expiring while the token request waits for the server: the read
+     * timeout capped by the request timeout fires and the call fails with the deadline exceeded.
+     */
+    @Test
+    public void testSlowTokenRequestExceedsRequestTimeout() throws PackageManager.NameNotFoundException,
+            NoSuchAlgorithmException, OperationCanceledException, IOException, AuthenticatorException,
+            InterruptedException, JSONException {
+        final ITokenCacheStore cacheStore = getTokenCache(getExpireDate(-MINUS_MINUTE), false, false, getExpireDate(-1));
+
+        final FileMockContext mockContext = createMockContext();
+        final AuthenticationContext authContext = new AuthenticationContext(mockContext,
+                VALID_AUTHORITY, false, cacheStore);
+        authContext.setRequestTimeout(REQUEST_TIME_OUT);
+
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(Mockito.mock(OutputStream.class));
+        Mockito.when(mockedConnection.getInputStream()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(REQUEST_TIME_OUT * 2);
+                throw new SocketTimeoutException("Read timed out");
+            }
+        });
+
+        try {
+            authContext.acquireTokenSilentSync("resource", "clientid", TEST_USERID);
+            fail("Expect an exception");
+        } catch (final AuthenticationException exception) {
+            // No time is left to retry the token request.
+            verify(mockedConnection, times(1)).getInputStream();
+            assertEquals(ADALError.REQUEST_DEADLINE_EXCEEDED, exception.getCode());
+        } finally {
+            cacheStore.removeAll();
+        }
+    }
+
     /**
      * Test for throwing exception when the request is rejected by server through there is a valid
      * stale AT in the cache and the ExtendedLifetime is on.
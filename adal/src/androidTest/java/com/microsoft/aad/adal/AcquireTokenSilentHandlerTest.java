@@ -108,7 +108,7 @@ public final class AcquireTokenSilentHandlerTest {
 
     @After
     public void tearDown() {
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
     }
 
     /**
@@ -1235,6 +1235,59 @@ public final class AcquireTokenSilentHandlerTest {
         clearCache(mockedCache);
     }
 
+    /**
+     * A token keyed by an alias is moved under the preferred cache location on the first lookup, which then finds it
+     * with a single probe. The migration does not run again on the store, tokens keyed by an alias since are found
+     * through the aliases.
+     */
+    @Test
+    public void testAliasedEntriesMigratedToPreferredCache() throws IOException {
+        final FileMockContext mockContext = new FileMockContext(getContext());
+        final ITokenCacheStore mockedCache = new DefaultTokenCacheStore(getContext());
+        clearCache(mockedCache);
+        mockContext.getSharedPreferences(TokenCacheAccessor.ALIAS_MIGRATION_SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+
+        updateAuthorityMetadataCache();
+        final String resource = "resource";
+        final String clientId = "clientId";
+        final String aliasedAuthority = "https://test.alias/test.onmicrosoft.com";
+        final TokenCacheItem rtTokenCacheItem = Util.getTokenCacheItem(aliasedAuthority, resource, clientId,
+                TEST_IDTOKEN_USERID, TEST_IDTOKEN_UPN);
+        rtTokenCacheItem.setRefreshToken("rt with aliased authority");
+        rtTokenCacheItem.setIsMultiResourceRefreshToken(false);
+        saveTokenIntoCache(mockedCache, rtTokenCacheItem);
+
+        final TokenCacheAccessor tokenCacheAccessor = new TokenCacheAccessor(mockContext.getApplicationContext(), mockedCache,
+                "https://test.host/test.onmicrosoft.com", UUID.randomUUID().toString());
+        final TokenCacheItem item = tokenCacheAccessor.getRegularRefreshTokenCacheItem(resource, clientId, TEST_IDTOKEN_USERID);
+
+        final String preferredCacheLocation = "https://preferred.cache/test.onmicrosoft.com";
+        assertNotNull(item);
+        assertEquals("rt with aliased authority", item.getRefreshToken());
+        assertEquals(preferredCacheLocation, item.getAuthority());
+        assertNull(mockedCache.getItem(CacheKey.createCacheKeyForRTEntry(aliasedAuthority, resource, clientId, TEST_IDTOKEN_USERID)));
+        assertNull(mockedCache.getItem(CacheKey.createCacheKeyForRTEntry(aliasedAuthority, resource, clientId, TEST_IDTOKEN_UPN)));
+        assertNotNull(mockedCache.getItem(CacheKey.createCacheKeyForRTEntry(preferredCacheLocation, resource, clientId, TEST_IDTOKEN_UPN)));
+
+        final String otherClientId = "otherClientId";
+        final TokenCacheItem laterRtTokenCacheItem = Util.getTokenCacheItem(aliasedAuthority, resource, otherClientId,
+                TEST_IDTOKEN_USERID, TEST_IDTOKEN_UPN);
+        laterRtTokenCacheItem.setRefreshToken("rt keyed by an alias after the migration");
+        laterRtTokenCacheItem.setIsMultiResourceRefreshToken(false);
+        saveTokenIntoCache(mockedCache, laterRtTokenCacheItem);
+
+        final TokenCacheAccessor laterTokenCacheAccessor = new TokenCacheAccessor(mockContext.getApplicationContext(),
+                mockedCache, "https://test.host/test.onmicrosoft.com", UUID.randomUUID().toString());
+        // Once migrated, a miss at the preferred cache location does not look up the aliases.
+        assertNull(laterTokenCacheAccessor.getRegularRefreshTokenCacheItem(resource, otherClientId,
+                TEST_IDTOKEN_USERID));
+        // Not migrated again.
+        assertNotNull(mockedCache.getItem(CacheKey.createCacheKeyForRTEntry(aliasedAuthority, resource, otherClientId,
+                TEST_IDTOKEN_USERID)));
+        clearCache(mockedCache);
+    }
+
     private void updateAuthorityMetadataCache() {
         final InstanceDiscoveryMetadata metadata = getInstanceDiscoveryMetadata();
         final AzureActiveDirectoryCloud cloud = CoreAdapter.asAadCloud(metadata);
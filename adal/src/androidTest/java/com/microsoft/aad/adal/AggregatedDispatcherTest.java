@@ -30,8 +30,12 @@ import org.junit.runner.RunWith;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
@@ -83,7 +87,7 @@ public final class AggregatedDispatcherTest {
         assertTrue(aggregated.checkOauthError());
 
         // after the flush there should be no more objects to be dispatched
-        assertTrue(dispatcher.getObjectsToBeDispatched().isEmpty());
+        assertEquals(0, dispatcher.getPendingRequestCount());
     }
 
     @Test
@@ -103,6 +107,41 @@ public final class AggregatedDispatcherTest {
         assertTrue(aggregated.checkOauthError());
 
         // after the flush there should be no more objects to be dispatched
-        assertFalse(dispatcher.getObjectsToBeDispatched().isEmpty());
+        assertEquals(1, dispatcher.getPendingRequestCount());
+    }
+
+    @Test
+    public void testConcurrentEventsOfOneRequestAreAggregated() throws InterruptedException {
+        final AggregatedTelemetryTestClass aggregated = new AggregatedTelemetryTestClass();
+        final AggregatedDispatcher dispatcher = new AggregatedDispatcher(aggregated);
+        final int eventCount = 200;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(eventCount);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < eventCount; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        dispatcher.receive(CONSTANT_REQUEST_ID, new CacheEvent(EventStrings.TOKEN_CACHE_LOOKUP));
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            });
+        }
+
+        startLatch.countDown();
+        assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        dispatcher.flush(CONSTANT_REQUEST_ID);
+
+        // No event of the request is lost.
+        assertTrue(aggregated.checkCacheEventCount(Integer.toString(eventCount)));
+        assertEquals(0, dispatcher.getPendingRequestCount());
     }
 }
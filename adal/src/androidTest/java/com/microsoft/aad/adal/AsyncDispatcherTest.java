@@ -0,0 +1,144 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public final class AsyncDispatcherTest {
+
+    @Test
+    public void testEventsDispatchedOnBackgroundThread() throws InterruptedException {
+        final BlockingTestDispatcher testDispatcher = new BlockingTestDispatcher(3);
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(testDispatcher, 4, false);
+        testDispatcher.release();
+
+        dispatcher.dispatchEvent(createEvent("1"));
+        dispatcher.dispatchEvent(createEvent("2"));
+        dispatcher.dispatchEvent(createEvent("3"));
+
+        assertTrue(testDispatcher.awaitDispatched());
+        assertEquals(3, testDispatcher.mEventIds.size());
+        assertEquals("1", testDispatcher.mEventIds.get(0));
+        assertNotSame(Thread.currentThread(), testDispatcher.mDispatchThread);
+        dispatcher.close();
+    }
+
+    @Test
+    public void testEventsDroppedWhenQueueIsFull() throws InterruptedException {
+        final BlockingTestDispatcher testDispatcher = new BlockingTestDispatcher(3);
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(testDispatcher, 2, false);
+
+        // The first event is taken by the background thread, which then waits in the dispatcher.
+        dispatcher.dispatchEvent(createEvent("1"));
+        assertTrue(testDispatcher.awaitEntered());
+
+        // Two events fill the queue, the others are dropped.
+        for (int i = 2; i <= 5; i++) {
+            dispatcher.dispatchEvent(createEvent(Integer.toString(i)));
+        }
+        assertEquals(2, dispatcher.getDroppedEventCount());
+
+        testDispatcher.release();
+        assertTrue(testDispatcher.awaitDispatched());
+        assertEquals(3, testDispatcher.mEventIds.size());
+        dispatcher.close();
+    }
+
+    @Test
+    public void testQueuedEventsDispatchedOnClose() throws InterruptedException {
+        final BlockingTestDispatcher testDispatcher = new BlockingTestDispatcher(2);
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(testDispatcher, 4, false);
+
+        dispatcher.dispatchEvent(createEvent("1"));
+        dispatcher.dispatchEvent(createEvent("2"));
+        dispatcher.close();
+        dispatcher.dispatchEvent(createEvent("3"));
+        testDispatcher.release();
+
+        assertTrue(testDispatcher.awaitDispatched());
+        assertEquals(1, dispatcher.getDroppedEventCount());
+    }
+
+    private static Map<String, String> createEvent(final String id) {
+        return Collections.singletonMap("id", id);
+    }
+
+    private static final class BlockingTestDispatcher implements IDispatcher {
+
+        private final CountDownLatch mEntered = new CountDownLatch(1);
+
+        private final CountDownLatch mReleased = new CountDownLatch(1);
+
+        private final CountDownLatch mDispatched;
+
+        private final List<String> mEventIds = new CopyOnWriteArrayList<>();
+
+        private volatile Thread mDispatchThread;
+
+        BlockingTestDispatcher(final int expectedEventCount) {
+            mDispatched = new CountDownLatch(expectedEventCount);
+        }
+
+        @Override
+        public void dispatchEvent(final Map<String, String> events) {
+            mDispatchThread = Thread.currentThread();
+            mEntered.countDown();
+            try {
+                mReleased.await(1, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            mEventIds.add(events.get("id"));
+            mDispatched.countDown();
+        }
+
+        void release() {
+            mReleased.countDown();
+        }
+
+        boolean awaitEntered() throws InterruptedException {
+            return mEntered.await(1, TimeUnit.SECONDS);
+        }
+
+        boolean awaitDispatched() throws InterruptedException {
+            return mDispatched.await(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -41,6 +41,8 @@ import android.util.Base64;
 import com.google.gson.Gson;
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
 import com.microsoft.identity.common.adal.internal.net.HttpUrlConnectionFactory;
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
 import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectory;
 import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectoryCloud;
 
@@ -63,6 +65,7 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -289,7 +292,7 @@ public final class AuthenticationContextTest {
     public void testCorrelationIdInWebRequest() throws InterruptedException, IOException {
 
         Logger.getInstance().setEnablePII(true);
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         final int minSDKVersionForTest = 15;
         if (Build.VERSION.SDK_INT <= minSDKVersionForTest) {
             Logger.v(TAG,
@@ -427,7 +430,7 @@ public final class AuthenticationContextTest {
     @Test
     public void testAcquireTokenUserId() throws InterruptedException {
         FileMockContext mockContext = new FileMockContext(InstrumentationRegistry.getContext());
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         final AuthenticationContext context = getAuthenticationContext(mockContext,
                 "https://login.windows.net/common", false, null);
 
@@ -1244,7 +1247,7 @@ public final class AuthenticationContextTest {
         Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST, HttpURLConnection.HTTP_OK);
 
         // clear the authority validation map
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         final CountDownLatch latch = new CountDownLatch(1);
         context.acquireToken(mockActivity, "resource", "clientid", "redirectUri", TEST_IDTOKEN_UPN, new AuthenticationCallback<AuthenticationResult>() {
             @Override
@@ -1293,7 +1296,7 @@ public final class AuthenticationContextTest {
         Mockito.verify(mockedConnection, times(invocationCount)).getInputStream();
 
         // Clean up Authority validation cache
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
     }
 
     /**
@@ -1324,7 +1327,7 @@ public final class AuthenticationContextTest {
         Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
 
         // clear the authority validation map
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         final CountDownLatch latch = new CountDownLatch(1);
         context.acquireToken(mockActivity, "resource", "clientid", "redirectUri", TEST_IDTOKEN_UPN, new AuthenticationCallback<AuthenticationResult>() {
             @Override
@@ -1395,7 +1398,7 @@ public final class AuthenticationContextTest {
         Mockito.when(mockedConnection.getInputStream()).thenReturn(Util.createInputStream(DiscoveryTests.getDiscoveryResponse()));
 
         // clear the authority validation map
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         final ExecutorService executorService = Executors.newFixedThreadPool(2);
         final Callable<Void> task = new Callable<Void>() {
             @Override
@@ -1483,7 +1486,7 @@ public final class AuthenticationContextTest {
             }
         }).when(mockedActivity).startActivityForResult(Mockito.any(Intent.class), Mockito.anyInt());
 
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
         HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
         Util.prepareMockedUrlConnection(mockedConnection);
@@ -1560,7 +1563,7 @@ public final class AuthenticationContextTest {
         assertNotNull(item);
         assertTrue(item.getAccessToken().equals(accessTokenForPassedInAuthority));
 
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
     }
 
     /**
@@ -1623,7 +1626,7 @@ public final class AuthenticationContextTest {
         assertNotNull(item);
         assertTrue(item.getAccessToken().equals(accessTokenForPassedInAuthority));
 
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
     }
 
     private void verifyFamilyIdStoredInTokenCacheItem(final ITokenCacheStore cacheStore, final String cacheKey,
@@ -1727,7 +1730,7 @@ public final class AuthenticationContextTest {
     @Test
     public void testAcquireTokenSilentSyncNegative() throws InterruptedException, AuthenticationException,
             IOException, JSONException {
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
 
         final FileMockContext mockContext = new FileMockContext(InstrumentationRegistry.getContext());
         final ITokenCacheStore mockCache = getCacheForRefreshToken(TEST_IDTOKEN_USERID, TEST_IDTOKEN_UPN);
@@ -2719,6 +2722,54 @@ public final class AuthenticationContextTest {
                 actual.contains(URLEncoder.encode(mTestTag, AuthenticationConstants.ENCODING_UTF8)));
     }
 
+    @Test
+    public void testPrewarmConnectsToPreferredNetwork() throws IOException, InterruptedException {
+        final FileMockContext mockContext = new FileMockContext(InstrumentationRegistry.getContext());
+        final AuthenticationContext context = getAuthenticationContext(mockContext,
+                VALID_AUTHORITY, false, null);
+
+        // login.windows.net prefers login.microsoftonline.com, where the token requests are sent.
+        final List<String> aliases = new ArrayList<String>();
+        aliases.add("login.windows.net");
+        aliases.add("login.microsoftonline.com");
+        AuthorityValidationMetadataCache.resetForTesting();
+        AuthorityValidationMetadataCache.updateInstanceDiscoveryMap("login.windows.net",
+                new InstanceDiscoveryMetadata("login.microsoftonline.com", "login.windows.net", aliases));
+        addAzureADCloudForValidAuthority();
+
+        final String openIdConfigurationUrl
+                = "https://login.microsoftonline.com/test.onmicrosoft.com/.well-known/openid-configuration";
+        final CountDownLatch signal = new CountDownLatch(1);
+        final IWebRequestHandler mockedWebRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(mockedWebRequestHandler.sendGet(Mockito.any(URL.class), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                        if (openIdConfigurationUrl.equals(invocation.getArguments()[0].toString())) {
+                            signal.countDown();
+                        }
+                        return new HttpWebResponse(HttpURLConnection.HTTP_OK, "{}", null);
+                    }
+                });
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(mockedWebRequestHandler);
+
+        try {
+            context.prewarm();
+            assertTrue(signal.await(CONTEXT_REQUEST_TIME_OUT, TimeUnit.MILLISECONDS));
+
+            // The metadata is seeded, only the OpenID metadata of the preferred network is fetched.
+            final ArgumentCaptor<URL> urlCaptor = ArgumentCaptor.forClass(URL.class);
+            Mockito.verify(mockedWebRequestHandler, Mockito.atLeastOnce()).sendGet(urlCaptor.capture(),
+                    Mockito.<String, String>anyMap());
+            for (final URL url : urlCaptor.getAllValues()) {
+                assertEquals(openIdConfigurationUrl, url.toString());
+            }
+        } finally {
+            AuthenticationSettings.INSTANCE.setWebRequestHandler(null);
+            AuthorityValidationMetadataCache.resetForTesting();
+        }
+    }
+
     private AuthenticationContext getAuthenticationContext(Context mockContext, String authority,
                                                            boolean validate, ITokenCacheStore mockCache) {
         return new AuthenticationContext(mockContext, authority, validate, mockCache);
@@ -32,13 +32,18 @@ import com.microsoft.aad.adal.Logger.LogLevel;
 
 import com.microsoft.identity.common.adal.internal.net.HttpUrlConnectionFactory;
 import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
 
 import junit.framework.Assert;
 
 import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -52,6 +57,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static android.support.test.InstrumentationRegistry.getInstrumentation;
 import static org.junit.Assert.assertEquals;
@@ -64,6 +70,21 @@ public class AuthenticationParamsTests extends AndroidTestHelper {
 
     protected static final String TAG = "AuthenticationParamsTests";
 
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        AuthenticationParameters.clearChallengeCache();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        AuthenticationParameters.clearChallengeCache();
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(null);
+        super.tearDown();
+    }
+
     @Test
     public void testGetAuthority() {
         AuthenticationParameters param = new AuthenticationParameters();
@@ -347,6 +368,54 @@ public class AuthenticationParamsTests extends AndroidTestHelper {
 
     }
 
+    @Test
+    public void testCreateFromResourceUrlCoalescedAndCachedPerOrigin() throws Exception {
+        final CountDownLatch responseLatch = new CountDownLatch(1);
+        final IWebRequestHandler mockedWebRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(mockedWebRequestHandler.sendGet(Mockito.any(URL.class), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(final InvocationOnMock invocation) throws Throwable {
+                        responseLatch.await(1, TimeUnit.SECONDS);
+                        return new HttpWebResponse(HttpURLConnection.HTTP_UNAUTHORIZED, "",
+                                getHeader(AuthenticationParameters.AUTHENTICATE_HEADER,
+                                        "Bearer authorization_uri=\"https://login.windows.net/common\", resource_id=\"resource\""));
+                    }
+                });
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(mockedWebRequestHandler);
+
+        final CountDownLatch callbackLatch = new CountDownLatch(2);
+        final TestResponse[] testResponses = {new TestResponse(), new TestResponse()};
+        final String[] resourceUrls = {"https://graph.contoso.com/v1/me", "https://GRAPH.contoso.com:443/v1/users"};
+        for (int i = 0; i < resourceUrls.length; i++) {
+            final TestResponse testResponse = testResponses[i];
+            AuthenticationParameters.createFromResourceUrl(getInstrumentation().getTargetContext(), new URL(resourceUrls[i]),
+                    new AuthenticationParamCallback() {
+                        @Override
+                        public void onCompleted(Exception exception, AuthenticationParameters param) {
+                            testResponse.setParam(param);
+                            testResponse.setException(exception);
+                            callbackLatch.countDown();
+                        }
+                    });
+        }
+
+        responseLatch.countDown();
+        assertTrue(callbackLatch.await(1, TimeUnit.SECONDS));
+        for (final TestResponse testResponse : testResponses) {
+            assertNull(testResponse.getException());
+            assertEquals("https://login.windows.net/common", testResponse.getParam().getAuthority());
+            assertEquals("resource", testResponse.getParam().getResource());
+        }
+
+        final TestResponse cachedResponse = new TestResponse();
+        setupAsyncParamRequest("https://graph.contoso.com/beta/me", cachedResponse);
+        assertEquals("https://login.windows.net/common", cachedResponse.getParam().getAuthority());
+
+        Mockito.verify(mockedWebRequestHandler, Mockito.times(1))
+                .sendGet(Mockito.any(URL.class), Mockito.<String, String>anyMap());
+    }
+
     class TestResponse {
         private AuthenticationParameters mParam;
 
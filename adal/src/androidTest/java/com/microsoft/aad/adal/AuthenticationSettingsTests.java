@@ -25,12 +25,16 @@ package com.microsoft.aad.adal;
 
 import android.support.test.runner.AndroidJUnit4;
 
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -86,4 +90,18 @@ public class AuthenticationSettingsTests {
         // Now it should be disable
         assertEquals("isWebViewHardwareAccelerated", false, AuthenticationSettings.INSTANCE.getDisableWebViewHardwareAcceleration());
     }
+
+    @Test
+    public void testWebRequestHandler() {
+        // By default all requests share the pooled handler
+        assertSame(PooledWebRequestHandler.getInstance(), AuthenticationSettings.INSTANCE.getWebRequestHandler());
+
+        final IWebRequestHandler mockedWebRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(mockedWebRequestHandler);
+        assertSame(mockedWebRequestHandler, AuthenticationSettings.INSTANCE.getWebRequestHandler());
+
+        // Null restores the default handler
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(null);
+        assertSame(PooledWebRequestHandler.getInstance(), AuthenticationSettings.INSTANCE.getWebRequestHandler());
+    }
 }
@@ -0,0 +1,125 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.MalformedURLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link Authority}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AuthorityTests {
+
+    @After
+    public void tearDown() {
+        AuthorityValidationMetadataCache.resetForTesting();
+    }
+
+    @Test
+    public void testSameAuthorityIsInterned() throws MalformedURLException {
+        final String authority = "https://login.microsoftonline.com/common";
+        assertSame(Authority.of(authority), Authority.of(authority));
+    }
+
+    @Test
+    public void testInvalidAuthority() {
+        assertNull(Authority.ofOrNull("invalid authority"));
+        assertNull(Authority.ofOrNull(null));
+
+        try {
+            Authority.of("invalid authority");
+            fail("Expected MalformedURLException");
+        } catch (final MalformedURLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAADAuthority() throws MalformedURLException {
+        final Authority authority = Authority.of("https://Login.Windows.net/Contoso.onmicrosoft.com/");
+
+        assertEquals(Authority.Type.AAD, authority.getType());
+        assertFalse(authority.isADFS());
+        assertEquals("login.windows.net", authority.getHost());
+        assertEquals("Contoso.onmicrosoft.com", authority.getTenant());
+        assertEquals("https://login.windows.net/contoso.onmicrosoft.com",
+                Authority.toCacheKeyForm(authority.toString()));
+    }
+
+    @Test
+    public void testADFSAuthority() throws MalformedURLException {
+        final Authority authority = Authority.of("https://fs.lindft6.com/ADFS");
+
+        assertEquals(Authority.Type.ADFS, authority.getType());
+        assertTrue(authority.isADFS());
+        assertNull(authority.getTenant());
+    }
+
+    @Test
+    public void testB2CAuthority() throws MalformedURLException {
+        final Authority authority = Authority.of("https://login.microsoftonline.com/tfp/contoso.onmicrosoft.com/b2c_1_signin");
+
+        assertEquals(Authority.Type.B2C, authority.getType());
+        assertFalse(authority.isADFS());
+        assertEquals("contoso.onmicrosoft.com", authority.getTenant());
+    }
+
+    @Test
+    public void testEndpoints() throws MalformedURLException {
+        final Authority authority = Authority.of("https://login.microsoftonline.com/common");
+
+        assertEquals("https://login.microsoftonline.com/common/oauth2/authorize", authority.getAuthorizeEndpoint());
+        assertEquals("https://login.microsoftonline.com/common/oauth2/token", authority.getTokenEndpoint());
+    }
+
+    @Test
+    public void testOnHost() throws MalformedURLException {
+        final Authority authority = Authority.of("https://login.windows.net/common");
+
+        assertSame(authority.toString(), authority.onHost("LOGIN.windows.net"));
+        assertEquals("https://login.microsoftonline.com/common", authority.onHost("login.microsoftonline.com"));
+        assertSame(authority.onHost("login.microsoftonline.com"), authority.onHost("login.microsoftonline.com"));
+    }
+
+    @Test
+    public void testPreferredCacheAuthorityWithoutMetadata() throws MalformedURLException {
+        AuthorityValidationMetadataCache.resetForTesting();
+        final Authority authority = Authority.of("https://login.windows.net/common");
+
+        assertEquals(authority.toString(), authority.getPreferredCacheAuthority());
+    }
+}
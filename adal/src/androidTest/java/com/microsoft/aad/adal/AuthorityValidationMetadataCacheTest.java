@@ -23,6 +23,8 @@
 
 package com.microsoft.aad.adal;
 
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
 import junit.framework.Assert;
@@ -37,6 +39,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link AuthorityValidationMetadataCache}.
@@ -44,16 +47,40 @@ import java.util.Map;
 @RunWith(AndroidJUnit4.class)
 public class AuthorityValidationMetadataCacheTest extends AndroidTestHelper {
 
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private long mNowMillis;
+
+    private Context mContext;
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        mContext = new FileMockContext(InstrumentationRegistry.getContext());
+        mNowMillis = TimeUnit.DAYS.toMillis(1);
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return mNowMillis;
+            }
+
+            @Override
+            long nanoTime() {
+                return TimeUnit.MILLISECONDS.toNanos(mNowMillis);
+            }
+        });
+        AuthenticationSettings.INSTANCE.setAuthorityMetadataCacheTtlMillis(TTL_MILLIS);
+        AuthorityValidationMetadataCache.resetForTesting();
+        new AuthorityValidationMetadataStore(mContext).clear();
     }
 
     @After
     public void tearDown() throws Exception {
         super.tearDown();
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
+        new AuthorityValidationMetadataStore(mContext).clear();
+        AuthenticationSettings.INSTANCE.setAuthorityMetadataCacheTtlMillis(TimeUnit.DAYS.toMillis(1));
+        Clock.setInstance(null);
     }
 
     @Test
@@ -82,6 +109,101 @@ public class AuthorityValidationMetadataCacheTest extends AndroidTestHelper {
         Assert.assertTrue(authorityValidationMap.containsKey("login.windows.net"));
     }
 
+    @Test
+    public void testPersistedMetadataIsReadBack() throws MalformedURLException, JSONException {
+        AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(new URL("https://login.windows.net/common"),
+                getDiscoveryResponse());
+        AuthorityValidationMetadataCache.persistMetadata(mContext);
+        AuthorityValidationMetadataCache.resetForTesting();
+
+        mNowMillis += TTL_MILLIS / 2;
+        AuthorityValidationMetadataCache.readPersistedMetadata(mContext);
+
+        final Map<String, InstanceDiscoveryMetadata> authorityValidationMap = AuthorityValidationMetadataCache.getAuthorityValidationMetadataCache();
+        final int expectedMapSize = 5;
+        Assert.assertEquals(expectedMapSize, authorityValidationMap.size());
+        Assert.assertTrue(AuthorityValidationMetadataCache.isAuthorityValidated(new URL("https://login.microsoft.com/common")));
+
+        final InstanceDiscoveryMetadata metadata = authorityValidationMap.get("sts.microsoft.com");
+        Assert.assertEquals("login.microsoftonline.com", metadata.getPreferredNetwork());
+        Assert.assertEquals("login.windows.net", metadata.getPreferredCache());
+        Assert.assertEquals(4, metadata.getAliases().size());
+    }
+
+    @Test
+    public void testFailedInstanceDiscoveryIsNotPersisted() throws MalformedURLException {
+        AuthorityValidationMetadataCache.updateInstanceDiscoveryMap("login.contoso.com", new InstanceDiscoveryMetadata(false));
+        AuthorityValidationMetadataCache.persistMetadata(mContext);
+        AuthorityValidationMetadataCache.resetForTesting();
+
+        AuthorityValidationMetadataCache.readPersistedMetadata(mContext);
+
+        Assert.assertFalse(AuthorityValidationMetadataCache.containsAuthorityHost(new URL("https://login.contoso.com/common")));
+    }
+
+    @Test
+    public void testPersistedMetadataTooOldIsDropped() throws MalformedURLException, JSONException {
+        AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(new URL("https://login.windows.net/common"),
+                getDiscoveryResponse());
+        AuthorityValidationMetadataCache.persistMetadata(mContext);
+        AuthorityValidationMetadataCache.resetForTesting();
+
+        mNowMillis += TTL_MILLIS + TimeUnit.DAYS.toMillis(8);
+        AuthorityValidationMetadataCache.readPersistedMetadata(mContext);
+
+        Assert.assertTrue(AuthorityValidationMetadataCache.getAuthorityValidationMetadataCache().isEmpty());
+    }
+
+    @Test
+    public void testPersistenceDisabled() throws MalformedURLException, JSONException {
+        AuthenticationSettings.INSTANCE.setAuthorityMetadataCacheTtlMillis(0);
+        AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(new URL("https://login.windows.net/common"),
+                getDiscoveryResponse());
+        AuthorityValidationMetadataCache.persistMetadata(mContext);
+        AuthorityValidationMetadataCache.resetForTesting();
+
+        AuthenticationSettings.INSTANCE.setAuthorityMetadataCacheTtlMillis(TTL_MILLIS);
+        AuthorityValidationMetadataCache.readPersistedMetadata(mContext);
+
+        Assert.assertTrue(AuthorityValidationMetadataCache.getAuthorityValidationMetadataCache().isEmpty());
+    }
+
+    @Test
+    public void testBundledSnapshotCoversKnownClouds() {
+        final Map<String, InstanceDiscoveryMetadata> snapshot = new HashMap<>();
+        for (final InstanceDiscoveryMetadata metadata : InstanceDiscoverySnapshot.getMetadata()) {
+            Assert.assertTrue(metadata.isValidated());
+            Assert.assertTrue(metadata.getAliases().contains(metadata.getPreferredNetwork()));
+            for (final String alias : metadata.getAliases()) {
+                snapshot.put(alias, metadata);
+            }
+        }
+
+        for (final String host : new String[]{"login.windows.net", "login.microsoftonline.com", "login.chinacloudapi.cn",
+                "login.microsoftonline.de", "login-us.microsoftonline.com", "login.microsoftonline.us"}) {
+            Assert.assertTrue(host, snapshot.containsKey(host));
+        }
+        Assert.assertEquals("login.microsoftonline.com", snapshot.get("login.windows.net").getPreferredNetwork());
+        Assert.assertEquals("login.windows.net", snapshot.get("login.microsoftonline.com").getPreferredCache());
+    }
+
+    @Test
+    public void testBundledSnapshotIsNotRefreshedOnceReplaced() throws MalformedURLException, JSONException {
+        AuthorityValidationMetadataCache.readBundledSnapshot();
+        final URL authorityUrl = new URL("https://login.windows.net/common");
+        Assert.assertTrue(AuthorityValidationMetadataCache.isAuthorityValidated(authorityUrl));
+        Assert.assertFalse(AuthorityValidationMetadataCache.isReturnedByInstanceDiscovery(authorityUrl));
+
+        // The instance discovery replaced the snapshot before the host was used, no refresh is left to do.
+        AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(authorityUrl, getDiscoveryResponse());
+        Assert.assertTrue(AuthorityValidationMetadataCache.isReturnedByInstanceDiscovery(authorityUrl));
+        Assert.assertFalse(AuthorityValidationMetadataCache.refreshSnapshotIfUsed(mContext, authorityUrl));
+        Assert.assertFalse(AuthorityValidationMetadataCache.refreshSnapshotIfUsed(mContext,
+                new URL("https://login.microsoftonline.com/common")));
+        Assert.assertFalse(AuthorityValidationMetadataCache.refreshSnapshotIfUsed(mContext,
+                new URL("https://login.contoso.com/common")));
+    }
+
     private Map<String, String> getDiscoveryResponseWithNoMetadata() {
         final Map<String, String> discoveryResponse = new HashMap<>();
         discoveryResponse.put(AuthorityValidationMetadataCache.TENANT_DISCOVERY_ENDPOINT, "valid_endpoint");
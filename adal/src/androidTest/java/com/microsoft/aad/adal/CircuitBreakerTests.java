@@ -0,0 +1,164 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CircuitBreakerTests {
+
+    private static final String HOST = "login.microsoftonline.com";
+
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private static final long OPEN_DURATION_MILLIS = 10000;
+
+    private long mNowNanos;
+
+    @Before
+    public void setUp() {
+        mNowNanos = TimeUnit.DAYS.toNanos(1);
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(mNowNanos);
+            }
+
+            @Override
+            long nanoTime() {
+                return mNowNanos;
+            }
+        });
+        AuthenticationSettings.INSTANCE.setCircuitBreakerEnabled(true);
+        AuthenticationSettings.INSTANCE.setCircuitBreakerFailureThreshold(FAILURE_THRESHOLD);
+        AuthenticationSettings.INSTANCE.setCircuitBreakerOpenDurationMillis(OPEN_DURATION_MILLIS);
+        CircuitBreaker.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.getInstance().reset();
+        AuthenticationSettings.INSTANCE.setCircuitBreakerEnabled(false);
+        AuthenticationSettings.INSTANCE.setCircuitBreakerFailureThreshold(5);
+        AuthenticationSettings.INSTANCE.setCircuitBreakerOpenDurationMillis(30000);
+        Clock.setInstance(null);
+    }
+
+    @Test
+    public void testFailureStatusCodes() {
+        assertTrue(CircuitBreaker.isFailureStatusCode(500));
+        assertTrue(CircuitBreaker.isFailureStatusCode(503));
+        assertFalse(CircuitBreaker.isFailureStatusCode(400));
+        assertFalse(CircuitBreaker.isFailureStatusCode(429));
+        assertFalse(CircuitBreaker.isFailureStatusCode(200));
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+        for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+            assertNull(circuitBreaker.onFailure(HOST));
+            assertTrue(circuitBreaker.allowRequest(HOST));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.onFailure(HOST));
+        assertFalse(circuitBreaker.allowRequest(HOST));
+        assertFalse(circuitBreaker.allowRequest(HOST.toUpperCase()));
+        assertTrue(circuitBreaker.isOpen(HOST));
+        assertTrue(circuitBreaker.allowRequest("login.microsoftonline.de"));
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+        for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(HOST);
+        }
+
+        assertNull(circuitBreaker.onSuccess(HOST));
+        assertNull(circuitBreaker.onFailure(HOST));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+    }
+
+    @Test
+    public void testHalfOpenLetsOneProbeThrough() {
+        final CircuitBreaker circuitBreaker = openCircuit();
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(OPEN_DURATION_MILLIS);
+        assertFalse(circuitBreaker.isOpen(HOST));
+        assertTrue(circuitBreaker.allowRequest(HOST));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(HOST));
+        // Other requests fail fast while the probe is in flight.
+        assertFalse(circuitBreaker.allowRequest(HOST));
+        assertTrue(circuitBreaker.isOpen(HOST));
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.onSuccess(HOST));
+        assertTrue(circuitBreaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void testFailedProbeOpensAgain() {
+        final CircuitBreaker circuitBreaker = openCircuit();
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(OPEN_DURATION_MILLIS);
+        assertTrue(circuitBreaker.allowRequest(HOST));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.onFailure(HOST));
+        assertFalse(circuitBreaker.allowRequest(HOST));
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(OPEN_DURATION_MILLIS - 1);
+        assertFalse(circuitBreaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void testDisabled() {
+        openCircuit();
+        AuthenticationSettings.INSTANCE.setCircuitBreakerEnabled(false);
+
+        assertTrue(CircuitBreaker.getInstance().allowRequest(HOST));
+        assertFalse(CircuitBreaker.getInstance().isOpen(HOST));
+        assertNull(CircuitBreaker.getInstance().onFailure(HOST));
+    }
+
+    private CircuitBreaker openCircuit() {
+        final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(HOST);
+        }
+
+        assertFalse(circuitBreaker.allowRequest(HOST));
+        return circuitBreaker;
+    }
+}
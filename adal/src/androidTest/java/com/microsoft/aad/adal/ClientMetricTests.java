@@ -25,11 +25,11 @@ package com.microsoft.aad.adal;
 
 import android.support.test.runner.AndroidJUnit4;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
@@ -37,56 +37,119 @@ import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class ClientMetricTests extends AndroidTestHelper {
 
-    @Test
-    public void testADFSBehavior() throws ClassNotFoundException, IllegalArgumentException,
-            IllegalAccessException, InvocationTargetException, NoSuchMethodException,
-            InstantiationException, MalformedURLException, NoSuchFieldException {
+    private static final String LAST_REQUEST_HEADER = "x-client-last-request";
+
+    private static final String LAST_ERROR_HEADER = "x-client-last-error";
+
+    private static final String LAST_ENDPOINT_HEADER = "x-client-last-endpoint";
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        ClientMetrics.INSTANCE.clear();
+    }
 
-        Object clientMetrics = getInstance();
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        ClientMetrics.INSTANCE.clear();
+        super.tearDown();
+    }
+
+    @Test
+    public void testADFSBehavior() throws MalformedURLException {
         final URL endpointAdfs = new URL("https://fs.ade2eadfs30.com/adfs");
-        UUID correlationId = UUID.randomUUID();
-        Map<String, String> headers = new HashMap<String, String>();
-        Method method = ReflectionUtils.getTestMethod(clientMetrics, "beginClientMetricsRecord",
-                URL.class, UUID.class, Map.class);
-        method.invoke(clientMetrics, endpointAdfs, correlationId, headers);
+        final UUID correlationId = UUID.randomUUID();
+        final Map<String, String> headers = new HashMap<>();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpointAdfs, correlationId, headers);
+        ClientMetrics.INSTANCE.endClientMetricsRecord(ClientMetricsEndpointType.TOKEN, correlationId);
 
         assertTrue("Expecting empty header", headers.isEmpty());
-        assertEquals("CorrelationId is empty", null,
-                ReflectionUtils.getFieldValue(clientMetrics, "mLastCorrelationId"));
+        assertEquals("ADFS request is not recorded", 0, ClientMetrics.INSTANCE.getCompletedRecordCount());
+    }
+
+    @Test
+    public void testPendingMetrics() throws MalformedURLException {
+        final URL endpoint = new URL("https://login.windwos.com/testtenant");
+        final UUID correlationId = UUID.randomUUID();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, correlationId, new HashMap<String, String>());
+        ClientMetrics.INSTANCE.setLastError(correlationId, "[lastErrorTest]");
+        ClientMetrics.INSTANCE.endClientMetricsRecord(ClientMetricsEndpointType.INSTANCE_DISCOVERY, correlationId);
+
+        // next call will report the completed request
+        final Map<String, String> headers = new HashMap<>();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, UUID.randomUUID(), headers);
+        assertEquals(correlationId.toString(), headers.get(LAST_REQUEST_HEADER));
+        assertEquals("lastErrorTest", headers.get(LAST_ERROR_HEADER));
+        assertEquals(ClientMetricsEndpointType.INSTANCE_DISCOVERY, headers.get(LAST_ENDPOINT_HEADER));
+
+        // and only once
+        final Map<String, String> nextHeaders = new HashMap<>();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, UUID.randomUUID(), nextHeaders);
+        assertFalse(nextHeaders.containsKey(LAST_REQUEST_HEADER));
     }
 
     @Test
-    public void testPendingMetrics() throws ClassNotFoundException, IllegalArgumentException,
-            NoSuchMethodException, InstantiationException, IllegalAccessException,
-            InvocationTargetException, MalformedURLException, NoSuchFieldException {
-        Object clientMetrics = getInstance();
-        final URL endpointAdfs = new URL("https://login.windwos.com/testtenant");
-        UUID correlationId = UUID.randomUUID();
-        Map<String, String> headers = new HashMap<String, String>();
-        Method beginMethod = ReflectionUtils.getTestMethod(clientMetrics,
-                "beginClientMetricsRecord", URL.class, UUID.class, Map.class);
-        beginMethod.invoke(clientMetrics, endpointAdfs, correlationId, headers);
-
-        Method endMethod = ReflectionUtils.getTestMethod(clientMetrics, "endClientMetricsRecord",
-                String.class, UUID.class);
-        endMethod.invoke(clientMetrics, "instance", correlationId);
-
-        Method lastErr = ReflectionUtils.getTestMethod(clientMetrics, "setLastError", String.class);
-        lastErr.invoke(clientMetrics, "lastErrorTest");
-        // next call will report error
-        assertEquals("CorrelationId is empty", correlationId,
-                ReflectionUtils.getFieldValue(clientMetrics, "mLastCorrelationId"));
+    public void testConcurrentRequestsRecordedSeparately() throws MalformedURLException {
+        final URL endpoint = new URL("https://login.microsoftonline.com/testtenant");
+        final UUID firstCorrelationId = UUID.randomUUID();
+        final UUID secondCorrelationId = UUID.randomUUID();
+
+        // Interleaved requests do not overwrite each other.
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, firstCorrelationId, new HashMap<String, String>());
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, secondCorrelationId, new HashMap<String, String>());
+        ClientMetrics.INSTANCE.setLastError(secondCorrelationId, "secondError");
+        ClientMetrics.INSTANCE.setLastError(firstCorrelationId, "firstError");
+        ClientMetrics.INSTANCE.endClientMetricsRecord(ClientMetricsEndpointType.TOKEN, secondCorrelationId);
+        ClientMetrics.INSTANCE.endClientMetricsRecord(ClientMetricsEndpointType.INSTANCE_DISCOVERY, firstCorrelationId);
+        assertEquals(2, ClientMetrics.INSTANCE.getCompletedRecordCount());
+
+        final Map<String, String> headers = new HashMap<>();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, UUID.randomUUID(), headers);
+        assertEquals(secondCorrelationId.toString(), headers.get(LAST_REQUEST_HEADER));
+        assertEquals("secondError", headers.get(LAST_ERROR_HEADER));
+        assertEquals(ClientMetricsEndpointType.TOKEN, headers.get(LAST_ENDPOINT_HEADER));
+
+        headers.clear();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, UUID.randomUUID(), headers);
+        assertEquals(firstCorrelationId.toString(), headers.get(LAST_REQUEST_HEADER));
+        assertEquals("firstError", headers.get(LAST_ERROR_HEADER));
+        assertEquals(ClientMetricsEndpointType.INSTANCE_DISCOVERY, headers.get(LAST_ENDPOINT_HEADER));
     }
 
-    private Object getInstance() throws ClassNotFoundException {
-        // Full package name
-        Class<?> c = Class.forName("com.microsoft.aad.adal.ClientMetrics");
-        Object[] consts = c.getEnumConstants();
-        return consts[0];
+    @Test
+    public void testCompletedRecordsAreBounded() throws MalformedURLException {
+        final URL endpoint = new URL("https://login.microsoftonline.com/testtenant");
+        for (int i = 0; i < 100; i++) {
+            final UUID correlationId = UUID.randomUUID();
+            ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, correlationId, new HashMap<String, String>());
+            ClientMetrics.INSTANCE.endClientMetricsRecord(ClientMetricsEndpointType.TOKEN, correlationId);
+        }
+
+        // Each request reports one completed request, the count stays at the last one.
+        assertEquals(1, ClientMetrics.INSTANCE.getCompletedRecordCount());
+
+        // Concurrent requests completing without a following request keep the most recent ones only.
+        ClientMetrics.INSTANCE.clear();
+        final UUID[] correlationIds = new UUID[100];
+        for (int i = 0; i < correlationIds.length; i++) {
+            correlationIds[i] = UUID.randomUUID();
+            ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, correlationIds[i], new HashMap<String, String>());
+        }
+        for (final UUID correlationId : correlationIds) {
+            ClientMetrics.INSTANCE.endClientMetricsRecord(ClientMetricsEndpointType.TOKEN, correlationId);
+        }
+        assertEquals(16, ClientMetrics.INSTANCE.getCompletedRecordCount());
+
+        final Map<String, String> headers = new HashMap<>();
+        ClientMetrics.INSTANCE.beginClientMetricsRecord(endpoint, UUID.randomUUID(), headers);
+        assertEquals(correlationIds[correlationIds.length - 16].toString(), headers.get(LAST_REQUEST_HEADER));
     }
 }
@@ -28,15 +28,21 @@ import android.support.test.runner.AndroidJUnit4;
 
 import com.microsoft.identity.common.adal.internal.net.HttpUrlConnectionFactory;
 import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.UnknownHostException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -78,6 +84,8 @@ public class DRSMetadataRequestorTests extends AndroidTestHelper {
 
     private static final String TEST_ADFS = "https://fs.lindft6.com/adfs/ls";
     private static final String DOMAIN = "lindft6.com";
+    private static final String CLOUD_DRS_HOST = "enterpriseregistration.windows.net";
+    private static final long SLOW_ON_PREM_MILLIS = DRSMetadataRequestor.CLOUD_PROBE_HEAD_START_MILLIS * 2;
 
     @Before
     public void setUp() throws Exception {
@@ -87,6 +95,7 @@ public class DRSMetadataRequestorTests extends AndroidTestHelper {
     @After
     public void tearDown() throws Exception {
         HttpUrlConnectionFactory.setMockedHttpUrlConnection(null);
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(null);
         super.tearDown();
     }
 
@@ -127,6 +136,85 @@ public class DRSMetadataRequestorTests extends AndroidTestHelper {
         }
     }
 
+    @Test
+    public void testCloudIsNotProbedWhenOnPremAnswers() throws IOException, AuthenticationException {
+        final IWebRequestHandler mockedWebRequestHandler = mockDrs(0, new HttpWebResponse(HttpURLConnection.HTTP_OK,
+                RESPONSE, null), null);
+
+        final DRSMetadata metadata = new DRSMetadataRequestor().requestMetadata(DOMAIN);
+
+        assertEquals(TEST_ADFS, metadata.getIdentityProviderService().getPassiveAuthEndpoint());
+        verifyCloudDrsRequests(mockedWebRequestHandler, 0);
+    }
+
+    @Test
+    public void testSlowOnPremErrorTakesPrecedenceOverCloud() throws IOException {
+        final IWebRequestHandler mockedWebRequestHandler = mockDrs(SLOW_ON_PREM_MILLIS,
+                new HttpWebResponse(HttpURLConnection.HTTP_BAD_REQUEST, "", null), null);
+
+        try {
+            new DRSMetadataRequestor().requestMetadata(DOMAIN);
+            fail("Expected the on-prem DRS error");
+        } catch (final AuthenticationException e) {
+            assertEquals(ADALError.DRS_FAILED_SERVER_ERROR, e.getCode());
+        }
+
+        // The cloud DRS was probed while the on-prem one was slow, its answer is not used.
+        verifyCloudDrsRequests(mockedWebRequestHandler, 1);
+    }
+
+    @Test
+    public void testCloudIsUsedWhenSlowOnPremHostIsUnknown() throws IOException, AuthenticationException {
+        final IWebRequestHandler mockedWebRequestHandler = mockDrs(SLOW_ON_PREM_MILLIS, null,
+                new UnknownHostException(DOMAIN));
+
+        final DRSMetadata metadata = new DRSMetadataRequestor().requestMetadata(DOMAIN);
+
+        assertEquals(TEST_ADFS, metadata.getIdentityProviderService().getPassiveAuthEndpoint());
+        verifyCloudDrsRequests(mockedWebRequestHandler, 1);
+    }
+
+    /**
+     * Mocks the on-prem DRS, answering after the given delay, and the cloud DRS answering the metadata at once.
+     * Each probe gets its own response.
+     */
+    private static IWebRequestHandler mockDrs(final long onPremDelayMillis, final HttpWebResponse onPremResponse,
+                                              final IOException onPremFailure) throws IOException {
+        final IWebRequestHandler mockedWebRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(mockedWebRequestHandler.sendGet(Mockito.any(URL.class), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(final InvocationOnMock invocation) throws Throwable {
+                        final URL url = (URL) invocation.getArguments()[0];
+                        if (CLOUD_DRS_HOST.equals(url.getHost())) {
+                            return new HttpWebResponse(HttpURLConnection.HTTP_OK, RESPONSE, null);
+                        }
+
+                        Thread.sleep(onPremDelayMillis);
+                        if (onPremFailure != null) {
+                            throw onPremFailure;
+                        }
+                        return onPremResponse;
+                    }
+                });
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(mockedWebRequestHandler);
+        return mockedWebRequestHandler;
+    }
+
+    private static void verifyCloudDrsRequests(final IWebRequestHandler mockedWebRequestHandler, final int count)
+            throws IOException {
+        final ArgumentCaptor<URL> urlCaptor = ArgumentCaptor.forClass(URL.class);
+        Mockito.verify(mockedWebRequestHandler, Mockito.atLeastOnce()).sendGet(urlCaptor.capture(),
+                Mockito.<String, String>anyMap());
+        int cloudRequests = 0;
+        for (final URL url : urlCaptor.getAllValues()) {
+            if (CLOUD_DRS_HOST.equals(url.getHost())) {
+                cloudRequests++;
+            }
+        }
+        assertEquals(count, cloudRequests);
+    }
+
     @Test
     public void testParseMetadata() throws AuthenticationException {
         HttpWebResponse mockWebResponse = Mockito.mock(HttpWebResponse.class);
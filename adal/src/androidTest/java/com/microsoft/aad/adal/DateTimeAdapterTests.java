@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class DateTimeAdapterTests {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    @Test
+    public void testIso8601MatchesSimpleDateFormat() throws Exception {
+        final DateFormat expectedFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        expectedFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        final long[] samples = {0L, 951782399999L, 951782400000L, 1456790399000L, 1430252997123L,
+                4102444800000L, System.currentTimeMillis()};
+        for (final long sample : samples) {
+            final Date date = new Date(sample);
+            final String formatted = Iso8601DateFormat.format(date);
+            assertEquals(expectedFormat.format(date), formatted);
+            assertEquals(sample / MILLIS_PER_SECOND * MILLIS_PER_SECOND, Iso8601DateFormat.parse(formatted).getTime());
+        }
+    }
+
+    @Test
+    public void testIso8601RejectsOtherFormats() {
+        assertNull(Iso8601DateFormat.parse("Apr 28, 2015 1:09:57 PM"));
+        assertNull(Iso8601DateFormat.parse("2016-02-30T00:00:00Z"));
+        assertNull(Iso8601DateFormat.parse("2016-02-28T24:00:00Z"));
+        assertNull(Iso8601DateFormat.parse("2016-02-28 10:00:00Z"));
+        assertNull(Iso8601DateFormat.parse(""));
+    }
+
+    @Test
+    public void testDeserializeFallsBackToLegacyFormats() {
+        final DateTimeAdapter adapter = new DateTimeAdapter();
+        final DateFormat enUs24HourFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss", Locale.US);
+        final Date expected = adapter.deserialize(new JsonPrimitive(enUs24HourFormat.format(new Date(1430252997000L))),
+                Date.class, null);
+        assertEquals(1430252997000L, expected.getTime());
+
+        final String iso = adapter.serialize(expected, Date.class, null).getAsString();
+        assertEquals(expected, adapter.deserialize(new JsonPrimitive(iso), Date.class, null));
+    }
+
+    @Test
+    public void testDeserializeDoesNotDependOnPreviousValues() {
+        final DateFormat enUsFormat = DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US);
+        final DateFormat enUs24HourFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss", Locale.US);
+        final JsonPrimitive amPmValue = new JsonPrimitive(enUsFormat.format(new Date(1430252997000L)));
+        final Date expected = new DateTimeAdapter().deserialize(amPmValue, Date.class, null);
+
+        // The 24 hour format also parses the AM/PM value, ignoring the marker.
+        final DateTimeAdapter adapter = new DateTimeAdapter();
+        adapter.deserialize(new JsonPrimitive(enUs24HourFormat.format(new Date(1430252997000L))), Date.class, null);
+        assertEquals(expected, adapter.deserialize(amPmValue, Date.class, null));
+    }
+}
@@ -28,6 +28,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
 
 
 import com.microsoft.identity.common.adal.internal.cache.StorageHelper;
@@ -37,6 +38,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -63,6 +66,8 @@ public class DefaultTokenCacheStoreTests extends BaseTokenStoreTests {
 
     private static final String TAG = "DefaultTokenCacheStoreTests";
 
+    private static final String REENCRYPTED_ITEM_JSON = "{\"mClientId\":\"clientId23\",\"mResource\":\"resource\"}";
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
@@ -84,6 +89,98 @@ public class DefaultTokenCacheStoreTests extends BaseTokenStoreTests {
         assertEquals("Same item as mock", "clientId23", item.getClientId());
     }
 
+    @Test
+    public void testKeyMaterialPrewarm() throws AuthenticationException {
+        AuthenticationSettings.INSTANCE.setEnableKeyMaterialPrewarm(true);
+        try {
+            final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+
+            // Cache reads wait on the shared prewarm task, so the load has completed by now.
+            final List<TokenCacheItem> tokens = store.getTokensForResource("resource");
+            assertEquals("token size", 1, tokens.size());
+            assertTrue(DefaultTokenCacheStore.getKeyMaterialLoadDurationMillis() >= 0);
+        } finally {
+            AuthenticationSettings.INSTANCE.setEnableKeyMaterialPrewarm(false);
+        }
+    }
+
+    @Test
+    public void testReEncryptionJobSkipsEntriesWithCurrentKey() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+        for (final Object value : store.getSharedPreferences().getAll().values()) {
+            assertEquals(DefaultTokenCacheStore.getCurrentKeyVersion(),
+                    DefaultTokenCacheStore.getKeyVersion((String) value));
+        }
+
+        final int[] result = new int[2];
+        final TokenCacheReEncryptionJob job = new TokenCacheReEncryptionJob(store);
+        job.setBatchSize(1);
+        job.setBatchPauseMillis(0);
+        job.setListener(new TokenCacheReEncryptionJob.Listener() {
+            @Override
+            public void onProgress(int processed, int total) {
+                assertTrue(processed <= total);
+            }
+
+            @Override
+            public void onCompleted(int reEncrypted, int failed) {
+                result[0] = reEncrypted;
+                result[1] = failed;
+            }
+        });
+        job.runBatches();
+
+        assertEquals("nothing to re-encrypt", 0, result[0]);
+        assertEquals("no failures", 0, result[1]);
+        assertEquals("token size", 1, store.getTokensForResource("resource").size());
+    }
+
+    @Test
+    public void testReEncryptionJobReEncryptsEntryWithStaleKey() throws GeneralSecurityException, IOException {
+        final String staleBlob = getEncryptedBlob(getStaleKeyVersion(), "stale");
+        final String currentBlob = getEncryptedBlob(DefaultTokenCacheStore.getCurrentKeyVersion(), "current");
+        final StorageHelper mockSecure = Mockito.mock(StorageHelper.class);
+        when(mockSecure.decrypt(staleBlob)).thenReturn(REENCRYPTED_ITEM_JSON);
+        when(mockSecure.decrypt(currentBlob)).thenReturn(REENCRYPTED_ITEM_JSON);
+        when(mockSecure.encrypt(REENCRYPTED_ITEM_JSON)).thenReturn(currentBlob);
+        final DefaultTokenCacheStore store = getStoreWithStorageHelper(mockSecure);
+        store.removeAll();
+        store.getSharedPreferences().edit().putString("testkey", staleBlob).commit();
+
+        final int[] result = runReEncryptionJob(store);
+
+        assertEquals("re-encrypted", 1, result[0]);
+        assertEquals("no failures", 0, result[1]);
+        assertEquals(currentBlob, store.getSharedPreferences().getString("testkey", null));
+        assertEquals("clientId23", store.getItem("testkey").getClientId());
+    }
+
+    @Test
+    public void testReEncryptionJobKeepsEntryRewrittenMeanwhile() throws GeneralSecurityException, IOException {
+        final String staleBlob = getEncryptedBlob(getStaleKeyVersion(), "stale");
+        final String rewrittenBlob = getEncryptedBlob(DefaultTokenCacheStore.getCurrentKeyVersion(), "rewritten");
+        final StorageHelper mockSecure = Mockito.mock(StorageHelper.class);
+        final DefaultTokenCacheStore store = getStoreWithStorageHelper(mockSecure);
+        when(mockSecure.decrypt(staleBlob)).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) {
+                // A token request writes the entry while the job decrypts it.
+                store.getSharedPreferences().edit().putString("testkey", rewrittenBlob).commit();
+                return REENCRYPTED_ITEM_JSON;
+            }
+        });
+        when(mockSecure.encrypt(REENCRYPTED_ITEM_JSON)).thenReturn(getEncryptedBlob(
+                DefaultTokenCacheStore.getCurrentKeyVersion(), "current"));
+        store.removeAll();
+        store.getSharedPreferences().edit().putString("testkey", staleBlob).commit();
+
+        final int[] result = runReEncryptionJob(store);
+
+        assertEquals("nothing re-encrypted", 0, result[0]);
+        assertEquals("skipped entry is not a failure", 0, result[1]);
+        assertEquals(rewrittenBlob, store.getSharedPreferences().getString("testkey", null));
+    }
+
     @Test
     public void testGetAll() throws AuthenticationException {
         DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
@@ -120,6 +217,48 @@ public class DefaultTokenCacheStoreTests extends BaseTokenStoreTests {
         assertNotNull(item.getExpiresOn().after(new Date()));
     }
 
+    private DefaultTokenCacheStore getStoreWithStorageHelper(final StorageHelper storageHelper) {
+        return new DefaultTokenCacheStore(getContext()) {
+            @Override
+            protected StorageHelper getStorageHelper() {
+                return storageHelper;
+            }
+        };
+    }
+
+    private static int[] runReEncryptionJob(final DefaultTokenCacheStore store) {
+        final int[] result = new int[2];
+        final TokenCacheReEncryptionJob job = new TokenCacheReEncryptionJob(store);
+        job.setBatchPauseMillis(0);
+        job.setListener(new TokenCacheReEncryptionJob.Listener() {
+            @Override
+            public void onProgress(int processed, int total) {
+                assertTrue(processed <= total);
+            }
+
+            @Override
+            public void onCompleted(int reEncrypted, int failed) {
+                result[0] = reEncrypted;
+                result[1] = failed;
+            }
+        });
+        job.runBatches();
+        return result;
+    }
+
+    private static String getStaleKeyVersion() {
+        return StorageHelper.VERSION_USER_DEFINED.equals(DefaultTokenCacheStore.getCurrentKeyVersion())
+                ? StorageHelper.VERSION_ANDROID_KEY_STORE : StorageHelper.VERSION_USER_DEFINED;
+    }
+
+    /**
+     * @return A blob in the format of {@link StorageHelper#encrypt(String)} with the key version, the
+     * rest of the payload is not encrypted.
+     */
+    private static String getEncryptedBlob(final String keyVersion, final String payload) throws IOException {
+        return "cE1" + Base64.encodeToString((keyVersion + payload).getBytes("UTF-8"), Base64.NO_WRAP);
+    }
+
     private DefaultTokenCacheStore mockDefaultCacheStore(final String dateTimeString) throws GeneralSecurityException, IOException {
         final StorageHelper mockSecure = Mockito.mock(StorageHelper.class);
         Context mockContext = mock(Context.class);
@@ -264,6 +403,44 @@ public class DefaultTokenCacheStoreTests extends BaseTokenStoreTests {
         }
     }
 
+    @Test
+    public void testExpirationUsesInjectedClock() {
+        final long now = 1430252997000L;
+        final long expirationBufferMillis = 300000L;
+        AuthenticationSettings.INSTANCE.setExpirationBuffer(300);
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+
+            @Override
+            long nanoTime() {
+                return 0;
+            }
+        });
+
+        try {
+            final TokenCacheItem item = new TokenCacheItem();
+            assertFalse("Item without expiry is not expired", TokenCacheItem.isTokenExpired(item.getExpiresOnMillis()));
+
+            item.setExpiresOn(new Date(now + expirationBufferMillis - 1));
+            assertTrue("Should say expired", TokenCacheItem.isTokenExpired(item.getExpiresOnMillis()));
+
+            item.setExpiresOn(new Date(now + expirationBufferMillis + 1));
+            assertFalse("Should not say expired", TokenCacheItem.isTokenExpired(item.getExpiresOnMillis()));
+            assertEquals(now + expirationBufferMillis + 1, item.getExpiresOn().getTime());
+
+            // An expiry at the epoch is set and expired.
+            item.setExpiresOn(new Date(0));
+            assertNotNull(item.getExpiresOn());
+            assertEquals(0, item.getExpiresOn().getTime());
+            assertTrue("Should say expired", TokenCacheItem.isTokenExpired(item.getExpiresOnMillis()));
+        } finally {
+            Clock.setInstance(null);
+        }
+    }
+
     @Override
     protected ITokenCacheStore getTokenCacheStore() {
         return new DefaultTokenCacheStore(InstrumentationRegistry.getTargetContext());
@@ -31,6 +31,8 @@ import android.support.test.runner.AndroidJUnit4;
 
 
 import com.microsoft.identity.common.adal.internal.net.HttpUrlConnectionFactory;
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -39,20 +41,26 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -70,7 +78,7 @@ public class DiscoveryTests extends AndroidTestHelper {
 
     @Before
     public void setUp() throws Exception {
-        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        AuthorityValidationMetadataCache.resetForTesting();
         super.setUp();
     }
 
@@ -324,6 +332,104 @@ public class DiscoveryTests extends AndroidTestHelper {
         Mockito.verify(mockedConnection, Mockito.times(1)).getInputStream();
     }
 
+    // Test when a request waiting for the discovery in flight runs out of time, the discovery stays shared with the
+    // later requests.
+    @Test
+    public void testWaiterDeadlineDoesNotDropDiscoveryInFlight() throws Exception {
+        final CountDownLatch discoverySent = new CountDownLatch(1);
+        final CountDownLatch releaseDiscovery = new CountDownLatch(1);
+        final IWebRequestHandler mockedWebRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(mockedWebRequestHandler.sendGet(Mockito.any(URL.class), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                        discoverySent.countDown();
+                        releaseDiscovery.await(1, TimeUnit.MINUTES);
+                        return new HttpWebResponse(HttpURLConnection.HTTP_OK,
+                                "{\"tenant_discovery_endpoint\":\"valid endpoint\"}", null);
+                    }
+                });
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(mockedWebRequestHandler);
+
+        final URL authorityUrl = new URL("https://login.windows.net/common");
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Void> owner = executorService.submit(getValidateAuthorityTask(authorityUrl));
+            assertTrue(discoverySent.await(1, TimeUnit.SECONDS));
+
+            RequestDeadline.setCurrent(new RequestDeadline(100));
+            try {
+                new Discovery(new FileMockContext(InstrumentationRegistry.getContext())).validateAuthority(authorityUrl);
+                fail("Expected the waiting request to run out of time");
+            } catch (final AuthenticationException e) {
+                assertEquals(ADALError.REQUEST_DEADLINE_EXCEEDED, e.getCode());
+            } finally {
+                RequestDeadline.setCurrent(null);
+            }
+
+            final Future<Void> laterRequest = executorService.submit(getValidateAuthorityTask(authorityUrl));
+            Thread.sleep(200);
+            releaseDiscovery.countDown();
+            owner.get();
+            laterRequest.get();
+        } finally {
+            releaseDiscovery.countDown();
+            AuthenticationSettings.INSTANCE.setWebRequestHandler(null);
+            executorService.shutdown();
+        }
+
+        Mockito.verify(mockedWebRequestHandler, Mockito.times(1)).sendGet(Mockito.any(URL.class),
+                Mockito.<String, String>anyMap());
+    }
+
+    // Test when two requests from different threads validate different hosts, they do not wait for each other.
+    @Test
+    public void testValidateAuthorityForDifferentHostsInParallel() throws IOException, InterruptedException, ExecutionException {
+        final CountDownLatch bothSent = new CountDownLatch(2);
+        final IWebRequestHandler mockedWebRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(mockedWebRequestHandler.sendGet(Mockito.any(URL.class), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                        bothSent.countDown();
+                        if (!bothSent.await(1, TimeUnit.SECONDS)) {
+                            throw new IOException("Discoveries were not sent in parallel");
+                        }
+                        return new HttpWebResponse(HttpURLConnection.HTTP_OK,
+                                "{\"tenant_discovery_endpoint\":\"valid endpoint\"}", null);
+                    }
+                });
+        AuthenticationSettings.INSTANCE.setWebRequestHandler(mockedWebRequestHandler);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<Void>> results = executorService.invokeAll(Arrays.asList(
+                    getValidateAuthorityTask(new URL("https://login.windows.net/common")),
+                    getValidateAuthorityTask(new URL("https://login.microsoftonline.de/common"))));
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            AuthenticationSettings.INSTANCE.setWebRequestHandler(null);
+            executorService.shutdown();
+        }
+
+        Mockito.verify(mockedWebRequestHandler, Mockito.times(2)).sendGet(Mockito.any(URL.class),
+                Mockito.<String, String>anyMap());
+    }
+
+    private Callable<Void> getValidateAuthorityTask(final URL authorityUrl) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                final FileMockContext context = new FileMockContext(InstrumentationRegistry.getContext());
+                new Discovery(context).validateAuthority(authorityUrl);
+
+                return null;
+            }
+        };
+    }
+
     /**
      * Verified scenario:
      * When an authority is valid and metadata is returned:
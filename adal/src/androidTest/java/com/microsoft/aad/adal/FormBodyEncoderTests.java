@@ -0,0 +1,81 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class FormBodyEncoderTests {
+
+    @Test
+    public void testEncodingMatchesUrlEncoder() throws UnsupportedEncodingException {
+        final String[] values = {
+                "client 1234567890-+=;'",
+                "resource%20 ",
+                "AZaz09.-*_~!@#$&/?:[]{}\"",
+                "café 中文",
+                "emoji 😀",
+                "",
+        };
+
+        for (final String value : values) {
+            final String expected = "name=" + URLEncoder.encode(value, "UTF-8");
+            assertEquals(expected, new FormBodyEncoder().add("name", value).toString());
+        }
+    }
+
+    @Test
+    public void testParametersAreJoined() throws UnsupportedEncodingException {
+        final FormBodyEncoder body = new FormBodyEncoder()
+                .add("grant_type", "refresh_token")
+                .add("refresh_token", "token=")
+                .add("claims", null);
+
+        assertEquals("grant_type=refresh_token&refresh_token=token%3D&claims=", body.toString());
+        assertArrayEquals(body.toString().getBytes("US-ASCII"), body.toByteArray());
+        // The body is encoded once and shared by the attempts.
+        assertSame(body.toByteArray(), body.toByteArray());
+    }
+
+    @Test
+    public void testBufferGrows() throws UnsupportedEncodingException {
+        final StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longValue.append("é ");
+        }
+
+        assertEquals("name=" + URLEncoder.encode(longValue.toString(), "UTF-8"),
+                new FormBodyEncoder().add("name", longValue.toString()).toString());
+    }
+}
@@ -106,6 +106,31 @@ public final class HttpEventTest {
         assertTrue(dispatchMap.get(EventStrings.HTTP_RESPONSE_CODE).equals(String.valueOf(HttpURLConnection.HTTP_OK)));
     }
 
+    @Test
+    public void testHttpEventsAreCounted() {
+        final Map<String, String> dispatchMap = new HashMap<>();
+        new HttpEvent(EventStrings.HTTP_EVENT).processEvent(dispatchMap);
+        new HttpEvent(EventStrings.HTTP_EVENT).processEvent(dispatchMap);
+        new HttpEvent(EventStrings.HTTP_EVENT).processEvent(dispatchMap);
+
+        assertEquals("3", dispatchMap.get(EventStrings.HTTP_EVENT_COUNT));
+    }
+
+    @Test
+    public void testResponseSizesAreSummed() {
+        final HttpEvent event = new HttpEvent(EventStrings.HTTP_EVENT);
+        event.setResponseSize(300, 1200);
+        final HttpEvent event2 = new HttpEvent(EventStrings.HTTP_EVENT);
+        event2.setResponseSize(100, 100);
+
+        final Map<String, String> dispatchMap = new HashMap<>();
+        event.processEvent(dispatchMap);
+        event2.processEvent(dispatchMap);
+
+        assertEquals("400", dispatchMap.get(EventStrings.HTTP_RESPONSE_COMPRESSED_BYTES));
+        assertEquals("1300", dispatchMap.get(EventStrings.HTTP_RESPONSE_UNCOMPRESSED_BYTES));
+    }
+
     @Test
     public void testSpeRingInfoStrangeFormatting() {
         final String speHeaderStr = "1 , ,, ,";
@@ -0,0 +1,184 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.identity.common.adal.internal.net.HttpUrlConnectionFactory;
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class HttpWebRequestTests {
+
+    private static final String TEST_URL = "https://login.microsoftonline.com/common/discovery/instance";
+
+    private static final String RESPONSE_BODY = "{\"tenant_discovery_endpoint\":\"https://login.microsoftonline.com/"
+            + "common/.well-known/openid-configuration\",\"api-version\":\"1.1\",\"metadata\":[]}";
+
+    @After
+    public void tearDown() {
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(null);
+        HttpResponseStats.takeLast();
+    }
+
+    @Test
+    public void testGzipResponseIsDecompressed() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final OutputStream gzipStream = new GZIPOutputStream(compressed);
+        gzipStream.write(RESPONSE_BODY.getBytes("UTF-8"));
+        gzipStream.close();
+
+        verifyCompressedResponse("gzip", compressed.toByteArray());
+    }
+
+    @Test
+    public void testZlibDeflateResponseIsDecompressed() throws IOException {
+        verifyCompressedResponse("deflate", deflate(new Deflater()));
+    }
+
+    @Test
+    public void testRawDeflateResponseIsDecompressed() throws IOException {
+        verifyCompressedResponse("deflate", deflate(new Deflater(Deflater.DEFAULT_COMPRESSION, true)));
+    }
+
+    @Test
+    public void testEmptyGzipResponse() throws IOException {
+        final HttpURLConnection mockedConnection = mockConnection("gzip", new byte[0]);
+        final HttpWebResponse response = send();
+
+        assertEquals("", response.getBody());
+        Mockito.verify(mockedConnection).setRequestProperty("Accept-Encoding", "gzip, deflate");
+        final HttpResponseStats stats = HttpResponseStats.takeLast();
+        assertEquals(0, stats.getCompressedBytes());
+        assertEquals(0, stats.getUncompressedBytes());
+    }
+
+    @Test
+    public void testGetIsResentWhenKeptAliveConnectionIsClosed() throws IOException {
+        final HttpURLConnection mockedConnection = mockClosedKeptAliveConnection();
+        try {
+            send();
+            fail("Expected the closed connection to fail the request");
+        } catch (final EOFException e) {
+            // After the first request, once and once more after the connection was closed.
+            Mockito.verify(mockedConnection, Mockito.times(3)).getInputStream();
+        }
+    }
+
+    @Test
+    public void testPostIsNotResentWhenKeptAliveConnectionIsClosed() throws IOException {
+        final HttpURLConnection mockedConnection = mockClosedKeptAliveConnection();
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        try {
+            new HttpWebRequest(new URL(TEST_URL), HttpWebRequest.REQUEST_METHOD_POST, new HashMap<String, String>(),
+                    "grant_type=refresh_token".getBytes("UTF-8"), "application/x-www-form-urlencoded").send();
+            fail("Expected the closed connection to fail the request");
+        } catch (final EOFException e) {
+            // The server may have processed the token request before closing the connection.
+            Mockito.verify(mockedConnection, Mockito.times(2)).getInputStream();
+        }
+    }
+
+    @Test
+    public void testOnlyGetKeepsConnectionAlive() throws IOException {
+        final HttpURLConnection mockedConnection = mockConnection(null, RESPONSE_BODY.getBytes("UTF-8"));
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        send();
+        Mockito.verify(mockedConnection, Mockito.never()).setRequestProperty("Connection", "close");
+
+        new HttpWebRequest(new URL(TEST_URL), HttpWebRequest.REQUEST_METHOD_POST, new HashMap<String, String>(),
+                "grant_type=refresh_token".getBytes("UTF-8"), "application/x-www-form-urlencoded").send();
+        Mockito.verify(mockedConnection).setRequestProperty("Connection", "close");
+    }
+
+    /**
+     * Sends a request which leaves an idle connection in the pool, the next requests fail as if the
+     * server closed the connections.
+     */
+    private static HttpURLConnection mockClosedKeptAliveConnection() throws IOException {
+        final HttpURLConnection mockedConnection = mockConnection(null, RESPONSE_BODY.getBytes("UTF-8"));
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(new ByteArrayInputStream(RESPONSE_BODY.getBytes("UTF-8")))
+                .thenThrow(new EOFException());
+        send();
+        return mockedConnection;
+    }
+
+    private void verifyCompressedResponse(final String contentEncoding, final byte[] compressedBody)
+            throws IOException {
+        final HttpURLConnection mockedConnection = mockConnection(contentEncoding, compressedBody);
+        final HttpWebResponse response = send();
+
+        assertEquals(RESPONSE_BODY, response.getBody());
+        Mockito.verify(mockedConnection).setRequestProperty("Accept-Encoding", "gzip, deflate");
+        final HttpResponseStats stats = HttpResponseStats.takeLast();
+        assertEquals(compressedBody.length, stats.getCompressedBytes());
+        assertEquals(RESPONSE_BODY.getBytes("UTF-8").length, stats.getUncompressedBytes());
+        assertTrue(stats.getCompressedBytes() < stats.getUncompressedBytes());
+    }
+
+    private static HttpURLConnection mockConnection(final String contentEncoding, final byte[] body)
+            throws IOException {
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(new ByteArrayInputStream(body));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        Mockito.when(mockedConnection.getContentEncoding()).thenReturn(contentEncoding);
+        return mockedConnection;
+    }
+
+    private static HttpWebResponse send() throws IOException {
+        return new HttpWebRequest(new URL(TEST_URL), HttpWebRequest.REQUEST_METHOD_GET,
+                new HashMap<String, String>()).send();
+    }
+
+    private static byte[] deflate(final Deflater deflater) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final OutputStream deflateStream = new DeflaterOutputStream(compressed, deflater);
+        deflateStream.write(RESPONSE_BODY.getBytes("UTF-8"));
+        deflateStream.close();
+        deflater.end();
+        return compressed.toByteArray();
+    }
+}
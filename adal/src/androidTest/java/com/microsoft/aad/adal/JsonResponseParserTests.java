@@ -0,0 +1,123 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class JsonResponseParserTests {
+
+    @Test
+    public void testParseObjectKeepsJSONObjectStringValues() throws JSONException {
+        final Map<String, String> members = JsonResponseParser.parseObject("{\"access_token\":\"I am a token\","
+                + "\"expires_in\":3600,\"foci\":true,\"error_codes\":[50001,50002],\"claims\":{\"acr\":\"1\"},"
+                + "\"unicode\":\"\\u00e9t\\u00e9\"}");
+
+        assertEquals(6, members.size());
+        assertEquals("I am a token", members.get("access_token"));
+        assertEquals("3600", members.get("expires_in"));
+        assertEquals("true", members.get("foci"));
+        assertEquals("été", members.get("unicode"));
+
+        // Nested values are returned as JSON text
+        final JSONArray errorCodes = new JSONArray(members.get("error_codes"));
+        assertEquals(50001, errorCodes.getInt(0));
+        assertEquals(50002, errorCodes.getInt(1));
+        assertEquals("1", new JSONObject(members.get("claims")).getString("acr"));
+    }
+
+    @Test
+    public void testParseObjectInvalidJson() {
+        final String[] invalidResponses = {"", "[]", "{\"access_token\":", "<html></html>"};
+        for (final String invalidResponse : invalidResponses) {
+            try {
+                JsonResponseParser.parseObject(invalidResponse);
+                fail("Expected JSONException for " + invalidResponse);
+            } catch (final JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseInstanceDiscoveryMetadata() throws JSONException {
+        final List<InstanceDiscoveryMetadata> metadata = JsonResponseParser.parseInstanceDiscoveryMetadata(
+                "[{\"preferred_network\":\"login.microsoftonline.com\",\"preferred_cache\":\"login.windows.net\","
+                        + "\"aliases\":[\"login.microsoftonline.com\",\"login.windows.net\"],\"unknown\":{\"a\":[1]}},"
+                        + "{\"preferred_network\":\"login.microsoftonline.de\",\"preferred_cache\":\"login.microsoftonline.de\","
+                        + "\"aliases\":[\"login.microsoftonline.de\"]}]");
+
+        assertEquals(2, metadata.size());
+        assertEquals("login.microsoftonline.com", metadata.get(0).getPreferredNetwork());
+        assertEquals("login.windows.net", metadata.get(0).getPreferredCache());
+        assertEquals(2, metadata.get(0).getAliases().size());
+        assertEquals("login.microsoftonline.de", metadata.get(1).getAliases().get(0));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParseInstanceDiscoveryMetadataMissingAliases() throws JSONException {
+        JsonResponseParser.parseInstanceDiscoveryMetadata(
+                "[{\"preferred_network\":\"login.microsoftonline.com\",\"preferred_cache\":\"login.windows.net\"}]");
+    }
+
+    @Test
+    public void testParseInstanceDiscoveryResponse() throws JSONException {
+        final InstanceDiscoveryResponse response = JsonResponseParser.parseInstanceDiscoveryResponse(
+                "{\"tenant_discovery_endpoint\":\"https://login.microsoftonline.com/common/.well-known/openid-configuration\","
+                        + "\"api-version\":\"1.1\",\"metadata\":[{\"preferred_network\":\"login.microsoftonline.com\","
+                        + "\"preferred_cache\":\"login.windows.net\","
+                        + "\"aliases\":[\"login.microsoftonline.com\",\"login.windows.net\"]}]}");
+
+        assertTrue(response.isTenantDiscoveryEndpointReturned());
+        assertNull(response.getErrorCodes());
+        assertEquals(1, response.getMetadata().size());
+        assertEquals("login.microsoftonline.com", response.getMetadata().get(0).getPreferredNetwork());
+        assertEquals(2, response.getMetadata().get(0).getAliases().size());
+    }
+
+    @Test
+    public void testParseInstanceDiscoveryErrorResponse() throws JSONException {
+        final InstanceDiscoveryResponse response = JsonResponseParser.parseInstanceDiscoveryResponse(
+                "{\"error\":\"invalid_instance\",\"error_codes\":[50049]}");
+
+        assertFalse(response.isTenantDiscoveryEndpointReturned());
+        assertEquals(50049, new JSONArray(response.getErrorCodes()).getInt(0));
+        assertNull(response.getMetadata());
+    }
+}
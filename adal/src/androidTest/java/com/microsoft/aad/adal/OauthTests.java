@@ -62,6 +62,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertEquals;
@@ -86,11 +87,13 @@ public class OauthTests {
     @Before
     public void setUp() throws Exception {
         System.setProperty("dexmaker.dexcache", InstrumentationRegistry.getContext().getCacheDir().getPath());
+        RetryPolicy.getInstance().reset();
     }
 
     @After
     public void tearDown() throws Exception {
         HttpUrlConnectionFactory.setMockedHttpUrlConnection(null);
+        RetryPolicy.getInstance().reset();
     }
 
     @Test
@@ -545,6 +548,34 @@ public class OauthTests {
         assertTrue(((AuthenticationException) testResult.getException()).getHttpResponseHeaders().containsKey("Retry-After"));
     }
 
+    @Test
+    public void testRefreshTokenFailsFastWhileHostIsThrottled() {
+        RetryPolicy.getInstance().recordThrottle("login.windows.net", TimeUnit.HOURS.toMillis(1));
+        final MockWebRequestHandler mockWebRequest = new MockWebRequestHandler();
+        mockWebRequest.setReturnResponse(new HttpWebResponse(HttpURLConnection.HTTP_OK, "{\"access_token\":\"accessTokenHere\"}", null));
+
+        final long startMillis = System.currentTimeMillis();
+        final MockAuthenticationCallback testResult = refreshToken(getValidAuthenticationRequest(),
+                mockWebRequest, "testRefreshToken");
+
+        // The request is neither sent nor held back
+        assertTrue(System.currentTimeMillis() - startMillis < AuthenticationSettings.INSTANCE.getRetryMaxDelayMillis());
+        assertNull(mockWebRequest.getRequestUrl());
+        assertTrue(testResult.getException() instanceof AuthenticationException);
+        assertEquals(ADALError.SERVER_THROTTLED, ((AuthenticationException) testResult.getException()).getCode());
+    }
+
+    @Test
+    public void testRetryAfterNotRecordedWithoutRetry() {
+        final Map<String, List<String>> headers = getHeader("Retry-After", "3600");
+        final MockWebRequestHandler mockWebRequest = new MockWebRequestHandler();
+        mockWebRequest.setReturnResponse(new HttpWebResponse(RETRY_AFTER, "{\"body\":\"not_null\"}", headers));
+        refreshToken(getValidAuthenticationRequest(), mockWebRequest, "testRefreshToken");
+
+        // The request is not retried after an hour, the other requests to the host are not held back
+        assertEquals(0, RetryPolicy.getInstance().getThrottleDelayMillis("login.windows.net"));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testRefreshTokenWebResponseDeviceChallengeHeaderEmpty()
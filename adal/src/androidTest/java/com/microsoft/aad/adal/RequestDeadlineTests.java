@@ -0,0 +1,117 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestDeadlineTests {
+
+    private long mNowNanos;
+
+    @Before
+    public void setUp() {
+        mNowNanos = TimeUnit.DAYS.toNanos(1);
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(mNowNanos);
+            }
+
+            @Override
+            long nanoTime() {
+                return mNowNanos;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        RequestDeadline.setCurrent(null);
+        Clock.setInstance(null);
+    }
+
+    @Test
+    public void testRemainingTimeIsRoundedUpUntilExpired() {
+        final RequestDeadline deadline = new RequestDeadline(1000);
+        assertEquals(1000, deadline.getRemainingMillis());
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(400) + 1;
+        assertEquals(600, deadline.getRemainingMillis());
+        assertFalse(deadline.isExpired());
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(600);
+        assertEquals(0, deadline.getRemainingMillis());
+        assertTrue(deadline.isExpired());
+    }
+
+    @Test
+    public void testCurrentTimeoutIsCappedByRemainingTime() {
+        assertEquals(30000, RequestDeadline.capCurrentTimeout(30000));
+
+        RequestDeadline.setCurrent(new RequestDeadline(5000));
+        assertEquals(5000, RequestDeadline.capCurrentTimeout(30000));
+        assertEquals(2000, RequestDeadline.capCurrentTimeout(2000));
+        // No timeout is still bounded by the deadline.
+        assertEquals(5000, RequestDeadline.capCurrentTimeout(0));
+
+        mNowNanos += TimeUnit.SECONDS.toNanos(10);
+        // Sockets read 0 as no timeout, an expired deadline gives the smallest one instead.
+        assertEquals(1, RequestDeadline.capCurrentTimeout(30000));
+    }
+
+    @Test
+    public void testThrowIfCurrentExpired() throws AuthenticationException {
+        RequestDeadline.throwIfCurrentExpired("testing without deadline");
+        assertFalse(RequestDeadline.isCurrentExpired());
+
+        RequestDeadline.setCurrent(new RequestDeadline(100));
+        RequestDeadline.throwIfCurrentExpired("testing before the deadline");
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(RequestDeadline.isCurrentExpired());
+        try {
+            RequestDeadline.throwIfCurrentExpired("testing after the deadline");
+            fail("Expected the deadline to be exceeded");
+        } catch (final AuthenticationException e) {
+            assertEquals(ADALError.REQUEST_DEADLINE_EXCEEDED, e.getCode());
+        }
+
+        RequestDeadline.setCurrent(null);
+        assertNull(RequestDeadline.getCurrent());
+    }
+}
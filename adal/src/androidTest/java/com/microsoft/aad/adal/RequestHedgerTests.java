@@ -0,0 +1,168 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestHedgerTests {
+
+    private static final long HEDGE_DELAY_MILLIS = 50;
+
+    private final CountDownLatch mReleaseSlowRequest = new CountDownLatch(1);
+
+    private URL mUrl;
+
+    private URL mHedgeUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mUrl = new URL("https://login.microsoftonline.com/common/discovery/instance");
+        mHedgeUrl = new URL("https://login.windows.net/common/discovery/instance");
+        RequestHedger.getInstance().reset();
+        AuthenticationSettings.INSTANCE.setHedgedRequestsEnabled(true);
+        AuthenticationSettings.INSTANCE.setHedgeDelayMillis(HEDGE_DELAY_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        mReleaseSlowRequest.countDown();
+        AuthenticationSettings.INSTANCE.setHedgedRequestsEnabled(false);
+        AuthenticationSettings.INSTANCE.setHedgeDelayMillis(0);
+        RequestHedger.getInstance().reset();
+    }
+
+    @Test
+    public void testSlowRequestIsHedgedToAlias() throws IOException {
+        final HttpWebResponse hedgeResponse = new HttpWebResponse(HttpURLConnection.HTTP_OK, "{}", null);
+        final IWebRequestHandler webRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(webRequestHandler.sendGet(Mockito.eq(mUrl), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                        mReleaseSlowRequest.await(1, TimeUnit.MINUTES);
+                        return new HttpWebResponse(HttpURLConnection.HTTP_OK, "{}", null);
+                    }
+                });
+        Mockito.when(webRequestHandler.sendGet(Mockito.eq(mHedgeUrl), Mockito.<String, String>anyMap()))
+                .thenAnswer(new Answer<HttpWebResponse>() {
+                    @Override
+                    public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                        // Stats recorded on the thread of the hedged send, as HttpWebRequest does.
+                        HttpResponseStats.start().setResponseSize(2, 2);
+                        return hedgeResponse;
+                    }
+                });
+
+        final RequestHedger.Result result = RequestHedger.getInstance().sendGet(webRequestHandler, mUrl, mHedgeUrl,
+                new HashMap<String, String>());
+        assertSame(hedgeResponse, result.getResponse());
+        assertEquals(mHedgeUrl, result.getUrl());
+        assertNotNull(result.getStats());
+        assertEquals(2, result.getStats().getUncompressedBytes());
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws IOException {
+        final HttpWebResponse response = new HttpWebResponse(HttpURLConnection.HTTP_OK, "{}", null);
+        final IWebRequestHandler webRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        Mockito.when(webRequestHandler.sendGet(Mockito.eq(mUrl), Mockito.<String, String>anyMap()))
+                .thenReturn(response);
+
+        final RequestHedger.Result result = RequestHedger.getInstance().sendGet(webRequestHandler, mUrl, mHedgeUrl,
+                new HashMap<String, String>());
+        assertSame(response, result.getResponse());
+        assertEquals(mUrl, result.getUrl());
+        Mockito.verify(webRequestHandler, Mockito.never()).sendGet(Mockito.eq(mHedgeUrl), Mockito.<String, String>anyMap());
+    }
+
+    @Test
+    public void testFailureIsReportedWhenBothRequestsFail() {
+        final IWebRequestHandler webRequestHandler = Mockito.mock(IWebRequestHandler.class);
+        try {
+            Mockito.when(webRequestHandler.sendGet(Mockito.eq(mUrl), Mockito.<String, String>anyMap()))
+                    .thenAnswer(new Answer<HttpWebResponse>() {
+                        @Override
+                        public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                            mReleaseSlowRequest.await(1, TimeUnit.MINUTES);
+                            throw new IOException("primary");
+                        }
+                    });
+            Mockito.when(webRequestHandler.sendGet(Mockito.eq(mHedgeUrl), Mockito.<String, String>anyMap()))
+                    .thenAnswer(new Answer<HttpWebResponse>() {
+                        @Override
+                        public HttpWebResponse answer(InvocationOnMock invocation) throws Throwable {
+                            // The hedge fails first, the primary request is still awaited.
+                            mReleaseSlowRequest.countDown();
+                            throw new IOException("hedge");
+                        }
+                    });
+
+            RequestHedger.getInstance().sendGet(webRequestHandler, mUrl, mHedgeUrl, new HashMap<String, String>());
+            fail("Expected the request to fail");
+        } catch (final IOException e) {
+            assertEquals("primary", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testHedgeDelayFollowsObservedPercentile() {
+        AuthenticationSettings.INSTANCE.setHedgeDelayMillis(0);
+        final RequestHedger requestHedger = RequestHedger.getInstance();
+
+        // Too few samples, the default delay is used.
+        requestHedger.recordLatency(10);
+        assertEquals(1000, requestHedger.getHedgeDelayMillis());
+
+        requestHedger.reset();
+        for (int i = 1; i <= 20; i++) {
+            requestHedger.recordLatency(i * 100);
+        }
+
+        assertEquals(1900, requestHedger.getHedgeDelayMillis());
+    }
+}
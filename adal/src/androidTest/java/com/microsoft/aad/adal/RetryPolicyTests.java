@@ -0,0 +1,148 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RetryPolicyTests {
+
+    private static final String HOST = "login.microsoftonline.com";
+
+    private long mNowNanos;
+
+    @Before
+    public void setUp() {
+        mNowNanos = TimeUnit.DAYS.toNanos(1);
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(mNowNanos);
+            }
+
+            @Override
+            long nanoTime() {
+                return mNowNanos;
+            }
+        });
+        RetryPolicy.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        RetryPolicy.getInstance().reset();
+        Clock.setInstance(null);
+    }
+
+    @Test
+    public void testRetryableStatusCodes() {
+        assertTrue(RetryPolicy.isRetryableStatusCode(429));
+        assertTrue(RetryPolicy.isRetryableStatusCode(500));
+        assertTrue(RetryPolicy.isRetryableStatusCode(503));
+        assertTrue(RetryPolicy.isRetryableStatusCode(599));
+        assertFalse(RetryPolicy.isRetryableStatusCode(400));
+        assertFalse(RetryPolicy.isRetryableStatusCode(401));
+        assertFalse(RetryPolicy.isRetryableStatusCode(600));
+    }
+
+    @Test
+    public void testBackoffIsBoundedByExponentialDelay() {
+        final RetryPolicy retryPolicy = RetryPolicy.getInstance();
+        final long baseDelayMillis = AuthenticationSettings.INSTANCE.getRetryBaseDelayMillis();
+        final long maxDelayMillis = AuthenticationSettings.INSTANCE.getRetryMaxDelayMillis();
+        for (int attempt = 1; attempt < 100; attempt++) {
+            final long delayMillis = retryPolicy.nextDelayMillis(HOST, attempt, 0);
+            final long bound = Math.min(maxDelayMillis, baseDelayMillis * (1L << Math.min(attempt - 1, 20)));
+            assertTrue(delayMillis >= 0);
+            assertTrue("Delay " + delayMillis + " for attempt " + attempt, delayMillis <= bound);
+        }
+    }
+
+    @Test
+    public void testRetryAfterIsSharedPerHost() {
+        final RetryPolicy retryPolicy = RetryPolicy.getInstance();
+        final long delayMillis = retryPolicy.nextDelayMillis(HOST, 1, 5000);
+        assertTrue(delayMillis >= 5000);
+
+        // Only recorded for the host once a retry honoring it is scheduled
+        assertEquals(0, retryPolicy.getThrottleDelayMillis(HOST));
+        retryPolicy.recordThrottle(HOST, 5000);
+
+        // Other requests to the host hold back, other hosts are not affected
+        assertEquals(5000, retryPolicy.getThrottleDelayMillis("LOGIN.microsoftonline.com"));
+        assertEquals(0, retryPolicy.getThrottleDelayMillis("login.microsoftonline.de"));
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(3000);
+        assertEquals(2000, retryPolicy.getThrottleDelayMillis(HOST));
+
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(2000);
+        assertEquals(0, retryPolicy.getThrottleDelayMillis(HOST));
+    }
+
+    @Test
+    public void testGetRetryAfterMillis() {
+        assertEquals(0, RetryPolicy.getRetryAfterMillis(null));
+        assertEquals(0, RetryPolicy.getRetryAfterMillis(retryAfterHeader("not a delay")));
+        assertEquals(0, RetryPolicy.getRetryAfterMillis(retryAfterHeader("-5")));
+        assertEquals(120000, RetryPolicy.getRetryAfterMillis(retryAfterHeader("120")));
+
+        // Http date, 30 seconds from now
+        final SimpleDateFormat httpDateFormat =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final String httpDate = httpDateFormat.format(
+                new Date(Clock.getInstance().currentTimeMillis() + 30000));
+        assertEquals(30000, RetryPolicy.getRetryAfterMillis(retryAfterHeader(httpDate)));
+
+        // Header names are case insensitive
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put("retry-after", Collections.singletonList("1"));
+        assertEquals(1000, RetryPolicy.getRetryAfterMillis(headers));
+    }
+
+    private static Map<String, List<String>> retryAfterHeader(final String value) {
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put(RetryPolicy.HEADER_RETRY_AFTER, Collections.singletonList(value));
+        return headers;
+    }
+}
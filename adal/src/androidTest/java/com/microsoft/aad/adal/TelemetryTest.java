@@ -34,6 +34,7 @@ import android.util.Base64;
 
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -45,6 +46,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -62,6 +64,49 @@ public class TelemetryTest {
         System.setProperty("dexmaker.dexcache", InstrumentationRegistry.getContext().getCacheDir().getPath());
     }
 
+    @After
+    public void tearDown() {
+        Clock.setInstance(null);
+    }
+
+    @Test
+    public void testEventTimingUsesMonotonicClock() {
+        final long[] nowMillis = {TimeUnit.DAYS.toMillis(1)};
+        final long[] nowNanos = {TimeUnit.HOURS.toNanos(1)};
+        Clock.setInstance(new Clock() {
+            @Override
+            long currentTimeMillis() {
+                return nowMillis[0];
+            }
+
+            @Override
+            long nanoTime() {
+                return nowNanos[0];
+            }
+        });
+
+        final AggregatedTelemetryTestClass dispatch = new AggregatedTelemetryTestClass();
+        Telemetry.getInstance().registerDispatcher(dispatch, false);
+        final String requestId = Telemetry.registerNewRequest();
+
+        Telemetry.getInstance().startEvent(requestId, EventStrings.TOKEN_CACHE_LOOKUP);
+        Telemetry.getInstance().startEvent(requestId, EventStrings.HTTP_EVENT);
+
+        // The wall clock going back does not change the measured time.
+        nowMillis[0] -= TimeUnit.MINUTES.toMillis(5);
+        nowNanos[0] += TimeUnit.MILLISECONDS.toNanos(250);
+
+        final DefaultEvent httpEvent = new DefaultEvent();
+        Telemetry.getInstance().stopEvent(requestId, httpEvent, EventStrings.HTTP_EVENT);
+        assertEquals("250", dispatch.getEventData(EventStrings.RESPONSE_TIME));
+        assertEquals(Long.toString(TimeUnit.DAYS.toMillis(1)), dispatch.getEventData(EventStrings.START_TIME));
+        assertEquals(Long.toString(TimeUnit.DAYS.toMillis(1) + 250), dispatch.getEventData(EventStrings.STOP_TIME));
+
+        nowNanos[0] += TimeUnit.MILLISECONDS.toNanos(250);
+        Telemetry.getInstance().stopEvent(requestId, new DefaultEvent(), EventStrings.TOKEN_CACHE_LOOKUP);
+        assertEquals("500", dispatch.getEventData(EventStrings.RESPONSE_TIME));
+    }
+
     @Test
     public void testAggregatedDispatcher() throws PackageManager.NameNotFoundException {
         final TestDispatcher dispatch = new TestDispatcher();
@@ -174,6 +219,10 @@ class AggregatedTelemetryTestClass implements IDispatcher {
         }
     }
 
+    String getEventData(final String key) {
+        return mEventData.get(key);
+    }
+
     boolean eventsReceived() {
         return (mEventData.size() > 0);
     }
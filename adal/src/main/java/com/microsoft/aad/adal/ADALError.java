@@ -650,7 +650,22 @@ public enum ADALError {
     /**
      * Common core to ADAL mapping failed
      */
-    MAPPING_FAILURE("Common core returned an exception code that ADAL cannot parse");
+    MAPPING_FAILURE("Common core returned an exception code that ADAL cannot parse"),
+
+    /**
+     * The request did not complete within the timeout set with {@link AuthenticationContext#setRequestTimeout(long)}.
+     */
+    REQUEST_DEADLINE_EXCEEDED("Request did not complete within its timeout"),
+
+    /**
+     * Requests to the host fail fast because it kept failing, see {@link AuthenticationSettings#setCircuitBreakerEnabled(boolean)}.
+     */
+    SERVER_CIRCUIT_BREAKER_OPEN("Host is failing, the request was not sent"),
+
+    /**
+     * The server asked to wait before sending requests to the host, with a Retry-After header.
+     */
+    SERVER_THROTTLED("Server asked to wait before sending requests to the host, the request was not sent");
 
     private String mDescription;
 
@@ -0,0 +1,206 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the AD FS authorities whose trust was established for a domain through DRS and WebFinger,
+ * with the time the trust was established. It is persisted in the shared preferences so that a new
+ * process does not query DRS and WebFinger again while the trust is fresh.
+ */
+final class ADFSTrustCache {
+    private static final String TAG = ADFSTrustCache.class.getSimpleName();
+
+    private static final String SHARED_PREFERENCE_NAME = "com.microsoft.aad.adal.adfs.trust";
+
+    private static final String KEY_TRUSTED_AUTHORITIES = "trusted_authorities";
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Trust establishment time keyed by domain, then by authority.
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<URI, Long>> TRUSTED_AUTHORITIES = new ConcurrentHashMap<>();
+
+    private static volatile boolean sIsPersistedTrustLoaded = false;
+
+    /**
+     * Set by the tests which fill the cache themselves, see {@link #resetForTesting()}.
+     */
+    private static volatile boolean sIsLoadingSkippedForTesting = false;
+
+    private ADFSTrustCache() {
+        // Utility class, no public constructor
+    }
+
+    /**
+     * @return True if the trust of the authority for the domain was established and is still fresh.
+     */
+    static boolean isTrusted(final Context context, final String domain, final URI authorityUri) {
+        loadPersistedTrust(context);
+        final Map<URI, Long> authorities = TRUSTED_AUTHORITIES.get(domain);
+        final Long trustedAtMillis = authorities == null ? null : authorities.get(authorityUri);
+        return trustedAtMillis != null && isFresh(trustedAtMillis);
+    }
+
+    /**
+     * Records that the trust of the authority for the domain was established now, and persists it.
+     */
+    static void addTrusted(final Context context, final String domain, final URI authorityUri) {
+        ConcurrentMap<URI, Long> authorities = TRUSTED_AUTHORITIES.get(domain);
+        if (authorities == null) {
+            final ConcurrentMap<URI, Long> newAuthorities = new ConcurrentHashMap<>();
+            authorities = TRUSTED_AUTHORITIES.putIfAbsent(domain, newAuthorities);
+            if (authorities == null) {
+                authorities = newAuthorities;
+            }
+        }
+        authorities.put(authorityUri, Clock.getInstance().currentTimeMillis());
+
+        if (AuthenticationSettings.INSTANCE.getADFSTrustCacheTtlMillis() > 0) {
+            persistTrust(context);
+        }
+    }
+
+    /**
+     * Clears the cache and stops it from being filled from the persisted trust, so that a test only
+     * sees the trust it adds or reads back explicitly.
+     */
+    @VisibleForTesting
+    static void resetForTesting() {
+        sIsLoadingSkippedForTesting = true;
+        TRUSTED_AUTHORITIES.clear();
+    }
+
+    private static boolean isFresh(final long trustedAtMillis) {
+        final long ttlMillis = AuthenticationSettings.INSTANCE.getADFSTrustCacheTtlMillis();
+        if (ttlMillis == 0) {
+            // Not persisted, the trust lasts as long as the process.
+            return true;
+        }
+
+        final long ageMillis = Clock.getInstance().currentTimeMillis() - trustedAtMillis;
+        return ageMillis >= 0 && ageMillis < ttlMillis;
+    }
+
+    private static void loadPersistedTrust(final Context context) {
+        if (sIsPersistedTrustLoaded || sIsLoadingSkippedForTesting) {
+            return;
+        }
+
+        synchronized (ADFSTrustCache.class) {
+            if (sIsPersistedTrustLoaded) {
+                return;
+            }
+
+            sIsPersistedTrustLoaded = true;
+            if (AuthenticationSettings.INSTANCE.getADFSTrustCacheTtlMillis() > 0) {
+                readPersistedTrust(context);
+            }
+        }
+    }
+
+    /**
+     * Adds the persisted trust which is still fresh.
+     */
+    static void readPersistedTrust(final Context context) {
+        final String methodName = ":readPersistedTrust";
+        final String json = getSharedPreferences(context).getString(KEY_TRUSTED_AUTHORITIES, null);
+        if (json == null) {
+            return;
+        }
+
+        final Map<String, Map<String, Long>> persistedTrust;
+        try {
+            persistedTrust = GSON.fromJson(json, new TypeToken<Map<String, Map<String, Long>>>() {
+            }.getType());
+        } catch (final JsonParseException e) {
+            Logger.w(TAG + methodName, "Persisted AD FS trust cannot be parsed, dropping it. ", e.getMessage(),
+                    ADALError.JSON_PARSE_ERROR);
+            getSharedPreferences(context).edit().remove(KEY_TRUSTED_AUTHORITIES).apply();
+            return;
+        }
+
+        if (persistedTrust == null) {
+            return;
+        }
+
+        for (final Map.Entry<String, Map<String, Long>> domain : persistedTrust.entrySet()) {
+            final ConcurrentMap<URI, Long> authorities = new ConcurrentHashMap<>();
+            for (final Map.Entry<String, Long> authority : domain.getValue().entrySet()) {
+                if (authority.getValue() == null || !isFresh(authority.getValue())) {
+                    continue;
+                }
+
+                try {
+                    authorities.put(URI.create(authority.getKey()), authority.getValue());
+                } catch (final IllegalArgumentException e) {
+                    Logger.v(TAG + methodName, "Persisted AD FS authority is not a valid URI, dropping it.");
+                }
+            }
+
+            if (!authorities.isEmpty()) {
+                TRUSTED_AUTHORITIES.putIfAbsent(domain.getKey(), authorities);
+            }
+        }
+    }
+
+    /**
+     * Persists the fresh trust, the write happens in the background.
+     */
+    private static void persistTrust(final Context context) {
+        final Map<String, Map<String, Long>> persistedTrust = new HashMap<>();
+        for (final Map.Entry<String, ConcurrentMap<URI, Long>> domain : TRUSTED_AUTHORITIES.entrySet()) {
+            final Map<String, Long> authorities = new HashMap<>();
+            for (final Map.Entry<URI, Long> authority : domain.getValue().entrySet()) {
+                if (isFresh(authority.getValue())) {
+                    authorities.put(authority.getKey().toString(), authority.getValue());
+                }
+            }
+
+            if (!authorities.isEmpty()) {
+                persistedTrust.put(domain.getKey(), authorities);
+            }
+        }
+
+        getSharedPreferences(context).edit().putString(KEY_TRUSTED_AUTHORITIES, GSON.toJson(persistedTrust)).apply();
+    }
+
+    private static SharedPreferences getSharedPreferences(final Context context) {
+        return context.getSharedPreferences(SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+}
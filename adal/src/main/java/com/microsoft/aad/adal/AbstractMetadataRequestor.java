@@ -26,8 +26,10 @@ package com.microsoft.aad.adal;
 import com.google.gson.Gson;
 import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
 import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
-import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
 
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -35,6 +37,11 @@ import java.util.UUID;
  */
 abstract class AbstractMetadataRequestor<MetadataType, MetadataRequestOptions> {
 
+    /**
+     * Response parser, shared by all the requestors since Gson is thread-safe.
+     */
+    private static final Gson GSON = new Gson();
+
     /**
      * Used to handle network requests.
      */
@@ -42,16 +49,11 @@ abstract class AbstractMetadataRequestor<MetadataType, MetadataRequestOptions> {
 
     private UUID mCorrelationId;
 
-    /**
-     * Response parser.
-     */
-    private Gson mGson;
-
     /**
      * Constructs a new AbstractorRequestor.
      */
     AbstractMetadataRequestor() {
-        mWebrequestHandler = new WebRequestHandler();
+        mWebrequestHandler = AuthenticationSettings.INSTANCE.getWebRequestHandler();
     }
 
     public final void setCorrelationId(final UUID requestCorrelationId) {
@@ -63,16 +65,12 @@ abstract class AbstractMetadataRequestor<MetadataType, MetadataRequestOptions> {
     }
 
     /**
-     * Gets the thread-safe lazy-initialized parser for JSON.
+     * Gets the thread-safe parser for JSON.
      *
      * @return the gson instance
      */
-    synchronized Gson parser() {
-        if (mGson == null) {
-            mGson = new Gson();
-        }
-
-        return mGson;
+    Gson parser() {
+        return GSON;
     }
 
     /**
@@ -84,6 +82,19 @@ abstract class AbstractMetadataRequestor<MetadataType, MetadataRequestOptions> {
         return mWebrequestHandler;
     }
 
+    /**
+     * Sends an idempotent GET request for metadata, hedged to the same url if
+     * {@link AuthenticationSettings#getHedgedRequestsEnabled()} is on.
+     *
+     * @param url     the url to request
+     * @param headers the request headers
+     * @return the response
+     * @throws IOException if the request fails
+     */
+    HttpWebResponse sendGet(final URL url, final Map<String, String> headers) throws IOException {
+        return RequestHedger.getInstance().sendGet(mWebrequestHandler, url, null, headers).getResponse();
+    }
+
     /**
      * Requests the specified {@link MetadataType}.
      *
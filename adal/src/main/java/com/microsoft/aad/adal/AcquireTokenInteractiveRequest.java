@@ -29,7 +29,6 @@ import android.content.Intent;
 import android.content.pm.ResolveInfo;
 
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
-import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
 import java.io.IOException;
@@ -95,7 +94,7 @@ final class AcquireTokenInteractiveRequest {
         final String methodName = ":acquireTokenWithAuthCode";
         Logger.v(TAG + methodName, "Start token acquisition with auth code.", mAuthRequest.getLogInfo(), null);
 
-        final Oauth2 oauthRequest = new Oauth2(mAuthRequest, new WebRequestHandler());
+        final Oauth2 oauthRequest = new Oauth2(mAuthRequest, AuthenticationSettings.INSTANCE.getWebRequestHandler());
         final AuthenticationResult result;
         try {
             result = oauthRequest.getToken(url);
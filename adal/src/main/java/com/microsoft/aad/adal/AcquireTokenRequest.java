@@ -33,16 +33,24 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
+import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectory;
 import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectoryCloud;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -54,11 +62,26 @@ class AcquireTokenRequest {
 
     private static final String TAG = AcquireTokenRequest.class.getSimpleName();
 
+    /**
+     * Path of the OpenID metadata document under the authority, served by AAD and AD FS alike.
+     */
+    private static final String OPENID_CONFIGURATION_PATH = "/.well-known/openid-configuration";
+
     /**
      * Singled threaded Executor for async work.
      */
     private static final ExecutorService THREAD_EXECUTOR = Executors.newSingleThreadExecutor();
 
+    /**
+     * Executor of the prewarms, kept apart so that a slow prewarm never holds up the token requests.
+     */
+    private static final ExecutorService PREWARM_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Time given to a prewarm, its socket timeouts are capped by it.
+     */
+    private static final long PREWARM_TIMEOUT_MILLIS = 5000;
+
     private final Context mContext;
     private final AuthenticationContext mAuthContext;
     private TokenCacheAccessor mTokenCacheAccessor;
@@ -108,6 +131,7 @@ class AcquireTokenRequest {
         // related actions will be performed using Handler.
         Logger.setCorrelationId(authRequest.getCorrelationId());
         Logger.v(TAG + methodName, "Sending async task from thread:" + android.os.Process.myTid());
+        startDeadline(authRequest);
         THREAD_EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
@@ -117,7 +141,10 @@ class AcquireTokenRequest {
                 Logger.setCorrelationId(authRequest.getCorrelationId());
 
                 Logger.v(TAG + methodName, "Running task in thread:" + android.os.Process.myTid());
+                // Like the correlationId, the deadline is read by every hop from the worker thread.
+                RequestDeadline.setCurrent(authRequest.getDeadline());
                 try {
+                    RequestDeadline.throwIfCurrentExpired("starting the request");
                     // Validate acquire token call first.
                     validateAcquireTokenRequest(authRequest);
                     performAcquireTokenRequest(callbackHandle, activity, useDialog, authRequest);
@@ -127,6 +154,8 @@ class AcquireTokenRequest {
                     mAPIEvent.stopTelemetryAndFlush();
 
                     callbackHandle.onError(authenticationException);
+                } finally {
+                    RequestDeadline.setCurrent(null);
                 }
             }
         });
@@ -144,13 +173,16 @@ class AcquireTokenRequest {
         Logger.v(TAG + methodName, "Refresh token without cache");
 
         final CallbackHandler callbackHandle = new CallbackHandler(getHandler(), externalCallback);
+        startDeadline(authenticationRequest);
 
         // Execute all the calls inside Runnable to return immediately. All UI
         // related actions will be performed using Handler.
         THREAD_EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
+                RequestDeadline.setCurrent(authenticationRequest.getDeadline());
                 try {
+                    RequestDeadline.throwIfCurrentExpired("starting the request");
                     // validate acquire token call first.
                     validateAcquireTokenRequest(authenticationRequest);
 
@@ -165,6 +197,7 @@ class AcquireTokenRequest {
                     mAPIEvent.setWasApiCallSuccessful(false, authenticationException);
                     callbackHandle.onError(authenticationException);
                 } finally {
+                    RequestDeadline.setCurrent(null);
                     mAPIEvent.setCorrelationId(authenticationRequest.getCorrelationId().toString());
                     mAPIEvent.stopTelemetryAndFlush();
                 }
@@ -172,16 +205,146 @@ class AcquireTokenRequest {
         });
     }
 
+    /**
+     * Prepares the network path of the token requests of the authority in the background: runs the
+     * authority validation if it is not cached, resolves the authority host and opens a pooled
+     * connection to the preferred network host the token requests are sent to. Failures are only
+     * logged, the token requests will hit them again.
+     * <p>
+     * It runs on its own executor within {@link #PREWARM_TIMEOUT_MILLIS}. A request started meanwhile
+     * joins the instance discovery in flight instead of repeating it.
+     */
+    void prewarm(final UUID correlationId) {
+        PREWARM_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Logger.setCorrelationId(correlationId);
+                RequestDeadline.setCurrent(new RequestDeadline(PREWARM_TIMEOUT_MILLIS));
+                try {
+                    prewarmWithinDeadline(correlationId);
+                } finally {
+                    RequestDeadline.setCurrent(null);
+                }
+            }
+        });
+    }
+
+    private void prewarmWithinDeadline(final UUID correlationId) {
+        final String methodName = ":prewarm";
+        final Authority authority = Authority.ofOrNull(mAuthContext.getAuthority());
+        if (authority == null) {
+            Logger.w(TAG + methodName, "Authority is not a valid url, nothing to prewarm.", "",
+                    ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_URL);
+            return;
+        }
+
+        try {
+            AuthorityValidationMetadataCache.loadPersistedMetadata(mContext);
+            HttpWebRequest.throwIfNetworkNotAvailable(mContext);
+            prewarmAuthorityValidation(authority, correlationId);
+
+            final URL authorityUrl = authority.getUrl();
+
+            final URL preferredAuthorityUrl = getPreferredAuthorityUrl(authorityUrl);
+            if (!preferredAuthorityUrl.getHost().equalsIgnoreCase(authorityUrl.getHost())) {
+                // The web UI still starts from the authority host, have it resolved as well.
+                try {
+                    InetAddress.getAllByName(authorityUrl.getHost());
+                } catch (final UnknownHostException e) {
+                    Logger.v(TAG + methodName, "Authority host cannot be resolved. " + e.getMessage());
+                }
+            }
+
+            RequestDeadline.throwIfCurrentExpired("prewarming the connection");
+            prewarmConnection(preferredAuthorityUrl, correlationId);
+        } catch (final AuthenticationException | IOException e) {
+            Logger.w(TAG + methodName, "Prewarm failed. ", e.getMessage(), ADALError.IO_EXCEPTION);
+        }
+    }
+
+    private void prewarmAuthorityValidation(final Authority authority, final UUID correlationId)
+            throws AuthenticationException {
+        // AD FS validation needs the domain of the user, it is done by the request.
+        if (authority.isADFS()) {
+            return;
+        }
+
+        final URL authorityUrl = authority.getUrl();
+        if (mAuthContext.getValidateAuthority()) {
+            validateAuthority(authority, null, true, correlationId);
+        } else if (!AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
+            // Same as the request without validation: the metadata is only used for the preferred network.
+            mDiscovery.setCorrelationId(correlationId);
+            try {
+                mDiscovery.validateAuthority(authorityUrl);
+            } catch (final AuthenticationException e) {
+                Logger.v(TAG + ":prewarmAuthorityValidation", "Fail to get authority validation metadata back. "
+                        + "Ignore the failure since authority validation is turned off.");
+            }
+        }
+    }
+
+    /**
+     * Fetches the OpenID metadata of the authority, small and cacheable, to leave a connection with
+     * a TLS session to the host in the connection pool.
+     */
+    private void prewarmConnection(final URL authorityUrl, final UUID correlationId) throws IOException {
+        final String methodName = ":prewarmConnection";
+        final URL metadataUrl = new URL(authorityUrl.getProtocol(), authorityUrl.getHost(), authorityUrl.getPort(),
+                authorityUrl.getPath() + OPENID_CONFIGURATION_PATH);
+        final Map<String, String> headers = new HashMap<>();
+        headers.put(WebRequestHandler.HEADER_ACCEPT, WebRequestHandler.HEADER_ACCEPT_JSON);
+        if (correlationId != null) {
+            headers.put(AuthenticationConstants.AAD.CLIENT_REQUEST_ID, correlationId.toString());
+        }
+
+        final IWebRequestHandler webRequestHandler = AuthenticationSettings.INSTANCE.getWebRequestHandler();
+        webRequestHandler.setRequestCorrelationId(correlationId);
+        final HttpWebResponse response = webRequestHandler.sendGet(metadataUrl, headers);
+        Logger.v(TAG + methodName, "Connection prewarmed. ", "Host: " + authorityUrl.getHost()
+                + " Status code: " + response.getStatusCode(), null);
+    }
+
+    /**
+     * @return The authority on the preferred network host of the cached instance discovery metadata,
+     * where the token requests are sent, the authority itself if there is none.
+     */
+    private static URL getPreferredAuthorityUrl(final URL authorityUrl) {
+        final InstanceDiscoveryMetadata metadata = AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(authorityUrl);
+        if (metadata == null || !metadata.isValidated() || metadata.getPreferredNetwork() == null) {
+            return authorityUrl;
+        }
+
+        try {
+            return Discovery.constructAuthorityUrl(authorityUrl, metadata.getPreferredNetwork());
+        } catch (final MalformedURLException e) {
+            return authorityUrl;
+        }
+    }
+
+    /**
+     * Starts the time budget of the request if the developer set a request timeout.
+     */
+    private void startDeadline(final AuthenticationRequest authenticationRequest) {
+        final long requestTimeoutMillis = mAuthContext.getRequestTimeout();
+        if (requestTimeoutMillis > 0) {
+            authenticationRequest.setDeadline(new RequestDeadline(requestTimeoutMillis));
+        }
+    }
+
     private void validateAcquireTokenRequest(final AuthenticationRequest authenticationRequest)
             throws AuthenticationException {
-        final URL authorityUrl = StringExtensions.getUrl(authenticationRequest.getAuthority());
-        if (authorityUrl == null) {
+        final Authority authority = Authority.ofOrNull(authenticationRequest.getAuthority());
+        if (authority == null) {
             throw new AuthenticationException(
                     ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_URL);
         }
 
+        // The cache is filled from the disk here, in the worker thread, before the first validation.
+        AuthorityValidationMetadataCache.loadPersistedMetadata(mContext);
+
         // validate authority
-        performAuthorityValidation(authenticationRequest, authorityUrl);
+        performAuthorityValidation(authenticationRequest, authority);
 
         // Verify broker redirect uri for non-silent request
         final BrokerProxy.SwitchToBroker canSwitchToBrokerFlag = mBrokerProxy.canSwitchToBroker(authenticationRequest.getAuthority());
@@ -201,8 +364,9 @@ class AcquireTokenRequest {
         }
     }
 
-    private void performAuthorityValidation(final AuthenticationRequest authenticationRequest, final URL authorityUrl)
+    private void performAuthorityValidation(final AuthenticationRequest authenticationRequest, final Authority authority)
             throws AuthenticationException {
+        final URL authorityUrl = authority.getUrl();
         // validate authority
         final String methodName = ":performAuthorityValidation";
         Telemetry.getInstance().startEvent(authenticationRequest.getTelemetryRequestId(),
@@ -213,7 +377,7 @@ class AcquireTokenRequest {
 
         if (mAuthContext.getValidateAuthority()) {
             try {
-                validateAuthority(authorityUrl, authenticationRequest.getUpnSuffix(), authenticationRequest.isSilent(),
+                validateAuthority(authority, authenticationRequest.getUpnSuffix(), authenticationRequest.isSilent(),
                         authenticationRequest.getCorrelationId());
                 apiEvent.setValidationStatus(EventStrings.AUTHORITY_VALIDATION_SUCCESS);
             } catch (final AuthenticationException authenticationException) {
@@ -234,7 +398,7 @@ class AcquireTokenRequest {
         } else {
             // check if it contains authority url as the key, if key exists, it means that the authority url validation has happened
             // for the authority already.
-            if (!UrlExtensions.isADFSAuthority(authorityUrl) && !AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
+            if (!authority.isADFS() && !AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
                 try {
                     mDiscovery.validateAuthority(authorityUrl);
                 } catch (final AuthenticationException authenticationException) {
@@ -250,25 +414,25 @@ class AcquireTokenRequest {
                     EventStrings.AUTHORITY_VALIDATION_EVENT);
         }
 
+        AuthorityValidationMetadataCache.refreshSnapshotIfUsed(mContext, authorityUrl);
         final InstanceDiscoveryMetadata metadata = AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(authorityUrl);
         if (metadata == null || !metadata.isValidated()) {
             return;
         }
 
-        updatePreferredNetworkLocation(authorityUrl, authenticationRequest, metadata);
+        updatePreferredNetworkLocation(authority, authenticationRequest, metadata);
     }
 
-    private void updatePreferredNetworkLocation(final URL authorityUrl, final AuthenticationRequest request, final InstanceDiscoveryMetadata metadata)
+    private void updatePreferredNetworkLocation(final Authority authority, final AuthenticationRequest request, final InstanceDiscoveryMetadata metadata)
             throws AuthenticationException {
         if (metadata == null || !metadata.isValidated()) {
             return;
         }
 
         // replace the authority if host is not the same as the original one.
-        if (metadata.getPreferredNetwork() != null && !authorityUrl.getHost().equalsIgnoreCase(metadata.getPreferredNetwork())) {
+        if (metadata.getPreferredNetwork() != null && !authority.getHost().equalsIgnoreCase(metadata.getPreferredNetwork())) {
             try {
-                final URL replacedAuthority = Discovery.constructAuthorityUrl(authorityUrl, metadata.getPreferredNetwork());
-                request.setAuthority(replacedAuthority.toString());
+                request.setAuthority(authority.onHost(metadata.getPreferredNetwork()));
             } catch (final MalformedURLException ex) {
                 //Intentionally empty.
                 Logger.i(TAG, "preferred network is invalid", "use exactly the same authority url that is passed");
@@ -280,12 +444,13 @@ class AcquireTokenRequest {
      * Perform authority validation.
      * True if the passed in authority is valid, false otherwise.
      */
-    private void validateAuthority(final URL authorityUrl,
+    private void validateAuthority(final Authority authority,
                                    @Nullable final String domain,
                                    boolean isSilent,
                                    final UUID correlationId) throws AuthenticationException {
         final String methodName = ":validateAuthority";
-        boolean isAdfsAuthority = UrlExtensions.isADFSAuthority(authorityUrl);
+        final URL authorityUrl = authority.getUrl();
+        boolean isAdfsAuthority = authority.isADFS();
         final boolean isAuthorityValidated = AuthorityValidationMetadataCache.isAuthorityValidated(authorityUrl);
         if (isAuthorityValidated || isAdfsAuthority && mAuthContext.getIsAuthorityValidated()) {
             return;
@@ -299,7 +464,7 @@ class AcquireTokenRequest {
         if (!isSilent && isAdfsAuthority && domain != null) {
             mDiscovery.validateAuthorityADFS(authorityUrl, domain);
         } else {
-            if (isSilent && UrlExtensions.isADFSAuthority(authorityUrl)) {
+            if (isSilent && isAdfsAuthority) {
                 Logger.v(TAG + methodName, "Silent request. Skipping AD FS authority validation");
             }
 
@@ -354,6 +519,9 @@ class AcquireTokenRequest {
         }
 
         Logger.d(TAG + methodName, "Trying to acquire token interactively.");
+        // The time spent by the user in the UI is not bounded by the request timeout.
+        RequestDeadline.setCurrent(null);
+        authenticationRequest.setDeadline(null);
         acquireTokenInteractiveFlow(callbackHandle, activity, useDialog, authenticationRequest);
     }
 
@@ -477,6 +645,7 @@ class AcquireTokenRequest {
 
         final AcquireTokenWithBrokerRequest acquireTokenWithBrokerRequest
                 = new AcquireTokenWithBrokerRequest(authenticationRequest, mBrokerProxy);
+        RequestDeadline.throwIfCurrentExpired("asking the broker for a token");
         authResult = acquireTokenWithBrokerRequest.acquireTokenWithBrokerSilent();
 
         return authResult;
@@ -27,7 +27,6 @@ import android.util.Log;
 
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
 import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
-import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
 import java.io.IOException;
@@ -75,7 +74,7 @@ class AcquireTokenSilentHandler {
         mAuthRequest = authRequest;
         mTokenCacheAccessor = tokenCacheAccessor;
 
-        mWebRequestHandler = new WebRequestHandler();
+        mWebRequestHandler = AuthenticationSettings.INSTANCE.getWebRequestHandler();
     }
 
     /**
@@ -159,6 +158,12 @@ class AcquireTokenSilentHandler {
                     ADALError.AUTH_FAILED_NO_TOKEN, ExceptionExtensions.getExceptionMessage(exc),
                     new AuthenticationException(ADALError.SERVER_ERROR, exc.getMessage(), exc));
         } catch (final IOException | AuthenticationException exc) {
+            if (exc instanceof AuthenticationException
+                    && ((AuthenticationException) exc).getCode() == ADALError.REQUEST_DEADLINE_EXCEEDED) {
+                // The app bounded the call, let it know the call ran out of time rather than the token failed.
+                throw (AuthenticationException) exc;
+            }
+
             // Server side error or similar
             Logger.e(TAG + methodName,
                     "Error in refresh token for request.",
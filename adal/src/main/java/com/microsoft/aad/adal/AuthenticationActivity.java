@@ -55,7 +55,6 @@ import com.microsoft.aad.adal.AuthenticationResult.AuthenticationStatus;
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
 import com.microsoft.identity.common.adal.internal.cache.StorageHelper;
 import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
-import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
 import java.io.IOException;
@@ -107,7 +106,7 @@ public class AuthenticationActivity extends Activity {
 
     private Bundle mAuthenticatorResultBundle = null;
 
-    private final IWebRequestHandler mWebRequestHandler = new WebRequestHandler();
+    private final IWebRequestHandler mWebRequestHandler = AuthenticationSettings.INSTANCE.getWebRequestHandler();
 
     private final IJWSBuilder mJWSBuilder = new JWSBuilder();
     private boolean mPkeyAuthRedirect = false;
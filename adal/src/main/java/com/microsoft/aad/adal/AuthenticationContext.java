@@ -43,7 +43,6 @@ import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -76,6 +75,8 @@ public class AuthenticationContext {
 
     private boolean mExtendedLifetimeEnabled = false;
 
+    private long mRequestTimeoutMillis = 0;
+
     /**
      * Delegate map is needed to handle activity recreate without asking
      * developer to handle context instance for config changes.
@@ -182,6 +183,43 @@ public class AuthenticationContext {
         mExtendedLifetimeEnabled = extendedLifetimeEnabled;
     }
 
+    /**
+     * Gets the time budget of each acquire token call.
+     *
+     * @return The timeout in milliseconds, 0 if calls are not bounded.
+     */
+    public long getRequestTimeout() {
+        return mRequestTimeoutMillis;
+    }
+
+    /**
+     * Sets the time budget of each following acquire token call, counted from the moment the call
+     * is made. Authority validation, the token requests and their retries, and the broker calls
+     * share the budget and set their socket timeouts from what is left of it. A call running out of
+     * budget fails with {@link ADALError#REQUEST_DEADLINE_EXCEEDED}. Once an interactive call shows
+     * UI to the user, the rest of the call is not bounded. The default value is 0, calls are only
+     * bounded by the connect and read timeouts of {@link AuthenticationSettings}.
+     *
+     * @param timeoutMillis The timeout in milliseconds, 0 to not bound the calls.
+     */
+    public void setRequestTimeout(final long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis");
+        }
+
+        mRequestTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Prepares the network path of the first token request in the background, so that it does not
+     * pay for the DNS lookups, the TCP and TLS handshakes and the authority validation. Apps can call
+     * it at launch or when showing the sign-in screen. It returns immediately, failures are logged
+     * and will be reported by the token requests themselves.
+     */
+    public void prewarm() {
+        createAcquireTokenRequest(null).prewarm(getRequestCorrelationId());
+    }
+
     /**
      * Gets authority that is used for this object of AuthenticationContext.
      *
@@ -1250,11 +1288,11 @@ public class AuthenticationContext {
 
     private boolean checkADFSValidationRequirements(@Nullable final String loginHint)
             throws AuthenticationException {
-        final URL authorityURL = StringExtensions.getUrl(mAuthority);
-        if (mAuthority == null || authorityURL == null) {
+        final Authority authority = mAuthority == null ? null : Authority.ofOrNull(mAuthority);
+        if (authority == null) {
             throw new AuthenticationException(ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_URL);
         }
-        if (UrlExtensions.isADFSAuthority(authorityURL) // is it ADFS?
+        if (authority.isADFS() // is it ADFS?
                 && mValidateAuthority // should it be validated?
                 && !mIsAuthorityValidated // has it not already been validated?
                 && loginHint == null) { // did you provide insufficient info to perform the validation?
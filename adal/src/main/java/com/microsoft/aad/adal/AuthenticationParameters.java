@@ -27,7 +27,6 @@ import android.content.Context;
 import android.os.Handler;
 
 import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
-import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
 import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
@@ -38,7 +37,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
@@ -97,14 +99,19 @@ public class AuthenticationParameters {
     private String mResource;
 
     /**
-     * Web request handler interface to test behaviors.
+     * Executor for async work, requests to resources of different origins do not wait on each other.
      */
-    private static IWebRequestHandler sWebRequest = new WebRequestHandler();
+    private static ExecutorService sThreadExecutor = Executors.newCachedThreadPool();
 
     /**
-     * Singled threaded Executor for async work.
+     * Parsed bearer challenges keyed by resource origin.
      */
-    private static ExecutorService sThreadExecutor = Executors.newSingleThreadExecutor();
+    private static final ConcurrentMap<String, CachedChallenge> CHALLENGE_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Callbacks waiting on the request in flight to a resource origin, guarded by itself.
+     */
+    private static final Map<String, List<AuthenticationParamCallback>> PENDING_CALLBACKS = new HashMap<>();
 
     /**
      * get authority from the header.
@@ -163,6 +170,38 @@ public class AuthenticationParameters {
 
         Logger.v(TAG, "createFromResourceUrl");
         final Handler handler = new Handler(context.getMainLooper());
+        final AuthenticationParamCallback mainThreadCallback = new AuthenticationParamCallback() {
+            @Override
+            public void onCompleted(final Exception exception, final AuthenticationParameters param) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onCompleted(exception, param);
+                    }
+                });
+            }
+        };
+
+        final String origin = getOrigin(resourceUrl);
+        final AuthenticationParameters cachedParameters = getCachedParameters(origin);
+        if (cachedParameters != null) {
+            Logger.v(TAG, "Bearer challenge of the resource origin is cached.");
+            mainThreadCallback.onCompleted(null, cachedParameters);
+            return;
+        }
+
+        synchronized (PENDING_CALLBACKS) {
+            final List<AuthenticationParamCallback> pendingCallbacks = PENDING_CALLBACKS.get(origin);
+            if (pendingCallbacks != null) {
+                Logger.v(TAG, "Waiting on the request in flight to the resource origin.");
+                pendingCallbacks.add(mainThreadCallback);
+                return;
+            }
+
+            final List<AuthenticationParamCallback> callbacks = new ArrayList<>();
+            callbacks.add(mainThreadCallback);
+            PENDING_CALLBACKS.put(origin, callbacks);
+        }
 
         sThreadExecutor.submit(new Runnable() {
             @Override
@@ -172,28 +211,84 @@ public class AuthenticationParameters {
 
                 final HttpWebResponse webResponse;
                 try {
-                    webResponse = sWebRequest.sendGet(resourceUrl, headers);
+                    webResponse = AuthenticationSettings.INSTANCE.getWebRequestHandler().sendGet(resourceUrl, headers);
                     try {
-                        onCompleted(null, parseResponse(webResponse));
+                        final AuthenticationParameters param = parseResponse(webResponse);
+                        cacheParameters(origin, param);
+                        onCompleted(null, param);
                     } catch (ResourceAuthenticationChallengeException exc) {
                         onCompleted(exc, null);
                     }
-                } catch (IOException e) {
+                } catch (IOException | RuntimeException e) {
                     onCompleted(e, null);
                 }
             }
 
             void onCompleted(final Exception exception, final AuthenticationParameters param) {
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onCompleted(exception, param);
-                    }
-                });
+                final List<AuthenticationParamCallback> callbacks;
+                synchronized (PENDING_CALLBACKS) {
+                    callbacks = PENDING_CALLBACKS.remove(origin);
+                }
+
+                for (final AuthenticationParamCallback pendingCallback : callbacks) {
+                    pendingCallback.onCompleted(exception, param);
+                }
             }
         });
     }
 
+    /**
+     * Clears the cached bearer challenges.
+     */
+    static void clearChallengeCache() {
+        CHALLENGE_CACHE.clear();
+    }
+
+    /**
+     * @return The origin of the resource url: lower case scheme and host, and the port.
+     */
+    private static String getOrigin(final URL resourceUrl) {
+        final int port = resourceUrl.getPort() == -1 ? resourceUrl.getDefaultPort() : resourceUrl.getPort();
+        return resourceUrl.getProtocol().toLowerCase(Locale.US) + "://"
+                + resourceUrl.getHost().toLowerCase(Locale.US) + ":" + port;
+    }
+
+    private static AuthenticationParameters getCachedParameters(final String origin) {
+        final CachedChallenge cachedChallenge = CHALLENGE_CACHE.get(origin);
+        if (cachedChallenge == null) {
+            return null;
+        }
+
+        if (cachedChallenge.mExpiresAtMillis <= Clock.getInstance().currentTimeMillis()) {
+            CHALLENGE_CACHE.remove(origin, cachedChallenge);
+            return null;
+        }
+
+        return cachedChallenge.mParameters;
+    }
+
+    private static void cacheParameters(final String origin, final AuthenticationParameters param) {
+        final long ttlMillis = AuthenticationSettings.INSTANCE.getBearerChallengeCacheTtlMillis();
+        if (ttlMillis > 0) {
+            CHALLENGE_CACHE.put(origin, new CachedChallenge(param, Clock.getInstance().currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Parsed bearer challenge of a resource origin, with its expiry.
+     */
+    private static final class CachedChallenge {
+
+        private final AuthenticationParameters mParameters;
+
+        private final long mExpiresAtMillis;
+
+        CachedChallenge(final AuthenticationParameters parameters, final long expiresAtMillis) {
+            mParameters = parameters;
+            mExpiresAtMillis = expiresAtMillis;
+        }
+    }
+
     /**
      * ADAL will parse the header response to get the authority and the resource
      * info.
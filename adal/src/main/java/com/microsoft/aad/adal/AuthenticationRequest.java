@@ -77,6 +77,8 @@ class AuthenticationRequest implements Serializable {
 
     private transient InstanceDiscoveryMetadata mInstanceDiscoveryMetadata;
 
+    private transient RequestDeadline mDeadline;
+
     private boolean mForceRefresh = false;
 
     private boolean mSkipCache = false;
@@ -377,6 +379,17 @@ class AuthenticationRequest implements Serializable {
         return mInstanceDiscoveryMetadata;
     }
 
+    void setDeadline(final RequestDeadline deadline) {
+        mDeadline = deadline;
+    }
+
+    /**
+     * @return The deadline of the request, null if it is not bounded.
+     */
+    RequestDeadline getDeadline() {
+        return mDeadline;
+    }
+
     public boolean getForceRefresh(){
         return mForceRefresh;
     }
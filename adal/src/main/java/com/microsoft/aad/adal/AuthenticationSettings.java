@@ -23,6 +23,8 @@
 
 package com.microsoft.aad.adal;
 
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
+
 /**
  * Settings to be used in AuthenticationContext.
  */
@@ -36,6 +38,24 @@ public enum AuthenticationSettings {
 
     private static final int DEFAULT_READ_CONNECT_TIMEOUT = 30000;
 
+    private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 2;
+
+    private static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = 1000L;
+
+    private static final long DEFAULT_RETRY_MAX_DELAY_MILLIS = 30000L;
+
+    private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+
+    private static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION_MILLIS = 30000L;
+
+    private static final long DEFAULT_AUTHORITY_METADATA_CACHE_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final long DEFAULT_ADFS_TRUST_CACHE_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final long DEFAULT_BEARER_CHALLENGE_CACHE_TTL_MILLIS = 60 * 60 * 1000L;
+
+    private static final int DEFAULT_TELEMETRY_DISPATCH_QUEUE_CAPACITY = 256;
+
     private Class<?> mClazzDeviceCertProxy;
 
     private String mActivityPackageName;
@@ -63,6 +83,44 @@ public enum AuthenticationSettings {
 
     private int mReadTimeOut = DEFAULT_READ_CONNECT_TIMEOUT;
 
+    /**
+     * set to be false in default.
+     * if true, {@link DefaultTokenCacheStore} loads its key material on a background thread
+     * when it is created.
+     */
+    private boolean mEnableKeyMaterialPrewarm = false;
+
+    private boolean mKeepAliveEnabled = true;
+
+    private volatile IWebRequestHandler mWebRequestHandler;
+
+    private int mRetryMaxAttempts = DEFAULT_RETRY_MAX_ATTEMPTS;
+
+    private long mRetryBaseDelayMillis = DEFAULT_RETRY_BASE_DELAY_MILLIS;
+
+    private long mRetryMaxDelayMillis = DEFAULT_RETRY_MAX_DELAY_MILLIS;
+
+    private boolean mCircuitBreakerEnabled = false;
+
+    private int mCircuitBreakerFailureThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+
+    private long mCircuitBreakerOpenDurationMillis = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION_MILLIS;
+
+    private boolean mHedgedRequestsEnabled = false;
+
+    private long mHedgeDelayMillis = 0;
+
+    private long mAuthorityMetadataCacheTtlMillis = DEFAULT_AUTHORITY_METADATA_CACHE_TTL_MILLIS;
+
+    private long mADFSTrustCacheTtlMillis = DEFAULT_ADFS_TRUST_CACHE_TTL_MILLIS;
+
+    private long mBearerChallengeCacheTtlMillis = DEFAULT_BEARER_CHALLENGE_CACHE_TTL_MILLIS;
+
+    private boolean mTelemetryDispatchAsync = false;
+
+    private int mTelemetryDispatchQueueCapacity = DEFAULT_TELEMETRY_DISPATCH_QUEUE_CAPACITY;
+
+    private boolean mTelemetryDispatchBlockWhenFull = false;
 
     /**
      * Get bytes to derive secretKey to use in encrypt/decrypt.
@@ -302,4 +360,367 @@ public enum AuthenticationSettings {
     public boolean getDisableWebViewHardwareAcceleration() {
         return com.microsoft.identity.common.adal.internal.AuthenticationSettings.INSTANCE.getDisableWebViewHardwareAcceleration();
     }
+
+    /**
+     * Method to enable/disable loading the key material used by {@link DefaultTokenCacheStore}
+     * on a background thread when the cache is created. Reading the key pair from
+     * AndroidKeyStore and unwrapping the secret key is otherwise done by the first
+     * token request that touches the cache. By default prewarm is disabled.
+     *
+     * @param enable true to load the key material in background when the cache is created.
+     * @see #getEnableKeyMaterialPrewarm()
+     */
+    public void setEnableKeyMaterialPrewarm(boolean enable) {
+        mEnableKeyMaterialPrewarm = enable;
+    }
+
+    /**
+     * Method to check whether {@link DefaultTokenCacheStore} loads its key material in
+     * background when it is created.
+     *
+     * @return true if key material prewarm is enabled, false otherwise.
+     * @see #setEnableKeyMaterialPrewarm(boolean)
+     */
+    public boolean getEnableKeyMaterialPrewarm() {
+        return mEnableKeyMaterialPrewarm;
+    }
+
+    /**
+     * Method to enable/disable keeping HTTP connections to the authority alive between requests.
+     * With keep-alive enabled, the discovery and metadata requests sent in the same flow reuse the
+     * TLS connection instead of doing a new handshake each. Token requests are POSTs, which cannot
+     * be resent safely on a stale connection, they always close their connection. The idle connections are
+     * pooled by the platform {@link java.net.HttpURLConnection}, which decides how many are kept and
+     * for how long. By default keep-alive is enabled.
+     *
+     * @param enable false to send every request with "Connection: close".
+     */
+    public void setKeepAliveEnabled(boolean enable) {
+        mKeepAliveEnabled = enable;
+    }
+
+    /**
+     * @return true if HTTP connections are kept alive between requests, false otherwise.
+     */
+    public boolean getKeepAliveEnabled() {
+        return mKeepAliveEnabled;
+    }
+
+    /**
+     * Set the {@link IWebRequestHandler} used by all ADAL network requests: token requests,
+     * authority validation, AD FS metadata and resource challenges. The handler is shared by
+     * concurrent requests, so it has to be thread safe and keep the correlation id and client
+     * version set through {@link IWebRequestHandler} per calling thread. By default requests are
+     * sent over the keep-alive connections of the platform pool.
+     *
+     * @param webRequestHandler the handler to use, null to restore the default one.
+     */
+    public void setWebRequestHandler(IWebRequestHandler webRequestHandler) {
+        mWebRequestHandler = webRequestHandler;
+    }
+
+    /**
+     * @return the {@link IWebRequestHandler} used by all ADAL network requests.
+     * @see #setWebRequestHandler(IWebRequestHandler)
+     */
+    public IWebRequestHandler getWebRequestHandler() {
+        final IWebRequestHandler webRequestHandler = mWebRequestHandler;
+        return webRequestHandler != null ? webRequestHandler : PooledWebRequestHandler.getInstance();
+    }
+
+    /**
+     * Set the maximum number of attempts of a token request failing with a timeout, a 429 or a
+     * 5xx response, including the first attempt. Default is 2.
+     *
+     * @param maxAttempts the maximum number of attempts, 1 disables retries.
+     */
+    public void setRetryMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid maxAttempts");
+        }
+
+        mRetryMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return the maximum number of attempts of a token request.
+     */
+    public int getRetryMaxAttempts() {
+        return mRetryMaxAttempts;
+    }
+
+    /**
+     * Set the base delay of the exponential backoff between retries. The n-th retry waits a
+     * random time up to base delay * 2^(n-1), capped by {@link #getRetryMaxDelayMillis()}.
+     * Default is 1 second.
+     *
+     * @param baseDelayMillis the base delay in milliseconds.
+     */
+    public void setRetryBaseDelayMillis(long baseDelayMillis) {
+        if (baseDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid baseDelayMillis");
+        }
+
+        mRetryBaseDelayMillis = baseDelayMillis;
+    }
+
+    /**
+     * @return the base delay of the exponential backoff between retries in milliseconds.
+     */
+    public long getRetryBaseDelayMillis() {
+        return mRetryBaseDelayMillis;
+    }
+
+    /**
+     * Set the maximum delay before a retry, including the delay asked by a Retry-After header.
+     * Default is 30 seconds.
+     *
+     * @param maxDelayMillis the maximum delay in milliseconds.
+     */
+    public void setRetryMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Invalid maxDelayMillis");
+        }
+
+        mRetryMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return the maximum delay before a retry in milliseconds.
+     */
+    public long getRetryMaxDelayMillis() {
+        return mRetryMaxDelayMillis;
+    }
+
+    /**
+     * Enable or disable the per host circuit breaker. When enabled, requests to a token or instance
+     * discovery host that keeps failing with timeouts or 5xx responses fail fast until the host is
+     * probed again. Default is false.
+     *
+     * @param enabled true to enable the circuit breaker, false otherwise.
+     */
+    public void setCircuitBreakerEnabled(boolean enabled) {
+        mCircuitBreakerEnabled = enabled;
+    }
+
+    /**
+     * @return true if the circuit breaker is enabled, false otherwise.
+     */
+    public boolean getCircuitBreakerEnabled() {
+        return mCircuitBreakerEnabled;
+    }
+
+    /**
+     * Set the number of consecutive failures of a host that opens its circuit breaker. Default is 5.
+     *
+     * @param failureThreshold the number of consecutive failures.
+     */
+    public void setCircuitBreakerFailureThreshold(int failureThreshold) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Invalid failureThreshold");
+        }
+
+        mCircuitBreakerFailureThreshold = failureThreshold;
+    }
+
+    /**
+     * @return the number of consecutive failures of a host that opens its circuit breaker.
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return mCircuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Set how long requests to a host fail fast once its circuit breaker opened, before a single
+     * request is let through to probe the host. Default is 30 seconds.
+     *
+     * @param openDurationMillis the open duration in milliseconds.
+     */
+    public void setCircuitBreakerOpenDurationMillis(long openDurationMillis) {
+        if (openDurationMillis <= 0) {
+            throw new IllegalArgumentException("Invalid openDurationMillis");
+        }
+
+        mCircuitBreakerOpenDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * @return how long requests to a host fail fast once its circuit breaker opened, in milliseconds.
+     */
+    public long getCircuitBreakerOpenDurationMillis() {
+        return mCircuitBreakerOpenDurationMillis;
+    }
+
+    /**
+     * Enable or disable hedging of the instance discovery, DRS and WebFinger metadata requests. When
+     * enabled, a metadata request without response after {@link #getHedgeDelayMillis()} is sent a
+     * second time, to an alias of the host when one is known, and the first response is used. Token
+     * requests are never hedged. Default is false.
+     *
+     * @param enabled true to hedge the metadata requests, false otherwise.
+     */
+    public void setHedgedRequestsEnabled(boolean enabled) {
+        mHedgedRequestsEnabled = enabled;
+    }
+
+    /**
+     * @return true if the metadata requests are hedged, false otherwise.
+     */
+    public boolean getHedgedRequestsEnabled() {
+        return mHedgedRequestsEnabled;
+    }
+
+    /**
+     * Set how long a hedged metadata request waits for its response before it is sent again.
+     * Default is 0, the delay then follows the 95th percentile of the recent metadata requests.
+     *
+     * @param hedgeDelayMillis the delay in milliseconds, 0 for the observed 95th percentile.
+     */
+    public void setHedgeDelayMillis(long hedgeDelayMillis) {
+        if (hedgeDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid hedgeDelayMillis");
+        }
+
+        mHedgeDelayMillis = hedgeDelayMillis;
+    }
+
+    /**
+     * @return how long a hedged metadata request waits for its response in milliseconds, 0 for the
+     * observed 95th percentile.
+     */
+    public long getHedgeDelayMillis() {
+        return mHedgeDelayMillis;
+    }
+
+    /**
+     * Set how long the instance discovery metadata persisted on the device stays fresh. A new
+     * process uses the persisted metadata instead of querying the instance discovery, once it is
+     * older than this it is still used while it is revalidated in the background. Default is 24
+     * hours, 0 disables the persistence.
+     *
+     * @param ttlMillis the time to live in milliseconds, 0 to not persist the metadata.
+     */
+    public void setAuthorityMetadataCacheTtlMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid ttlMillis");
+        }
+
+        mAuthorityMetadataCacheTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @return how long the persisted instance discovery metadata stays fresh in milliseconds, 0 if
+     * it is not persisted.
+     */
+    public long getAuthorityMetadataCacheTtlMillis() {
+        return mAuthorityMetadataCacheTtlMillis;
+    }
+
+    /**
+     * Set how long the trust of an AD FS authority, established through DRS and WebFinger, is
+     * reused. The trust is persisted on the device so that a new process does not query DRS and
+     * WebFinger again, once it is older than this the authority is validated again. Default is 24
+     * hours, 0 disables the persistence and keeps the trust for the lifetime of the process.
+     *
+     * @param ttlMillis the time to live in milliseconds, 0 to not persist the trust.
+     */
+    public void setADFSTrustCacheTtlMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid ttlMillis");
+        }
+
+        mADFSTrustCacheTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @return how long the trust of an AD FS authority is reused in milliseconds, 0 if it is not
+     * persisted.
+     */
+    public long getADFSTrustCacheTtlMillis() {
+        return mADFSTrustCacheTtlMillis;
+    }
+
+    /**
+     * Set how long the authority and resource read from the bearer challenge of a resource by
+     * {@link AuthenticationParameters#createFromResourceUrl} are reused for the resources of the same
+     * origin, instead of sending a new request to the resource. Default is 1 hour, 0 disables the
+     * caching.
+     *
+     * @param ttlMillis the time to live in milliseconds, 0 to not cache the challenges.
+     */
+    public void setBearerChallengeCacheTtlMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid ttlMillis");
+        }
+
+        mBearerChallengeCacheTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @return how long the parsed bearer challenge of a resource origin is reused in milliseconds,
+     * 0 if it is not cached.
+     */
+    public long getBearerChallengeCacheTtlMillis() {
+        return mBearerChallengeCacheTtlMillis;
+    }
+
+    /**
+     * Enable or disable the asynchronous dispatch of the telemetry events. When enabled, the
+     * {@link IDispatcher} registered afterwards through {@link Telemetry#registerDispatcher} receives
+     * the events on a background thread instead of the thread completing the request, so that a
+     * slow dispatcher does not add to the latency of the requests. Default is false.
+     *
+     * @param async true to dispatch the telemetry events on a background thread, false otherwise.
+     */
+    public void setTelemetryDispatchAsync(boolean async) {
+        mTelemetryDispatchAsync = async;
+    }
+
+    /**
+     * @return true if the telemetry events are dispatched on a background thread, false otherwise.
+     */
+    public boolean getTelemetryDispatchAsync() {
+        return mTelemetryDispatchAsync;
+    }
+
+    /**
+     * Set how many telemetry events can wait for the asynchronous dispatch. Default is 256.
+     *
+     * @param capacity the capacity of the dispatch queue, has to be positive.
+     * @see #setTelemetryDispatchAsync(boolean)
+     */
+    public void setTelemetryDispatchQueueCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+
+        mTelemetryDispatchQueueCapacity = capacity;
+    }
+
+    /**
+     * @return how many telemetry events can wait for the asynchronous dispatch.
+     */
+    public int getTelemetryDispatchQueueCapacity() {
+        return mTelemetryDispatchQueueCapacity;
+    }
+
+    /**
+     * Set what happens to a telemetry event when the asynchronous dispatch queue is full. By default
+     * the event is dropped and counted in {@link Telemetry#getDroppedEventCount()}, if set to true
+     * the thread completing the request waits until the queue has room for the event.
+     *
+     * @param blockWhenFull true to wait for room in the queue, false to drop the event.
+     * @see #setTelemetryDispatchAsync(boolean)
+     */
+    public void setTelemetryDispatchBlockWhenFull(boolean blockWhenFull) {
+        mTelemetryDispatchBlockWhenFull = blockWhenFull;
+    }
+
+    /**
+     * @return true if the request waits for room in a full telemetry dispatch queue, false if the
+     * event is dropped.
+     */
+    public boolean getTelemetryDispatchBlockWhenFull() {
+        return mTelemetryDispatchBlockWhenFull;
+    }
 }
@@ -0,0 +1,228 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable parsed form of an authority url, shared by the request pipeline instead of parsing the
+ * authority string again at each step. Instances are interned by authority string.
+ */
+final class Authority {
+
+    /**
+     * The kind of identity provider behind the authority.
+     */
+    enum Type {
+        AAD,
+        ADFS,
+        B2C
+    }
+
+    private static final String ADFS_PATH = "/adfs";
+
+    private static final String B2C_PATH_SEGMENT = "tfp";
+
+    static final String AUTHORIZE_ENDPOINT_PATH = "/oauth2/authorize";
+
+    static final String TOKEN_ENDPOINT_PATH = "/oauth2/token";
+
+    /**
+     * Beyond this number of distinct authorities, new ones are parsed without being interned.
+     */
+    private static final int MAX_INTERNED_AUTHORITIES = 64;
+
+    private static final ConcurrentMap<String, Authority> INTERNED_AUTHORITIES = new ConcurrentHashMap<>();
+
+    private final String mAuthority;
+
+    private final URL mUrl;
+
+    private final String mHost;
+
+    private final Type mType;
+
+    private final String mTenant;
+
+    private final String mCacheKeyForm;
+
+    private final String mAuthorizeEndpoint;
+
+    private final String mTokenEndpoint;
+
+    /**
+     * The authority on other hosts, keyed by lower case host.
+     */
+    private final ConcurrentMap<String, String> mAuthorityOnHost = new ConcurrentHashMap<>();
+
+    private Authority(final String authority) throws MalformedURLException {
+        mAuthority = authority;
+        mUrl = new URL(authority);
+        mHost = mUrl.getHost().toLowerCase(Locale.US);
+
+        final String path = mUrl.getPath();
+        final String[] segments = path.startsWith("/") ? path.substring(1).split("/") : path.split("/");
+        if (ADFS_PATH.equals(path.toLowerCase(Locale.ENGLISH))) {
+            mType = Type.ADFS;
+            mTenant = null;
+        } else if (B2C_PATH_SEGMENT.equalsIgnoreCase(segments[0])) {
+            mType = Type.B2C;
+            mTenant = segments.length > 1 ? segments[1] : null;
+        } else {
+            mType = Type.AAD;
+            mTenant = segments[0].isEmpty() ? null : segments[0];
+        }
+
+        final String lowerCaseAuthority = authority.toLowerCase(Locale.US);
+        mCacheKeyForm = lowerCaseAuthority.endsWith("/")
+                ? lowerCaseAuthority.substring(0, lowerCaseAuthority.length() - 1) : lowerCaseAuthority;
+        mAuthorizeEndpoint = authority + AUTHORIZE_ENDPOINT_PATH;
+        mTokenEndpoint = authority + TOKEN_ENDPOINT_PATH;
+    }
+
+    /**
+     * @param authority The authority url.
+     * @return The parsed authority, the same instance for the same authority string.
+     * @throws MalformedURLException if the authority is not a valid url.
+     */
+    static Authority of(final String authority) throws MalformedURLException {
+        if (authority == null) {
+            throw new MalformedURLException("Authority is null");
+        }
+
+        final Authority interned = INTERNED_AUTHORITIES.get(authority);
+        if (interned != null) {
+            return interned;
+        }
+
+        final Authority parsed = new Authority(authority);
+        if (INTERNED_AUTHORITIES.size() >= MAX_INTERNED_AUTHORITIES) {
+            return parsed;
+        }
+
+        final Authority raced = INTERNED_AUTHORITIES.putIfAbsent(authority, parsed);
+        return raced == null ? parsed : raced;
+    }
+
+    /**
+     * @return The parsed authority, null if the authority is not a valid url.
+     */
+    static Authority ofOrNull(final String authority) {
+        try {
+            return of(authority);
+        } catch (final MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The authority in the form used in the cache keys: lower case, without trailing slash.
+     */
+    static String toCacheKeyForm(final String authority) {
+        final Authority parsed = ofOrNull(authority);
+        if (parsed != null) {
+            return parsed.mCacheKeyForm;
+        }
+
+        final String lowerCaseAuthority = authority.toLowerCase(Locale.US);
+        return lowerCaseAuthority.endsWith("/")
+                ? lowerCaseAuthority.substring(0, lowerCaseAuthority.length() - 1) : lowerCaseAuthority;
+    }
+
+    @Override
+    public String toString() {
+        return mAuthority;
+    }
+
+    URL getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return The host in lower case.
+     */
+    String getHost() {
+        return mHost;
+    }
+
+    Type getType() {
+        return mType;
+    }
+
+    boolean isADFS() {
+        return mType == Type.ADFS;
+    }
+
+    /**
+     * @return The tenant of the authority, null for AD FS or if the authority has no path.
+     */
+    String getTenant() {
+        return mTenant;
+    }
+
+    String getAuthorizeEndpoint() {
+        return mAuthorizeEndpoint;
+    }
+
+    String getTokenEndpoint() {
+        return mTokenEndpoint;
+    }
+
+    /**
+     * @return The same authority on the given host, the authority itself if it is on that host.
+     * @throws MalformedURLException if the host does not form a valid url.
+     */
+    String onHost(final String host) throws MalformedURLException {
+        final String lowerCaseHost = host.toLowerCase(Locale.US);
+        if (mHost.equals(lowerCaseHost)) {
+            return mAuthority;
+        }
+
+        String authorityOnHost = mAuthorityOnHost.get(lowerCaseHost);
+        if (authorityOnHost == null) {
+            authorityOnHost = Discovery.constructAuthorityUrl(mUrl, host).toString();
+            mAuthorityOnHost.put(lowerCaseHost, authorityOnHost);
+        }
+
+        return authorityOnHost;
+    }
+
+    /**
+     * @return The authority on the preferred cache host of the cached instance discovery metadata,
+     * the authority itself if there is no validated metadata.
+     * @throws MalformedURLException if the preferred cache host does not form a valid url.
+     */
+    String getPreferredCacheAuthority() throws MalformedURLException {
+        final InstanceDiscoveryMetadata metadata = AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(mUrl);
+        if (metadata == null || !metadata.isValidated() || metadata.getPreferredCache() == null) {
+            return mAuthority;
+        }
+
+        return onHost(metadata.getPreferredCache());
+    }
+}
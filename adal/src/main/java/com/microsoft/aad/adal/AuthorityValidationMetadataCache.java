@@ -23,20 +23,29 @@
 
 package com.microsoft.aad.adal;
 
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
+import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectory;
+import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectoryCloud;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Hold the authority validation metadata.
@@ -49,14 +58,34 @@ final class AuthorityValidationMetadataCache {
 
     static final String META_DATA = "metadata";
 
-    private static final String PREFERRED_NETWORK = "preferred_network";
-
-    private static final String PREFERRED_CACHE = "preferred_cache";
+    /**
+     * Persisted metadata validated longer ago than this is dropped instead of being served while it
+     * is revalidated.
+     */
+    private static final long MAX_STALE_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
 
-    private static final String ALIASES = "aliases";
+    private static final ExecutorService REVALIDATION_EXECUTOR = Executors.newSingleThreadExecutor();
 
     private static ConcurrentMap<String, InstanceDiscoveryMetadata> sAadAuthorityHostMetadata = new ConcurrentHashMap<>();
 
+    /**
+     * When the validated metadata of each host was returned by the instance discovery.
+     */
+    private static final ConcurrentMap<String, Long> sValidatedAtMillis = new ConcurrentHashMap<>();
+
+    /**
+     * The hosts served from the bundled snapshot whose refresh is not queued yet.
+     */
+    private static final Set<String> sSnapshotHostsToRefresh =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static volatile boolean sIsPersistedMetadataLoaded = false;
+
+    /**
+     * Set by the tests which fill the cache themselves, see {@link #resetForTesting()}.
+     */
+    private static volatile boolean sIsLoadingSkippedForTesting = false;
+
     private AuthorityValidationMetadataCache() {
         // Utility class, no public constructor
     }
@@ -69,33 +98,56 @@ final class AuthorityValidationMetadataCache {
         return containsAuthorityHost(authorityUrl) && getCachedInstanceDiscoveryMetadata(authorityUrl).isValidated();
     }
 
+    /**
+     * @return True if the cached metadata of the host was returned by the instance discovery, in this
+     * process or persisted by an earlier one, false if it comes from the bundled snapshot.
+     */
+    static boolean isReturnedByInstanceDiscovery(final URL authorityUrl) {
+        return sValidatedAtMillis.containsKey(authorityUrl.getHost().toLowerCase(Locale.US));
+    }
+
     static InstanceDiscoveryMetadata getCachedInstanceDiscoveryMetadata(final URL authorityUrl) {
         return sAadAuthorityHostMetadata.get(authorityUrl.getHost().toLowerCase(Locale.US));
     }
 
     static void processInstanceDiscoveryMetadata(final URL authorityUrl, final Map<String, String> discoveryResponse) throws JSONException {
-        final String methodName = ":processInstanceDiscoveryMetadata";
-        final boolean isTenantDiscoveryEndpointReturned = discoveryResponse.containsKey(TENANT_DISCOVERY_ENDPOINT);
         final String metadata = discoveryResponse.get(META_DATA);
+        processInstanceDiscoveryResponse(authorityUrl, new InstanceDiscoveryResponse(
+                discoveryResponse.containsKey(TENANT_DISCOVERY_ENDPOINT),
+                discoveryResponse.get(AuthenticationConstants.OAuth2.ERROR_CODES),
+                StringExtensions.isNullOrBlank(metadata) ? null : JsonResponseParser.parseInstanceDiscoveryMetadata(metadata)));
+    }
+
+    /**
+     * Caches the metadata of an instance discovery response, and sets it on the AAD identity
+     * provider as well.
+     */
+    static void processInstanceDiscoveryResponse(final URL authorityUrl, final InstanceDiscoveryResponse discoveryResponse) {
+        final String methodName = ":processInstanceDiscoveryResponse";
+        final List<InstanceDiscoveryMetadata> metadata = discoveryResponse.getMetadata();
         final String authorityHost = authorityUrl.getHost().toLowerCase(Locale.US);
 
-        if (!isTenantDiscoveryEndpointReturned) {
-            sAadAuthorityHostMetadata.put(authorityHost, new InstanceDiscoveryMetadata(false));
+        if (!discoveryResponse.isTenantDiscoveryEndpointReturned()) {
+            putDiscoveredMetadata(authorityHost, new InstanceDiscoveryMetadata(false));
             return;
         }
 
         // No metadata is returned, fill in the metadata with passed
-        if (StringExtensions.isNullOrBlank(metadata)) {
+        if (metadata == null) {
             Logger.v(TAG + methodName, "No metadata returned from instance discovery.");
-            sAadAuthorityHostMetadata.put(authorityHost, new InstanceDiscoveryMetadata(authorityHost, authorityHost));
+            putDiscoveredMetadata(authorityHost, new InstanceDiscoveryMetadata(authorityHost, authorityHost));
             return;
         }
 
-        processInstanceDiscoveryResponse(metadata);
+        for (final InstanceDiscoveryMetadata instanceDiscoveryMetadata : metadata) {
+            for (final String alias : instanceDiscoveryMetadata.getAliases()) {
+                putDiscoveredMetadata(alias.toLowerCase(Locale.US), instanceDiscoveryMetadata);
+            }
+        }
     }
 
     static void updateInstanceDiscoveryMap(final String host, final InstanceDiscoveryMetadata metadata) {
-        sAadAuthorityHostMetadata.put(host.toLowerCase(Locale.US), metadata);
+        putMetadata(host.toLowerCase(Locale.US), metadata);
     }
 
     static Map<String, InstanceDiscoveryMetadata> getAuthorityValidationMetadataCache() {
@@ -104,29 +156,164 @@ final class AuthorityValidationMetadataCache {
 
     static void clearAuthorityValidationCache() {
         sAadAuthorityHostMetadata.clear();
+        sValidatedAtMillis.clear();
+        sSnapshotHostsToRefresh.clear();
+    }
+
+    /**
+     * Clears the cache and stops {@link #loadPersistedMetadata(Context)} from filling it, so that
+     * a test only sees the metadata it adds whatever ran before it in the process.
+     */
+    @VisibleForTesting
+    static void resetForTesting() {
+        sIsLoadingSkippedForTesting = true;
+        clearAuthorityValidationCache();
     }
 
-    private static void processInstanceDiscoveryResponse(final String metadata) throws JSONException {
-        final JSONArray jsonArray = new JSONArray(metadata);
-        for (int i = 0; i < jsonArray.length(); i++) {
-            final InstanceDiscoveryMetadata instanceDiscoveryMetadata = processSingleJsonArray(new JSONObject(jsonArray.get(i).toString()));
-            final List<String> aliases = instanceDiscoveryMetadata.getAliases();
-            for (final String alias : aliases) {
-                sAadAuthorityHostMetadata.put(alias.toLowerCase(Locale.US), instanceDiscoveryMetadata);
+    /**
+     * Fills the cache with the persisted metadata, then with the bundled snapshot of the known
+     * clouds, the first time it is called in the process. The stale metadata is served and
+     * revalidated in the background, the snapshot of a host is refreshed once it is used. It reads
+     * from the disk, do not call it from the UI thread.
+     */
+    static void loadPersistedMetadata(final Context context) {
+        if (sIsPersistedMetadataLoaded || sIsLoadingSkippedForTesting) {
+            return;
+        }
+
+        synchronized (AuthorityValidationMetadataCache.class) {
+            if (sIsPersistedMetadataLoaded) {
+                return;
             }
+
+            sIsPersistedMetadataLoaded = true;
+            readPersistedMetadata(context);
+            readBundledSnapshot();
         }
     }
 
-    private static InstanceDiscoveryMetadata processSingleJsonArray(final JSONObject jsonObject) throws JSONException {
-        final String preferredNetwork = jsonObject.getString(PREFERRED_NETWORK);
-        final String preferredCache = jsonObject.getString(PREFERRED_CACHE);
-        final JSONArray aliasArray = jsonObject.getJSONArray(ALIASES);
+    /**
+     * Adds the persisted metadata of the hosts which are not cached yet.
+     */
+    static void readPersistedMetadata(final Context context) {
+        final String methodName = ":readPersistedMetadata";
+        final long ttlMillis = AuthenticationSettings.INSTANCE.getAuthorityMetadataCacheTtlMillis();
+        if (ttlMillis == 0) {
+            return;
+        }
 
-        final List<String> aliases = new ArrayList<>();
-        for (int i = 0; i < aliasArray.length(); i++) {
-            aliases.add(aliasArray.getString(i));
+        final long now = Clock.getInstance().currentTimeMillis();
+        // The hosts to revalidate, one per preferred network since aliases share their metadata.
+        final Map<String, String> staleHosts = new HashMap<>();
+        for (final Map.Entry<String, AuthorityValidationMetadataStore.Entry> entry
+                : new AuthorityValidationMetadataStore(context).load().entrySet()) {
+            final InstanceDiscoveryMetadata metadata = entry.getValue().toMetadata();
+            final long ageMillis = now - entry.getValue().getValidatedAtMillis();
+            if (metadata == null || ageMillis > ttlMillis + MAX_STALE_AGE_MILLIS) {
+                continue;
+            }
+
+            final String host = entry.getKey().toLowerCase(Locale.US);
+            if (sAadAuthorityHostMetadata.putIfAbsent(host, metadata) != null) {
+                continue;
+            }
+
+            sValidatedAtMillis.put(host, entry.getValue().getValidatedAtMillis());
+            AzureActiveDirectory.putCloud(host, CoreAdapter.asAadCloud(metadata));
+            // A validation time in the future means the clock was changed, revalidate as well.
+            if (ageMillis >= ttlMillis || ageMillis < 0) {
+                staleHosts.put(metadata.getPreferredNetwork(), host);
+            }
         }
 
-        return new InstanceDiscoveryMetadata(preferredNetwork, preferredCache, aliases);
+        Logger.v(TAG + methodName, "Persisted instance discovery metadata loaded. Stale hosts: " + staleHosts.size());
+        revalidateInBackground(context, staleHosts.values());
+    }
+
+    /**
+     * Adds the bundled snapshot of the hosts which are not cached yet. The snapshot of a host is
+     * refreshed when it is used, see {@link #refreshSnapshotIfUsed(Context, URL)}.
+     */
+    static void readBundledSnapshot() {
+        final String methodName = ":readBundledSnapshot";
+        int snapshotHostCount = 0;
+        for (final InstanceDiscoveryMetadata metadata : InstanceDiscoverySnapshot.getMetadata()) {
+            for (final String alias : metadata.getAliases()) {
+                final String host = alias.toLowerCase(Locale.US);
+                if (sAadAuthorityHostMetadata.putIfAbsent(host, metadata) == null) {
+                    AzureActiveDirectory.putCloud(host, CoreAdapter.asAadCloud(metadata));
+                    sSnapshotHostsToRefresh.add(host);
+                    snapshotHostCount++;
+                }
+            }
+        }
+
+        Logger.v(TAG + methodName, "Bundled instance discovery snapshot version " + InstanceDiscoverySnapshot.VERSION
+                + " loaded. Hosts: " + snapshotHostCount);
+    }
+
+    /**
+     * Refreshes the bundled snapshot of the authority host in the background, the first time it
+     * validates the authority. The snapshot stays in use if the refresh fails.
+     *
+     * @return True if the refresh is queued.
+     */
+    static boolean refreshSnapshotIfUsed(final Context context, final URL authorityUrl) {
+        final String host = authorityUrl.getHost().toLowerCase(Locale.US);
+        if (!sSnapshotHostsToRefresh.remove(host)) {
+            return false;
+        }
+
+        revalidateInBackground(context, Collections.singletonList(host));
+        return true;
+    }
+
+    private static void revalidateInBackground(final Context context, final Collection<String> hosts) {
+        for (final String host : hosts) {
+            REVALIDATION_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    new Discovery(context).refreshInstanceDiscoveryMetadata(host);
+                }
+            });
+        }
+    }
+
+    /**
+     * Persists the metadata validated by the instance discovery with the time each host was
+     * validated. The bundled snapshot is not persisted.
+     */
+    static void persistMetadata(final Context context) {
+        if (AuthenticationSettings.INSTANCE.getAuthorityMetadataCacheTtlMillis() == 0) {
+            return;
+        }
+
+        final Map<String, AuthorityValidationMetadataStore.Entry> entries = new HashMap<>();
+        for (final Map.Entry<String, InstanceDiscoveryMetadata> entry : sAadAuthorityHostMetadata.entrySet()) {
+            final Long validatedAtMillis = sValidatedAtMillis.get(entry.getKey());
+            if (!entry.getValue().isValidated() || validatedAtMillis == null) {
+                continue;
+            }
+
+            entries.put(entry.getKey(), new AuthorityValidationMetadataStore.Entry(entry.getValue(), validatedAtMillis));
+        }
+
+        new AuthorityValidationMetadataStore(context).save(entries);
+    }
+
+    private static void putMetadata(final String host, final InstanceDiscoveryMetadata metadata) {
+        sAadAuthorityHostMetadata.put(host, metadata);
+        sSnapshotHostsToRefresh.remove(host);
+        if (metadata.isValidated()) {
+            sValidatedAtMillis.put(host, Clock.getInstance().currentTimeMillis());
+        } else {
+            sValidatedAtMillis.remove(host);
+        }
+    }
+
+    private static void putDiscoveredMetadata(final String host, final InstanceDiscoveryMetadata metadata) {
+        putMetadata(host, metadata);
+        AzureActiveDirectory.putCloud(host, metadata.isValidated()
+                ? CoreAdapter.asAadCloud(metadata) : new AzureActiveDirectoryCloud(false));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the validated instance discovery metadata in the shared preferences, so a new process
+ * can skip the instance discovery round trip before its first token request.
+ */
+final class AuthorityValidationMetadataStore {
+    private static final String TAG = AuthorityValidationMetadataStore.class.getSimpleName();
+
+    private static final String SHARED_PREFERENCE_NAME = "com.microsoft.aad.adal.authority.metadata";
+
+    private static final String KEY_INSTANCE_DISCOVERY_METADATA = "instance_discovery_metadata";
+
+    private final SharedPreferences mPrefs;
+
+    private final Gson mGson = new Gson();
+
+    AuthorityValidationMetadataStore(final Context context) {
+        mPrefs = context.getSharedPreferences(SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return The persisted metadata keyed by the authority host, empty if nothing is persisted or
+     * the persisted value cannot be read.
+     */
+    Map<String, Entry> load() {
+        final String methodName = ":load";
+        final String json = mPrefs.getString(KEY_INSTANCE_DISCOVERY_METADATA, null);
+        if (json == null) {
+            return new HashMap<>();
+        }
+
+        try {
+            final Map<String, Entry> entries = mGson.fromJson(json, new TypeToken<Map<String, Entry>>() {
+            }.getType());
+            return entries == null ? new HashMap<String, Entry>() : entries;
+        } catch (final JsonParseException e) {
+            Logger.w(TAG + methodName, "Persisted instance discovery metadata cannot be parsed, dropping it. ",
+                    e.getMessage(), ADALError.JSON_PARSE_ERROR);
+            clear();
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Replaces the persisted metadata, the write happens in the background.
+     */
+    void save(final Map<String, Entry> entries) {
+        mPrefs.edit().putString(KEY_INSTANCE_DISCOVERY_METADATA, mGson.toJson(entries)).apply();
+    }
+
+    void clear() {
+        mPrefs.edit().remove(KEY_INSTANCE_DISCOVERY_METADATA).apply();
+    }
+
+    /**
+     * The persisted form of a {@link InstanceDiscoveryMetadata}, with the time it was validated.
+     */
+    static final class Entry {
+        @SerializedName("preferred_network")
+        private String mPreferredNetwork;
+
+        @SerializedName("preferred_cache")
+        private String mPreferredCache;
+
+        @SerializedName("aliases")
+        private List<String> mAliases;
+
+        @SerializedName("validated")
+        private boolean mIsValidated;
+
+        @SerializedName("validated_at")
+        private long mValidatedAtMillis;
+
+        Entry(final InstanceDiscoveryMetadata metadata, final long validatedAtMillis) {
+            mPreferredNetwork = metadata.getPreferredNetwork();
+            mPreferredCache = metadata.getPreferredCache();
+            mAliases = metadata.getAliases();
+            mIsValidated = metadata.isValidated();
+            mValidatedAtMillis = validatedAtMillis;
+        }
+
+        /**
+         * @return The metadata, null if the entry is not a complete validated one.
+         */
+        InstanceDiscoveryMetadata toMetadata() {
+            if (!mIsValidated || mPreferredNetwork == null || mPreferredCache == null) {
+                return null;
+            }
+
+            return mAliases == null
+                    ? new InstanceDiscoveryMetadata(mPreferredNetwork, mPreferredCache)
+                    : new InstanceDiscoveryMetadata(mPreferredNetwork, mPreferredCache, mAliases);
+        }
+
+        long getValidatedAtMillis() {
+            return mValidatedAtMillis;
+        }
+    }
+}
@@ -44,6 +44,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -149,8 +150,13 @@ final class BrokerAccountServiceHandler {
             }
         }, brokerEvent);
 
+        final RequestDeadline deadline = RequestDeadline.getCurrent();
         try {
-            countDownLatch.await();
+            if (deadline == null) {
+                countDownLatch.await();
+            } else if (!countDownLatch.await(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+                throw deadline.newExpiredException("the broker account service returned a token");
+            }
         } catch (final InterruptedException e) {
             exception.set(e);
         }
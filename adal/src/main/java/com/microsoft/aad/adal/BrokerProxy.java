@@ -55,6 +55,7 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.microsoft.identity.common.adal.internal.AuthenticationConstants.Broker.CliTelemInfo.RT_AGE;
 import static com.microsoft.identity.common.adal.internal.AuthenticationConstants.Broker.CliTelemInfo.SERVER_ERROR;
@@ -356,9 +357,22 @@ class BrokerProxy implements IBrokerProxy {
                         null, //set to null to avoid callback
                         mHandler);
 
-                // Making blocking request here
+                // Making blocking request here, bounded by the request timeout if there is one.
+                final RequestDeadline deadline = RequestDeadline.getCurrent();
+                if (deadline == null) {
+                    bundleResult = result.getResult();
+                } else {
+                    try {
+                        bundleResult = result.getResult(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+                    } catch (final OperationCanceledException e) {
+                        // getResult also cancels the request when it times out.
+                        if (deadline.isExpired()) {
+                            throw deadline.newExpiredException("the broker returned a token");
+                        }
+                        throw e;
+                    }
+                }
                 Logger.v(TAG + methodName, "Received result from broker");
-                bundleResult = result.getResult();
             } catch (final OperationCanceledException e) {
                 // Error code AUTH_FAILED_CANCELLED will be thrown if the request was canceled for any reason.
                 Logger.e(TAG + methodName, AUTHENTICATOR_CANCELS_REQUEST, "", ADALError.AUTH_FAILED_CANCELLED, e);
@@ -104,10 +104,7 @@ public final class CacheKey implements Serializable {
             key.mResource = resource;
         }
 
-        key.mAuthority = authority.toLowerCase(Locale.US);
-        if (key.mAuthority.endsWith("/")) {
-            key.mAuthority = (String) key.mAuthority.subSequence(0, key.mAuthority.length() - 1);
-        }
+        key.mAuthority = Authority.toCacheKeyForm(authority);
 
         if (clientId != null) {
             key.mClientId = clientId.toLowerCase(Locale.US);
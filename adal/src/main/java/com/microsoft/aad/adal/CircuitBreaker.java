@@ -0,0 +1,254 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per host circuit breaker of the token and instance discovery requests.
+ * <p>
+ * A host starts {@link State#CLOSED}: requests go through and consecutive failures (timeouts, io
+ * errors and 5xx responses) are counted. Once they reach
+ * {@link AuthenticationSettings#getCircuitBreakerFailureThreshold()} the breaker opens and requests
+ * to the host fail fast for {@link AuthenticationSettings#getCircuitBreakerOpenDurationMillis()}.
+ * It is then {@link State#HALF_OPEN}: a single request is let through to probe the host, its success
+ * closes the breaker and its failure opens it again.
+ */
+final class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    /**
+     * State of the breaker of a host, the names are used in telemetry.
+     */
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.US);
+        }
+    }
+
+    private static final CircuitBreaker INSTANCE = new CircuitBreaker();
+
+    private final ConcurrentMap<String, HostCircuit> mHostCircuits = new ConcurrentHashMap<>();
+
+    private CircuitBreaker() {
+        // Singleton, use getInstance().
+    }
+
+    static CircuitBreaker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param statusCode Http status code of the response.
+     * @return True if the response counts as a failure of the host.
+     */
+    static boolean isFailureStatusCode(final int statusCode) {
+        return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    /**
+     * Asks whether a request can be sent to the host. Once the open duration elapsed, the first
+     * caller gets to send the probe request and moves the breaker to {@link State#HALF_OPEN}.
+     *
+     * @param host Host the request is sent to.
+     * @return False if the request should fail fast.
+     */
+    boolean allowRequest(final String host) {
+        if (!AuthenticationSettings.INSTANCE.getCircuitBreakerEnabled()) {
+            return true;
+        }
+
+        final HostCircuit circuit = mHostCircuits.get(normalize(host));
+        return circuit == null || circuit.allowRequest(host);
+    }
+
+    /**
+     * Same as {@link #allowRequest(String)} without claiming the probe request, for the callers
+     * deciding whether to wait for a retry.
+     *
+     * @param host Host the request is sent to.
+     * @return True if requests to the host currently fail fast.
+     */
+    boolean isOpen(final String host) {
+        if (!AuthenticationSettings.INSTANCE.getCircuitBreakerEnabled()) {
+            return false;
+        }
+
+        final HostCircuit circuit = mHostCircuits.get(normalize(host));
+        return circuit != null && circuit.isOpen();
+    }
+
+    /**
+     * @param host Host the request is sent to.
+     * @return The state of the breaker of the host.
+     */
+    State getState(final String host) {
+        final HostCircuit circuit = mHostCircuits.get(normalize(host));
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * Records that the host answered.
+     *
+     * @param host Host the request was sent to.
+     * @return The new state if the breaker changed state, null otherwise.
+     */
+    State onSuccess(final String host) {
+        final HostCircuit circuit = mHostCircuits.get(normalize(host));
+        if (circuit == null) {
+            return null;
+        }
+
+        return logTransition(host, circuit.onSuccess());
+    }
+
+    /**
+     * Records that the host timed out, could not be reached or answered with a server error.
+     *
+     * @param host Host the request was sent to.
+     * @return The new state if the breaker changed state, null otherwise.
+     */
+    State onFailure(final String host) {
+        if (!AuthenticationSettings.INSTANCE.getCircuitBreakerEnabled()) {
+            return null;
+        }
+
+        final String key = normalize(host);
+        HostCircuit circuit = mHostCircuits.get(key);
+        if (circuit == null) {
+            final HostCircuit newCircuit = new HostCircuit();
+            circuit = mHostCircuits.putIfAbsent(key, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+
+        return logTransition(host, circuit.onFailure());
+    }
+
+    /**
+     * Closes the breakers of all the hosts.
+     */
+    void reset() {
+        mHostCircuits.clear();
+    }
+
+    private static State logTransition(final String host, final State newState) {
+        if (newState != null) {
+            Logger.i(TAG + ":logTransition", "Circuit breaker moved to " + newState + ".", "Host: " + host);
+        }
+
+        return newState;
+    }
+
+    private static String normalize(final String host) {
+        return host.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Breaker of one host, small enough to be guarded by its own lock.
+     */
+    private static final class HostCircuit {
+
+        private State mState = State.CLOSED;
+
+        private int mConsecutiveFailures;
+
+        /**
+         * {@link Clock#nanoTime()} at which the breaker opened, or at which the probe was let through.
+         */
+        private long mStateSinceNanos;
+
+        synchronized boolean allowRequest(final String host) {
+            switch (mState) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (!isOpenDurationElapsed()) {
+                        return false;
+                    }
+
+                    mState = State.HALF_OPEN;
+                    mStateSinceNanos = Clock.getInstance().nanoTime();
+                    logTransition(host, State.HALF_OPEN);
+                    return true;
+                default:
+                    // Only one probe at a time, another one is let through if it never reported back.
+                    if (!isOpenDurationElapsed()) {
+                        return false;
+                    }
+
+                    mStateSinceNanos = Clock.getInstance().nanoTime();
+                    return true;
+            }
+        }
+
+        synchronized boolean isOpen() {
+            return mState != State.CLOSED && !isOpenDurationElapsed();
+        }
+
+        synchronized State getState() {
+            return mState;
+        }
+
+        synchronized State onSuccess() {
+            mConsecutiveFailures = 0;
+            if (mState == State.CLOSED) {
+                return null;
+            }
+
+            mState = State.CLOSED;
+            return State.CLOSED;
+        }
+
+        synchronized State onFailure() {
+            mConsecutiveFailures++;
+            if (mState == State.HALF_OPEN
+                    || mState == State.CLOSED
+                    && mConsecutiveFailures >= AuthenticationSettings.INSTANCE.getCircuitBreakerFailureThreshold()) {
+                mState = State.OPEN;
+                mStateSinceNanos = Clock.getInstance().nanoTime();
+                return State.OPEN;
+            }
+
+            return null;
+        }
+
+        private boolean isOpenDurationElapsed() {
+            final long openDurationNanos = TimeUnit.MILLISECONDS.toNanos(
+                    AuthenticationSettings.INSTANCE.getCircuitBreakerOpenDurationMillis());
+            return Clock.getInstance().nanoTime() - mStateSinceNanos >= openDurationNanos;
+        }
+    }
+}
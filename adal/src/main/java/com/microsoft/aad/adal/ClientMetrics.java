@@ -25,7 +25,13 @@ package com.microsoft.aad.adal;
 
 import java.net.URL;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class ClientMetricsEndpointType {
     public static final String TOKEN = "token";
@@ -37,6 +43,11 @@ final class ClientMetricsEndpointType {
     }
 }
 
+/**
+ * Records the latency and the error of the token and instance discovery requests, and reports
+ * them in the x-client-last-* headers of a following request. Requests in flight are tracked per
+ * correlation id, so that concurrent requests do not overwrite each other.
+ */
 enum ClientMetrics {
 
     /**
@@ -52,74 +63,142 @@ enum ClientMetrics {
 
     private static final String CLIENT_METRICS_HEADER_LAST_ENDPOINT = "x-client-last-endpoint";
 
-    private long mStartTimeMillis = 0;
-
-    private String mLastError;
-
-    private UUID mLastCorrelationId;
+    /**
+     * Maximum number of completed requests waiting to be reported, the oldest are dropped.
+     */
+    private static final int MAX_COMPLETED_RECORDS = 16;
 
-    private long mLastResponseTime;
+    /**
+     * Key of the requests sent without correlation id.
+     */
+    private static final UUID NO_CORRELATION_ID = new UUID(0L, 0L);
 
-    private String mLastEndpoint;
+    private final ConcurrentMap<UUID, PendingRecord> mPendingRecords = new ConcurrentHashMap<>();
 
-    private boolean mIsPending = false;
+    private final Queue<CompletedRecord> mCompletedRecords = new ConcurrentLinkedQueue<>();
 
-    private URL mQueryUrl;
+    private final AtomicInteger mCompletedRecordCount = new AtomicInteger();
 
     public void beginClientMetricsRecord(URL queryUrl, UUID correlationId,
                                          Map<String, String> headers) {
         if (UrlExtensions.isADFSAuthority(queryUrl)) {
             // Don't add for ADFS endpoint
-            mLastCorrelationId = null;
+            mPendingRecords.remove(getKey(correlationId));
             return;
         }
 
-        if (mIsPending) {
-            addClientMetricsHeadersToRequest(headers);
+        final CompletedRecord completedRecord = mCompletedRecords.poll();
+        if (completedRecord != null) {
+            mCompletedRecordCount.decrementAndGet();
+            addClientMetricsHeadersToRequest(completedRecord, headers);
         }
 
-        mStartTimeMillis = System.currentTimeMillis();
-        mQueryUrl = queryUrl;
-        mLastCorrelationId = correlationId;
-        mLastError = "";
-        mIsPending = false;
+        mPendingRecords.put(getKey(correlationId), new PendingRecord(Clock.getInstance().nanoTime()));
     }
 
     public void endClientMetricsRecord(String endpoint, UUID correlationId) {
-        if (UrlExtensions.isADFSAuthority(mQueryUrl)) {
-            // Don't send to ADFS endpoint
+        final PendingRecord pendingRecord = mPendingRecords.remove(getKey(correlationId));
+        if (pendingRecord == null) {
+            // Not recorded, the request was sent to ADFS
             return;
         }
 
-        mLastEndpoint = endpoint;
+        final long responseTimeMillis = TimeUnit.NANOSECONDS.toMillis(
+                Clock.getInstance().nanoTime() - pendingRecord.mStartTimeNanos);
+        mCompletedRecords.offer(new CompletedRecord(correlationId, pendingRecord.mError,
+                responseTimeMillis, endpoint));
 
-        if (mStartTimeMillis != 0) {
-            mLastResponseTime = System.currentTimeMillis() - mStartTimeMillis;
-            mLastCorrelationId = correlationId;
+        // Keep the most recent records only.
+        if (mCompletedRecordCount.incrementAndGet() > MAX_COMPLETED_RECORDS
+                && mCompletedRecords.poll() != null) {
+            mCompletedRecordCount.decrementAndGet();
         }
+    }
 
-        mIsPending = true;
+    public void setLastError(UUID correlationId, String errorCode) {
+        setError(correlationId, (errorCode == null) ? "" : errorCode.replaceAll("[\\[\\]]", ""));
     }
 
-    public void setLastError(String errorCode) {
-        mLastError = (errorCode == null) ? "" : errorCode.replaceAll("[\\[\\]]", "");
+    public void setLastErrorCodes(UUID correlationId, String[] errorCodes) {
+        setError(correlationId, (errorCodes == null) ? null : android.text.TextUtils.join(",", errorCodes));
+    }
+
+    /**
+     * @return The number of completed requests waiting to be reported.
+     */
+    int getCompletedRecordCount() {
+        return mCompletedRecordCount.get();
+    }
+
+    /**
+     * Clears the requests in flight and the completed requests.
+     */
+    void clear() {
+        mPendingRecords.clear();
+        while (mCompletedRecords.poll() != null) {
+            mCompletedRecordCount.decrementAndGet();
+        }
+    }
+
+    private void setError(final UUID correlationId, final String error) {
+        final PendingRecord pendingRecord = mPendingRecords.get(getKey(correlationId));
+        if (pendingRecord != null) {
+            pendingRecord.mError = error;
+        }
     }
 
-    public void setLastErrorCodes(String[] errorCodes) {
-        mLastError = (errorCodes == null) ? null : android.text.TextUtils.join(",", errorCodes);
+    private static UUID getKey(final UUID correlationId) {
+        return correlationId == null ? NO_CORRELATION_ID : correlationId;
     }
 
-    private void addClientMetricsHeadersToRequest(Map<String, String> headers) {
+    private static void addClientMetricsHeadersToRequest(final CompletedRecord record,
+                                                         final Map<String, String> headers) {
 
-        if (mLastError != null) {
-            headers.put(CLIENT_METRICS_HEADER_LAST_ERROR, mLastError);
+        if (record.mError != null) {
+            headers.put(CLIENT_METRICS_HEADER_LAST_ERROR, record.mError);
         }
 
-        if (mLastCorrelationId != null) {
-            headers.put(CLIENT_METRICS_HEADER_LAST_REQUEST, mLastCorrelationId.toString());
+        if (record.mCorrelationId != null) {
+            headers.put(CLIENT_METRICS_HEADER_LAST_REQUEST, record.mCorrelationId.toString());
         }
 
-        headers.put(CLIENT_METRICS_HEADER_LAST_RESPONSE_TIME, Long.toString(mLastResponseTime));
-        headers.put(CLIENT_METRICS_HEADER_LAST_ENDPOINT, mLastEndpoint);
+        headers.put(CLIENT_METRICS_HEADER_LAST_RESPONSE_TIME, Long.toString(record.mResponseTimeMillis));
+        headers.put(CLIENT_METRICS_HEADER_LAST_ENDPOINT, record.mEndpoint);
+    }
+
+    /**
+     * A request in flight.
+     */
+    private static final class PendingRecord {
+
+        private final long mStartTimeNanos;
+
+        private volatile String mError = "";
+
+        PendingRecord(final long startTimeNanos) {
+            mStartTimeNanos = startTimeNanos;
+        }
+    }
+
+    /**
+     * A completed request, waiting to be reported by a following request.
+     */
+    private static final class CompletedRecord {
+
+        private final UUID mCorrelationId;
+
+        private final String mError;
+
+        private final long mResponseTimeMillis;
+
+        private final String mEndpoint;
+
+        CompletedRecord(final UUID correlationId, final String error, final long responseTimeMillis,
+                        final String endpoint) {
+            mCorrelationId = correlationId;
+            mError = error;
+            mResponseTimeMillis = responseTimeMillis;
+            mEndpoint = endpoint;
+        }
     }
 }
@@ -0,0 +1,71 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+/**
+ * Source of wall clock and monotonic time used by ADAL. Tests and benchmarks can control time by
+ * installing their own instance with {@link #setInstance(Clock)}.
+ */
+abstract class Clock {
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private static volatile Clock sInstance = SYSTEM_CLOCK;
+
+    /**
+     * @return The {@link Clock} in use.
+     */
+    static Clock getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Replaces the {@link Clock} in use.
+     *
+     * @param clock The clock to use, or null to restore the system clock.
+     */
+    static void setInstance(final Clock clock) {
+        sInstance = clock == null ? SYSTEM_CLOCK : clock;
+    }
+
+    /**
+     * @return Wall clock time in milliseconds since epoch.
+     */
+    abstract long currentTimeMillis();
+
+    /**
+     * @return Monotonic time in nanoseconds, only meaningful to measure elapsed time.
+     */
+    abstract long nanoTime();
+}
@@ -34,6 +34,13 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.microsoft.aad.adal.DRSMetadataRequestor.Type.CLOUD;
 import static com.microsoft.aad.adal.DRSMetadataRequestor.Type.ON_PREM;
@@ -56,6 +63,16 @@ final class DRSMetadataRequestor extends AbstractMetadataRequestor<DRSMetadata,
     private static final String DRS_URL_PREFIX = "https://enterpriseregistration.";
     private static final String CLOUD_RESOLVER_DOMAIN = "windows.net/";
 
+    /**
+     * Time the on-prem DRS has to answer before the cloud DRS probe starts alongside it.
+     */
+    static final long CLOUD_PROBE_HEAD_START_MILLIS = 500;
+
+    /**
+     * Runs the DRS probes, a probe whose answer is not needed anymore is cancelled.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
     /**
      * The DRS configuration.
      */
@@ -73,42 +90,86 @@ final class DRSMetadataRequestor extends AbstractMetadataRequestor<DRSMetadata,
      */
     @Override
     DRSMetadata requestMetadata(final String domain) throws AuthenticationException {
+        // Same answer as probing one after the other: the on-prem DRS answer, success or error, unless its host is
+        // unknown. The cloud probe starts alongside a slow on-prem probe so that its time overlaps.
+        final RequestDeadline deadline = RequestDeadline.getCurrent();
+        final Future<DRSMetadata> onPremProbe = EXECUTOR.submit(newProbe(ON_PREM, domain, deadline));
+        Future<DRSMetadata> cloudProbe = null;
         try {
-            return requestOnPrem(domain);
-        } catch (UnknownHostException e) {
-            return requestCloud(domain);
+            final Throwable onPremFailure;
+            try {
+                try {
+                    return onPremProbe.get(CLOUD_PROBE_HEAD_START_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException e) {
+                    Logger.v(TAG, "On-prem DRS did not answer yet, starting the cloud DRS probe.");
+                    cloudProbe = EXECUTOR.submit(newProbe(CLOUD, domain, deadline));
+                    return onPremProbe.get();
+                }
+            } catch (final ExecutionException e) {
+                onPremFailure = e.getCause();
+            }
+
+            if (!(onPremFailure instanceof UnknownHostException)) {
+                throw asAuthenticationException(onPremFailure);
+            }
+
+            if (cloudProbe == null) {
+                cloudProbe = EXECUTOR.submit(newProbe(CLOUD, domain, deadline));
+            }
+
+            try {
+                return cloudProbe.get();
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof UnknownHostException) {
+                    throw new AuthenticationException(ADALError.DRS_DISCOVERY_FAILED_UNKNOWN_HOST);
+                }
+
+                throw asAuthenticationException(e.getCause());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationException(ADALError.IO_EXCEPTION, "Interrupted while requesting DRS discovery", e);
+        } finally {
+            onPremProbe.cancel(true);
+            if (cloudProbe != null) {
+                cloudProbe.cancel(true);
+            }
         }
     }
 
     /**
-     * Requests DRS discovery metadata from on-prem configurations.
+     * Creates a probe of the DRS of the given type running on the executor.
      *
-     * @param domain the domain to validate
-     * @return the DRS discovery metadata
-     * @throws UnknownHostException    if the on-prem enrollment server cannot be resolved
-     * @throws AuthenticationException if there exists an enrollment/domain mismatch (lack of trust)
+     * @param type     the DRS configuration to probe
+     * @param domain   the domain to validate
+     * @param deadline the deadline of the caller, capping the socket timeouts of the probe
+     * @return the probe
      */
-    private DRSMetadata requestOnPrem(final String domain)
-            throws UnknownHostException, AuthenticationException {
-        Logger.v(TAG, "Requesting DRS discovery (on-prem)");
-        return requestDrsDiscoveryInternal(ON_PREM, domain);
+    private Callable<DRSMetadata> newProbe(final Type type, final String domain, final RequestDeadline deadline) {
+        return new Callable<DRSMetadata>() {
+            @Override
+            public DRSMetadata call() throws AuthenticationException, UnknownHostException {
+                Logger.v(TAG, "Requesting DRS discovery (" + type + ")");
+                RequestDeadline.setCurrent(deadline);
+                try {
+                    return requestDrsDiscoveryInternal(type, domain);
+                } finally {
+                    RequestDeadline.setCurrent(null);
+                }
+            }
+        };
     }
 
-    /**
-     * Requests DRS discovery metadata from cloud configurations.
-     *
-     * @param domain the domain to validate
-     * @return the DRS discovery metadata
-     * @throws AuthenticationException if there exists an enrollment/domain mismatch (lack of trust)
-     *                                 or the trust cannot be verified
-     */
-    private DRSMetadata requestCloud(final String domain) throws AuthenticationException {
-        Logger.v(TAG, "Requesting DRS discovery (cloud)");
-        try {
-            return requestDrsDiscoveryInternal(CLOUD, domain);
-        } catch (UnknownHostException e) {
-            throw new AuthenticationException(ADALError.DRS_DISCOVERY_FAILED_UNKNOWN_HOST);
+    private static AuthenticationException asAuthenticationException(final Throwable failure) {
+        if (failure instanceof AuthenticationException) {
+            return (AuthenticationException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
         }
+
+        return new AuthenticationException(ADALError.IO_EXCEPTION, failure.getMessage(), failure);
     }
 
     private DRSMetadata requestDrsDiscoveryInternal(final Type type, final String domain)
@@ -134,7 +195,7 @@ final class DRSMetadataRequestor extends AbstractMetadataRequestor<DRSMetadata,
 
         // make the request
         try {
-            webResponse = getWebrequestHandler().sendGet(requestURL, headers);
+            webResponse = sendGet(requestURL, headers);
             final int statusCode = webResponse.getStatusCode();
             if (HttpURLConnection.HTTP_OK == statusCode) {
                 metadata = parseMetadata(webResponse);
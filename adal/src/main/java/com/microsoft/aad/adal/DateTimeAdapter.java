@@ -33,7 +33,7 @@ import com.google.gson.JsonSerializer;
 
 import java.lang.reflect.Type;
 import java.text.DateFormat;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -80,51 +80,45 @@ public final class DateTimeAdapter implements JsonDeserializer<Date>, JsonSerial
         // Default constructor, intentionally empty.
     }
 
+    /**
+     * Legacy formats tried in order when a value is not in the fixed ISO-8601 format. A value may
+     * parse with more than one of them, the order is kept fixed so that it always gives the same
+     * date. Guarded by itself.
+     */
+    private final DateFormat[] mFallbackFormats = new DateFormat[]{
+            mISO8601Format, mLocalFormat, mLocal24HourFormat, mEnUsFormat, mEnUs24HourFormat};
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized Date deserialize(JsonElement json, Type typeOfT,
-                                         JsonDeserializationContext context) throws JsonParseException {
-        final String methodName = ":deserialize";
-        String jsonString = json.getAsString();
-
-        // Datetime string is serialized with iso8601 format by default, should
-        // always try to deserialize with iso8601. But to support the backward
-        // compatibility, we also need to deserialize with old format if failing
-        // with iso8601. 
-        try {
-            return mISO8601Format.parse(jsonString);
-        } catch (final ParseException ignored) {
-            Logger.v(TAG + methodName, "Cannot parse with ISO8601, try again with local format.");
-        }
-
-        // fallback logic for old date format parsing. 
-        try {
-            return mLocalFormat.parse(jsonString);
-        } catch (final ParseException ignored) {
-            Logger.v(TAG + methodName, "Cannot parse with local format, try again with local 24 hour format.");
-        }
-
-        try {
-            return mLocal24HourFormat.parse(jsonString);
-        } catch (final ParseException ignored) {
-            Logger.v(TAG + methodName, "Cannot parse with local 24 hour format, try again with en us format.");
+    public Date deserialize(JsonElement json, Type typeOfT,
+                            JsonDeserializationContext context) throws JsonParseException {
+        final String jsonString = json.getAsString();
+
+        // Datetime string is serialized with iso8601 format by default, the fixed format is parsed
+        // without locking. To support the backward compatibility, we also need to deserialize
+        // with old formats if it is not in that format.
+        final Date date = Iso8601DateFormat.parse(jsonString);
+        if (date != null) {
+            return date;
         }
 
-        try {
-            return mEnUsFormat.parse(jsonString);
-        } catch (final ParseException ignored) {
-            Logger.v(TAG + methodName, "Cannot parse with en us format, try again with en us 24 hour format.");
-        }
+        return deserializeWithFallbackFormats(jsonString);
+    }
 
-        try {
-            return mEnUs24HourFormat.parse(jsonString);
-        } catch (final ParseException e) {
-            Logger.e(TAG + methodName, "Could not parse date. ", e.getMessage(),
-                    ADALError.DATE_PARSING_FAILURE, e);
+    private Date deserializeWithFallbackFormats(final String jsonString) {
+        final String methodName = ":deserializeWithFallbackFormats";
+        synchronized (mFallbackFormats) {
+            for (final DateFormat format : mFallbackFormats) {
+                final Date date = format.parse(jsonString, new ParsePosition(0));
+                if (date != null) {
+                    return date;
+                }
+            }
         }
 
+        Logger.e(TAG + methodName, "Could not parse date. ", "", ADALError.DATE_PARSING_FAILURE);
         throw new JsonParseException("Could not parse date: " + jsonString);
     }
 
@@ -132,8 +126,15 @@ public final class DateTimeAdapter implements JsonDeserializer<Date>, JsonSerial
      * {@inheritDoc}
      */
     @Override
-    public synchronized JsonElement serialize(Date src, Type typeOfSrc,
-                                              JsonSerializationContext context) {
-        return new JsonPrimitive(mISO8601Format.format(src));
+    public JsonElement serialize(Date src, Type typeOfSrc,
+                                 JsonSerializationContext context) {
+        final String formatted = Iso8601DateFormat.format(src);
+        if (formatted != null) {
+            return new JsonPrimitive(formatted);
+        }
+
+        synchronized (mFallbackFormats) {
+            return new JsonPrimitive(mISO8601Format.format(src));
+        }
     }
 }
@@ -25,11 +25,14 @@ package com.microsoft.aad.adal;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
+import android.util.Base64;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
 import com.microsoft.identity.common.adal.internal.cache.StorageHelper;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 import com.microsoft.identity.common.internal.cache.SharedPreferencesFileManager;
@@ -37,7 +40,6 @@ import com.microsoft.identity.common.internal.cache.SharedPreferencesFileManager
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -45,6 +47,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Store/Retrieve TokenCacheItem from SharedPreferencesFileManager.
@@ -58,6 +64,13 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
 
     private static final String TAG = "DefaultTokenCacheStore";
 
+    private static final int KEY_VERSION_BLOB_LENGTH = 4;
+
+    /**
+     * Number of base64 characters needed to decode the key version prefix of an encrypted blob.
+     */
+    private static final int KEY_VERSION_BASE64_LENGTH = 8;
+
     private SharedPreferencesFileManager mPrefs;
 
     private Context mContext;
@@ -71,6 +84,18 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
 
     private static final Object LOCK = new Object();
 
+    /**
+     * Held while writing entries, shared by the stores of the process since they write the same file.
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    /**
+     * Shared key loading task started by {@link #prewarmKeyMaterial()}. Guarded by {@link #LOCK}.
+     */
+    private static FutureTask<Void> sKeyMaterialLoadTask;
+
+    private static volatile long sKeyMaterialLoadDurationMillis = -1;
+
     /**
      * @param context {@link Context}
      */
@@ -105,12 +130,31 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         // If it's under API 18 and secretkey is not provided, we should fail upfront to inform 
         // notify developers. 
         validateSecretKeySetting();
+
+        if (AuthenticationSettings.INSTANCE.getEnableKeyMaterialPrewarm()) {
+            prewarmKeyMaterial();
+        }
     }
 
     Context getContext() {
         return mContext.getApplicationContext();
     }
 
+    /**
+     * @return The {@link SharedPreferences} backing this cache, used to commit several entries at once.
+     */
+    SharedPreferences getSharedPreferences() {
+        return mContext.getSharedPreferences(SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return The lock held by {@link #setItem(String, TokenCacheItem)} and the other writes. Hold it
+     * to check entries and commit them through {@link #getSharedPreferences()} in one step.
+     */
+    static Object getWriteLock() {
+        return WRITE_LOCK;
+    }
+
 
     /**
      * Method that allows to mock StorageHelper class and use custom encryption in UTs.
@@ -126,7 +170,130 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         return sHelper;
     }
 
+    /**
+     * Loads the key pair from AndroidKeyStore and unwraps the secret key on a background thread,
+     * so that the first token request does not pay for it. Only one load runs per process,
+     * cache operations started before it completes wait for it instead of loading keys again.
+     */
+    void prewarmKeyMaterial() {
+        final String methodName = ":prewarmKeyMaterial";
+        final FutureTask<Void> loadTask;
+        synchronized (LOCK) {
+            if (sKeyMaterialLoadTask != null) {
+                return;
+            }
+
+            loadTask = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws GeneralSecurityException, IOException {
+                    final long startTime = Clock.getInstance().nanoTime();
+                    try {
+                        getStorageHelper().loadSecretKeyForEncryption();
+                    } finally {
+                        sKeyMaterialLoadDurationMillis = TimeUnit.NANOSECONDS.toMillis(
+                                Clock.getInstance().nanoTime() - startTime);
+                        Logger.i(TAG + methodName, "Finished loading key material. ",
+                                "Duration in milliseconds: " + sKeyMaterialLoadDurationMillis);
+                    }
+                    return null;
+                }
+            });
+            sKeyMaterialLoadTask = loadTask;
+        }
+
+        Logger.v(TAG + methodName, "Start loading key material in background.");
+        new Thread(loadTask, "adal-key-prewarm").start();
+    }
+
+    /**
+     * @return Time in milliseconds that the key material prewarm took, or -1 if it has not completed.
+     */
+    static long getKeyMaterialLoadDurationMillis() {
+        return sKeyMaterialLoadDurationMillis;
+    }
+
+    /**
+     * Waits for the prewarm started by {@link #prewarmKeyMaterial()}, if any, so that callers
+     * share its result rather than racing to unwrap the key. If the prewarm failed, the storage
+     * helper loads the key again on the calling thread.
+     */
+    private static void waitForKeyMaterial() {
+        final String methodName = ":waitForKeyMaterial";
+        final FutureTask<Void> loadTask;
+        synchronized (LOCK) {
+            loadTask = sKeyMaterialLoadTask;
+        }
+
+        if (loadTask == null || loadTask.isDone()) {
+            return;
+        }
+
+        try {
+            loadTask.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            Logger.w(TAG + methodName, "Key material prewarm failed. ", e.getCause() == null ? ""
+                    : e.getCause().getMessage(), ADALError.ENCRYPTION_FAILED);
+        }
+    }
+
+    /**
+     * @return The key version new cache entries are encrypted with.
+     */
+    static String getCurrentKeyVersion() {
+        return AuthenticationSettings.INSTANCE.getSecretKeyData() == null
+                ? StorageHelper.VERSION_ANDROID_KEY_STORE : StorageHelper.VERSION_USER_DEFINED;
+    }
+
+    /**
+     * Reads the key version of an encrypted cache entry without decrypting it. The blob is
+     * encode version length, encode version and base64 of key version+encrypted data+IV+digest,
+     * so only the first base64 characters of the payload need to be decoded.
+     *
+     * @param encryptedBlob Encrypted cache entry.
+     * @return The key version, or null if the blob is malformed.
+     */
+    static String getKeyVersion(final String encryptedBlob) {
+        if (StringExtensions.isNullOrBlank(encryptedBlob)) {
+            return null;
+        }
+
+        final int encodeVersionLength = encryptedBlob.charAt(0) - 'a';
+        final int payloadStart = 1 + encodeVersionLength;
+        if (encodeVersionLength <= 0 || encryptedBlob.length() < payloadStart + KEY_VERSION_BASE64_LENGTH) {
+            return null;
+        }
+
+        try {
+            final byte[] prefix = Base64.decode(encryptedBlob.substring(payloadStart,
+                    payloadStart + KEY_VERSION_BASE64_LENGTH), Base64.DEFAULT);
+            if (prefix.length < KEY_VERSION_BLOB_LENGTH) {
+                return null;
+            }
+
+            return new String(prefix, 0, KEY_VERSION_BLOB_LENGTH, AuthenticationConstants.ENCODING_UTF8);
+        } catch (final IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decrypts the entry with the key it was written with and encrypts it again with the current key.
+     * Unlike {@link #getItem(String)}, a failure does not remove the entry.
+     *
+     * @param encryptedBlob Encrypted cache entry.
+     * @return The entry encrypted with the current key.
+     * @throws GeneralSecurityException for key related exceptions.
+     * @throws IOException              For general IO related exceptions.
+     */
+    String reEncrypt(final String encryptedBlob) throws GeneralSecurityException, IOException {
+        waitForKeyMaterial();
+        return getStorageHelper().encrypt(getStorageHelper().decrypt(encryptedBlob));
+    }
+
     private String encrypt(String value) {
+        waitForKeyMaterial();
         try {
             return getStorageHelper().encrypt(value);
         } catch (GeneralSecurityException | IOException e) {
@@ -141,6 +308,7 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
             throw new IllegalArgumentException("key is null or blank");
         }
 
+        waitForKeyMaterial();
         try {
             return getStorageHelper().decrypt(value);
         } catch (GeneralSecurityException | IOException e) {
@@ -175,8 +343,10 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
             throw new IllegalArgumentException("key");
         }
 
-        if (mPrefs.contains(key)) {
-            mPrefs.remove(key);
+        synchronized (WRITE_LOCK) {
+            if (mPrefs.contains(key)) {
+                mPrefs.remove(key);
+            }
         }
     }
 
@@ -193,7 +363,9 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         String json = mGson.toJson(item);
         String encrypted = encrypt(json);
         if (encrypted != null) {
-            mPrefs.putString(key, encrypted);
+            synchronized (WRITE_LOCK) {
+                mPrefs.putString(key, encrypted);
+            }
         } else {
             Logger.e(TAG, "Encrypted output is null. ", "", ADALError.ENCRYPTION_FAILED);
         }
@@ -201,7 +373,9 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
 
     @Override
     public void removeAll() {
-        mPrefs.clear();
+        synchronized (WRITE_LOCK) {
+            mPrefs.clear();
+        }
     }
 
     // Extra helper methods can be implemented here for queries
@@ -335,7 +509,7 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
 
         while (results.hasNext()) {
             final TokenCacheItem tokenCacheItem = results.next();
-            if (isAboutToExpire(tokenCacheItem.getExpiresOn())) {
+            if (isAboutToExpire(tokenCacheItem.getExpiresOnMillis())) {
                 tokenItems.add(tokenCacheItem);
             }
         }
@@ -352,19 +526,13 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         }
     }
 
-    private boolean isAboutToExpire(Date expires) {
-        Date validity = getTokenValidityTime().getTime();
+    private boolean isAboutToExpire(final long expiresOnMillis) {
+        final long validity = Clock.getInstance().currentTimeMillis() + TOKEN_VALIDITY_WINDOW_MILLIS;
 
-        return expires != null && expires.before(validity);
+        return expiresOnMillis != TokenCacheItem.TIME_NOT_SET && expiresOnMillis < validity;
     }
 
-    private static final int TOKEN_VALIDITY_WINDOW = 10;
-
-    private static Calendar getTokenValidityTime() {
-        Calendar timeAhead = Calendar.getInstance();
-        timeAhead.add(Calendar.SECOND, TOKEN_VALIDITY_WINDOW);
-        return timeAhead;
-    }
+    private static final long TOKEN_VALIDITY_WINDOW_MILLIS = 10000L;
 
     @Override
     public boolean contains(String key) {
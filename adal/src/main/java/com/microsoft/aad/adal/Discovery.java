@@ -30,9 +30,7 @@ import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
 import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
 import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
 import com.microsoft.identity.common.adal.internal.net.WebRequestHandler;
-import com.microsoft.identity.common.adal.internal.util.HashMapExtensions;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
-import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectory;
 
 import org.json.JSONException;
 
@@ -50,7 +48,13 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Instance and Tenant discovery. It takes authorization endpoint and sends
@@ -75,9 +79,10 @@ class Discovery {
     private static final String AUTHORIZATION_COMMON_ENDPOINT = "/common/oauth2/authorize";
 
     /**
-     * {@link ReentrantLock} for making sure there is only one instance discovery request sent out at a time.
+     * The instance discoveries in flight keyed by authority host, concurrent validations of a host
+     * wait for the same network request while different hosts are discovered in parallel.
      */
-    private static volatile ReentrantLock sInstanceDiscoveryNetworkRequestLock;
+    private static final ConcurrentMap<String, FutureTask<Void>> IN_FLIGHT_DISCOVERIES = new ConcurrentHashMap<>();
 
     /**
      * Sync set of valid hosts to skip query to server if host was verified
@@ -86,13 +91,6 @@ class Discovery {
     private static final Set<String> AAD_WHITELISTED_HOSTS = Collections
             .synchronizedSet(new HashSet<String>());
 
-    /**
-     * Sync map of validated AD FS authorities and domains. Skips query to server
-     * if already verified
-     */
-    private static final Map<String, Set<URI>> ADFS_VALIDATED_AUTHORITIES =
-            Collections.synchronizedMap(new HashMap<String, Set<URI>>());
-
     /**
      * Discovery query will go to the prod only for now.
      */
@@ -110,7 +108,7 @@ class Discovery {
     public Discovery(final Context context) {
         initValidList();
         mContext = context;
-        mWebrequestHandler = new WebRequestHandler();
+        mWebrequestHandler = AuthenticationSettings.INSTANCE.getWebRequestHandler();
     }
 
     void validateAuthorityADFS(final URL authorizationEndpoint, final String domain)
@@ -124,28 +122,40 @@ class Discovery {
     public void validateAuthority(final URL authorizationEndpoint) throws AuthenticationException {
         verifyAuthorityValidInstance(authorizationEndpoint);
 
+        AuthorityValidationMetadataCache.loadPersistedMetadata(mContext);
         if (AuthorityValidationMetadataCache.containsAuthorityHost(authorizationEndpoint)) {
             return;
         }
 
-        final String authorityHost = authorizationEndpoint.getHost().toLowerCase(Locale.US);
-        final String trustedHost;
-        if (AAD_WHITELISTED_HOSTS.contains(authorizationEndpoint.getHost().toLowerCase(Locale.US))) {
-            trustedHost = authorityHost;
-        } else {
-            trustedHost = TRUSTED_QUERY_INSTANCE;
-        }
+        performInstanceDiscovery(authorizationEndpoint, getTrustedHost(authorizationEndpoint), false);
+    }
 
+    /**
+     * Queries the instance discovery again for a host whose persisted metadata is stale. The stale
+     * metadata stays in use if the query fails.
+     */
+    void refreshInstanceDiscoveryMetadata(final String host) {
+        final String methodName = ":refreshInstanceDiscoveryMetadata";
         try {
-            sInstanceDiscoveryNetworkRequestLock = getLock();
-            sInstanceDiscoveryNetworkRequestLock.lock();
-            performInstanceDiscovery(authorizationEndpoint, trustedHost);
-        } finally {
-            sInstanceDiscoveryNetworkRequestLock.unlock();
+            final URL authorityUrl = new URL("https", host, "/common");
+            performInstanceDiscovery(authorityUrl, getTrustedHost(authorityUrl), true);
+            Logger.v(TAG + methodName, "Instance discovery metadata revalidated. ", "Host: " + host, null);
+        } catch (final MalformedURLException | AuthenticationException e) {
+            Logger.w(TAG + methodName, "Fail to revalidate the instance discovery metadata. ",
+                    "Host: " + host + " " + e.getMessage(), ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE);
         }
     }
 
-    private static void validateADFS(final URL authorizationEndpoint, final String domain)
+    private static String getTrustedHost(final URL authorityUrl) {
+        final String authorityHost = authorityUrl.getHost().toLowerCase(Locale.US);
+        if (AAD_WHITELISTED_HOSTS.contains(authorityHost)) {
+            return authorityHost;
+        }
+
+        return TRUSTED_QUERY_INSTANCE;
+    }
+
+    private void validateADFS(final URL authorizationEndpoint, final String domain)
             throws AuthenticationException {
         // Maps & Sets of URLs perform domain name resolution for equals() & hashCode()
         // To prevent this from happening, store/consult the cache using the URI value
@@ -160,8 +170,7 @@ class Discovery {
         }
 
         // First, consult the cache
-        if (ADFS_VALIDATED_AUTHORITIES.get(domain) != null
-                && ADFS_VALIDATED_AUTHORITIES.get(domain).contains(authorityUri)) {
+        if (ADFSTrustCache.isTrusted(mContext, domain, authorityUri)) {
             // Trust has already been established, do not requery
             return;
         }
@@ -185,14 +194,7 @@ class Discovery {
         }
 
         // Trust established, add it to the cache
-
-        // If this authorization endpoint doesn't already have a Set, create it
-        if (ADFS_VALIDATED_AUTHORITIES.get(domain) == null) {
-            ADFS_VALIDATED_AUTHORITIES.put(domain, new HashSet<URI>());
-        }
-
-        // Add the entry
-        ADFS_VALIDATED_AUTHORITIES.get(domain).add(authorityUri);
+        ADFSTrustCache.addTrusted(mContext, domain, authorityUri);
     }
 
     /**
@@ -225,13 +227,88 @@ class Discovery {
         }
     }
 
-    private void performInstanceDiscovery(final URL authorityUrl, final String trustedHost) throws AuthenticationException {
-        // Look up authority cache again. since we only allow one authority validation request goes out at one time, in case the
-        // map has already been filled in.
-        final String methodName = ":performInstanceDiscovery";
-        if (AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
-            return;
+    /**
+     * Runs the instance discovery of the authority host, or waits for the one already in flight for
+     * the host and shares its outcome.
+     *
+     * @param isRefresh True to query even if the host is cached, to revalidate stale metadata.
+     */
+    private void performInstanceDiscovery(final URL authorityUrl, final String trustedHost, final boolean isRefresh)
+            throws AuthenticationException {
+        final String authorityHost = authorityUrl.getHost().toLowerCase(Locale.US);
+        while (true) {
+            final FutureTask<Void> discovery = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws AuthenticationException {
+                    // Look up authority cache again, a discovery of the host may have completed since the caller checked.
+                    if (isRefresh || !AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
+                        discoverInstance(authorityUrl, trustedHost);
+                    }
+                    return null;
+                }
+            });
+
+            final FutureTask<Void> inFlightDiscovery = IN_FLIGHT_DISCOVERIES.putIfAbsent(authorityHost, discovery);
+            if (inFlightDiscovery == null) {
+                try {
+                    discovery.run();
+                } finally {
+                    IN_FLIGHT_DISCOVERIES.remove(authorityHost, discovery);
+                }
+                awaitInstanceDiscovery(discovery);
+                return;
+            }
+
+            Logger.v(TAG, "Waiting for the instance discovery in flight. ", "Host: " + authorityHost, null);
+            try {
+                awaitInstanceDiscovery(inFlightDiscovery);
+                return;
+            } catch (final AuthenticationException e) {
+                // Only a discovery that ran out of the time of the request which started it is retried.
+                // If this request ran out of time while waiting, the discovery is still in flight.
+                if (e.getCode() != ADALError.REQUEST_DEADLINE_EXCEEDED || !inFlightDiscovery.isDone()) {
+                    throw e;
+                }
+                IN_FLIGHT_DISCOVERIES.remove(authorityHost, inFlightDiscovery);
+                RequestDeadline.throwIfCurrentExpired("validating the authority");
+                if (!isRefresh && AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the instance discovery within the deadline of the current request.
+     */
+    private static void awaitInstanceDiscovery(final FutureTask<Void> discovery) throws AuthenticationException {
+        final RequestDeadline deadline = RequestDeadline.getCurrent();
+        try {
+            if (deadline == null) {
+                discovery.get();
+            } else {
+                discovery.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof AuthenticationException) {
+                throw (AuthenticationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AuthenticationException(ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE, cause.getMessage(), cause);
+        } catch (final TimeoutException e) {
+            throw deadline.newExpiredException("validating the authority");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationException(ADALError.IO_EXCEPTION, "Interrupted while validating the authority", e);
         }
+    }
+
+    private void discoverInstance(final URL authorityUrl, final String trustedHost) throws AuthenticationException {
+        final String methodName = ":discoverInstance";
 
         //Check if the network connection available
         HttpWebRequest.throwIfNetworkNotAvailable(mContext);
@@ -242,15 +319,11 @@ class Discovery {
         final boolean result;
         try {
             queryUrl = buildQueryString(trustedHost, getAuthorizationCommonEndpoint(authorityUrl));
-            final Map<String, String> discoveryResponse = sendRequest(queryUrl);
+            RequestDeadline.throwIfCurrentExpired("validating the authority");
+            final InstanceDiscoveryResponse discoveryResponse = sendRequest(queryUrl);
 
-            // Set the Cloud instance discovery metadata on the AAD IdentityProvider
-            AzureActiveDirectory.initializeCloudMetadata(
-                    authorityUrl.getHost().toLowerCase(Locale.US),
-                    discoveryResponse
-            );
-
-            AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(authorityUrl, discoveryResponse);
+            // Caches the metadata and sets it on the AAD IdentityProvider
+            AuthorityValidationMetadataCache.processInstanceDiscoveryResponse(authorityUrl, discoveryResponse);
             if (!AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
                 ArrayList<String> aliases = new ArrayList<String>();
                 aliases.add(authorityUrl.getHost());
@@ -258,10 +331,14 @@ class Discovery {
                         new InstanceDiscoveryMetadata(authorityUrl.getHost(), authorityUrl.getHost(), aliases));
             }
             result = AuthorityValidationMetadataCache.isAuthorityValidated(authorityUrl);
+            if (result) {
+                AuthorityValidationMetadataCache.persistMetadata(mContext);
+            }
         } catch (JSONException e) {
             Logger.e(TAG + methodName, "Error when validating authority. ", "", ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE, e);
             throw new AuthenticationException(ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE, e.getMessage(), e);
         } catch (SocketTimeoutException e){
+            RequestDeadline.throwIfCurrentExpired("validating the authority");
             Logger.e(TAG + methodName, "Error when validating authority. ", "", ADALError.DEVICE_CONNECTION_IS_NOT_AVAILABLE, e);
             throw new AuthenticationException(ADALError.DEVICE_CONNECTION_IS_NOT_AVAILABLE, e.getMessage(), e);
         } catch (IOException e){
@@ -275,7 +352,30 @@ class Discovery {
         }
     }
 
-    private Map<String, String> sendRequest(final URL queryUrl) throws IOException, JSONException, AuthenticationException {
+    /**
+     * @return The discovery query on an alias of its host known from the cached metadata, for the
+     * hedged request, null if no alias is known.
+     */
+    private static URL getHedgeUrl(final URL queryUrl) {
+        final InstanceDiscoveryMetadata metadata = AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(queryUrl);
+        if (metadata == null || !metadata.isValidated() || metadata.getAliases() == null) {
+            return null;
+        }
+
+        for (final String alias : metadata.getAliases()) {
+            if (!alias.equalsIgnoreCase(queryUrl.getHost())) {
+                try {
+                    return new URL(queryUrl.getProtocol(), alias, queryUrl.getPort(), queryUrl.getFile());
+                } catch (final MalformedURLException e) {
+                    Logger.v(TAG, "Alias is not a valid host: " + alias);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private InstanceDiscoveryResponse sendRequest(final URL queryUrl) throws IOException, JSONException, AuthenticationException {
 
         Logger.v(TAG, "Sending discovery request to query url. ", "queryUrl: " + queryUrl, null);
         final Map<String, String> headers = new HashMap<>();
@@ -287,18 +387,47 @@ class Discovery {
             headers.put(AuthenticationConstants.AAD.RETURN_CLIENT_REQUEST_ID, "true");
         }
 
+        // Fail fast while the discovery host is failing.
+        final String host = queryUrl.getHost();
+        final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+        if (!circuitBreaker.allowRequest(host)) {
+            Logger.w(TAG, "Circuit breaker is open, the discovery request is not sent. ", "Host: " + host,
+                    ADALError.SERVER_CIRCUIT_BREAKER_OPEN);
+            throw new AuthenticationException(ADALError.SERVER_CIRCUIT_BREAKER_OPEN,
+                    "Circuit breaker is open for " + host + ", the discovery request is not sent.");
+        }
+
         final HttpWebResponse webResponse;
         try {
             ClientMetrics.INSTANCE.beginClientMetricsRecord(queryUrl, mCorrelationId, headers);
-            webResponse = mWebrequestHandler.sendGet(queryUrl, headers);
-            ClientMetrics.INSTANCE.setLastError(null);
+            final RequestHedger.Result result;
+            try {
+                result = RequestHedger.getInstance().sendGet(mWebrequestHandler, queryUrl,
+                        getHedgeUrl(queryUrl), headers);
+            } catch (final IOException e) {
+                circuitBreaker.onFailure(host);
+                throw e;
+            }
+
+            // The hedged request may have been answered by an alias of the host.
+            final String respondingHost = result.getUrl().getHost();
+            webResponse = result.getResponse();
+            if (result.getStats() != null) {
+                Logger.v(TAG, "Discovery response received. ", "Host: " + respondingHost
+                        + " Response bytes: " + result.getStats().getCompressedBytes(), null);
+            }
+            if (CircuitBreaker.isFailureStatusCode(webResponse.getStatusCode())) {
+                circuitBreaker.onFailure(respondingHost);
+            } else {
+                circuitBreaker.onSuccess(respondingHost);
+            }
+            ClientMetrics.INSTANCE.setLastError(mCorrelationId, null);
 
             // parse discovery response to find tenant info
-            final Map<String, String> discoveryResponse = parseResponse(webResponse);
-            if (discoveryResponse.containsKey(AuthenticationConstants.OAuth2.ERROR_CODES)) {
-                final String errorCodes = discoveryResponse.get(
-                        AuthenticationConstants.OAuth2.ERROR_CODES);
-                ClientMetrics.INSTANCE.setLastError(errorCodes);
+            final InstanceDiscoveryResponse discoveryResponse = parseResponse(webResponse);
+            if (discoveryResponse.getErrorCodes() != null) {
+                final String errorCodes = discoveryResponse.getErrorCodes();
+                ClientMetrics.INSTANCE.setLastError(mCorrelationId, errorCodes);
                 throw new AuthenticationException(
                         ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE,
                         "Fail to valid authority with errors: " + errorCodes);
@@ -329,11 +458,15 @@ class Discovery {
      * will have tenant discovery endpoint.
      *
      * @param webResponse HttpWebResponse from which Json has to be extracted
-     * @return true if tenant discovery endpoint is reported. false otherwise.
+     * @return The discovery response, without tenant discovery endpoint if the body is empty.
      * @throws JSONException
      */
-    private Map<String, String> parseResponse(HttpWebResponse webResponse) throws JSONException {
-        return HashMapExtensions.getJsonResponse(webResponse);
+    private InstanceDiscoveryResponse parseResponse(HttpWebResponse webResponse) throws JSONException {
+        if (webResponse == null || StringExtensions.isNullOrBlank(webResponse.getBody())) {
+            return new InstanceDiscoveryResponse(false, null, null);
+        }
+
+        return JsonResponseParser.parseInstanceDiscoveryResponse(webResponse.getBody());
     }
 
     /**
@@ -370,21 +503,6 @@ class Discovery {
         return new URL(builder.build().toString());
     }
 
-    /**
-     * @return {@link ReentrantLock} for locking the network request queue.
-     */
-    private static ReentrantLock getLock() {
-        if (sInstanceDiscoveryNetworkRequestLock == null) {
-            synchronized (Discovery.class) {
-                if (sInstanceDiscoveryNetworkRequestLock == null) {
-                    sInstanceDiscoveryNetworkRequestLock = new ReentrantLock();
-                }
-            }
-        }
-
-        return sInstanceDiscoveryNetworkRequestLock;
-    }
-
     static Set<String> getValidHosts() {
         return AAD_WHITELISTED_HOSTS;
     }
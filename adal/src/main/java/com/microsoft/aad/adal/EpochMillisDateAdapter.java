@@ -0,0 +1,67 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+import java.lang.reflect.Type;
+import java.util.Date;
+
+/**
+ * Gson adapter for time fields stored as epoch milliseconds. They are written in the same format
+ * as {@link Date} fields through {@link DateTimeAdapter}, so that the serialized form of
+ * {@link TokenCacheItem} does not change. {@link TokenCacheItem#TIME_NOT_SET} is written as null,
+ * which leaves the field out.
+ */
+final class EpochMillisDateAdapter implements JsonDeserializer<Long>, JsonSerializer<Long> {
+
+    private static final DateTimeAdapter DATE_TIME_ADAPTER = new DateTimeAdapter();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long deserialize(JsonElement json, Type typeOfT,
+                            JsonDeserializationContext context) throws JsonParseException {
+        return DATE_TIME_ADAPTER.deserialize(json, Date.class, context).getTime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonElement serialize(Long src, Type typeOfSrc, JsonSerializationContext context) {
+        if (src == null || src == TokenCacheItem.TIME_NOT_SET) {
+            return JsonNull.INSTANCE;
+        }
+
+        return DATE_TIME_ADAPTER.serialize(new Date(src), Date.class, context);
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Builds an application/x-www-form-urlencoded request body, percent-encoding the parameters straight
+ * into a byte buffer. The encoding is the one of {@link java.net.URLEncoder} with UTF-8: letters,
+ * digits and {@code .-*_} are kept, space becomes {@code +} and every other byte is {@code %XX}.
+ * <p>
+ * The body is encoded once per token request and the same bytes are sent by the retries and the
+ * PKeyAuth challenge response.
+ */
+final class FormBodyEncoder {
+
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(Charset.forName("US-ASCII"));
+
+    /**
+     * What {@link String#getBytes(Charset)} writes for an unpaired surrogate.
+     */
+    private static final char REPLACEMENT_CHAR = '?';
+
+    private static final int LOW_SURROGATE_BITS = 10;
+
+    private static final int SURROGATE_OFFSET = 0x10000;
+
+    private static final int MAX_ONE_BYTE = 0x7F;
+
+    private static final int MAX_TWO_BYTES = 0x7FF;
+
+    private byte[] mBuffer = new byte[DEFAULT_CAPACITY];
+
+    private int mSize;
+
+    private byte[] mBody;
+
+    /**
+     * Appends a parameter to the body.
+     *
+     * @param name  the parameter name.
+     * @param value the parameter value, encoded as an empty string if null.
+     * @return this encoder.
+     */
+    FormBodyEncoder add(final String name, final String value) {
+        if (mSize > 0) {
+            append('&');
+        }
+
+        encode(name);
+        append('=');
+        if (value != null) {
+            encode(value);
+        }
+
+        mBody = null;
+        return this;
+    }
+
+    /**
+     * @return The encoded body. The array is created once and shared by the callers, it must not be
+     * modified.
+     */
+    byte[] toByteArray() {
+        if (mBody == null) {
+            mBody = Arrays.copyOf(mBuffer, mSize);
+        }
+
+        return mBody;
+    }
+
+    /**
+     * @return The encoded body as a string, for logs and tests.
+     */
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mSize, Charset.forName("US-ASCII"));
+    }
+
+    private void encode(final String text) {
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (isUnreserved(c)) {
+                append(c);
+            } else if (c == ' ') {
+                append('+');
+            } else if (c <= MAX_ONE_BYTE) {
+                appendEscaped(c);
+            } else if (c <= MAX_TWO_BYTES) {
+                appendEscaped(0xC0 | c >> 6);
+                appendEscaped(0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = ((c - Character.MIN_HIGH_SURROGATE) << LOW_SURROGATE_BITS)
+                        + (text.charAt(++i) - Character.MIN_LOW_SURROGATE) + SURROGATE_OFFSET;
+                appendEscaped(0xF0 | codePoint >> 18);
+                appendEscaped(0x80 | codePoint >> 12 & 0x3F);
+                appendEscaped(0x80 | codePoint >> 6 & 0x3F);
+                appendEscaped(0x80 | codePoint & 0x3F);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                appendEscaped(REPLACEMENT_CHAR);
+            } else {
+                appendEscaped(0xE0 | c >> 12);
+                appendEscaped(0x80 | c >> 6 & 0x3F);
+                appendEscaped(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private static boolean isUnreserved(final char c) {
+        return c >= 'a' && c <= 'z'
+                || c >= 'A' && c <= 'Z'
+                || c >= '0' && c <= '9'
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private void appendEscaped(final int octet) {
+        ensureCapacity(3);
+        mBuffer[mSize++] = '%';
+        mBuffer[mSize++] = HEX_DIGITS[octet >> 4 & 0xF];
+        mBuffer[mSize++] = HEX_DIGITS[octet & 0xF];
+    }
+
+    private void append(final char c) {
+        ensureCapacity(1);
+        mBuffer[mSize++] = (byte) c;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (mSize + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + extra));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+/**
+ * Transport details of the last request {@link HttpWebRequest} sent on the current thread, read
+ * back by the callers that record {@link HttpEvent}s. {@link com.microsoft.identity.common.adal.internal.net.HttpWebResponse}
+ * only carries the status, headers and body.
+ */
+final class HttpResponseStats {
+
+    static final long SIZE_UNKNOWN = -1;
+
+    private static final ThreadLocal<HttpResponseStats> LAST_RESPONSE_STATS = new ThreadLocal<>();
+
+    private long mCompressedBytes = SIZE_UNKNOWN;
+
+    private long mUncompressedBytes = SIZE_UNKNOWN;
+
+    private HttpResponseStats() {
+        // Use start().
+    }
+
+    /**
+     * Starts the stats of a new request on the current thread.
+     *
+     * @return The stats of the request, to be completed once the response is read.
+     */
+    static HttpResponseStats start() {
+        final HttpResponseStats stats = new HttpResponseStats();
+        LAST_RESPONSE_STATS.set(stats);
+        return stats;
+    }
+
+    /**
+     * @return The stats of the last request sent on the current thread, null if there was none
+     * since the last call.
+     */
+    static HttpResponseStats takeLast() {
+        final HttpResponseStats stats = LAST_RESPONSE_STATS.get();
+        LAST_RESPONSE_STATS.remove();
+        return stats;
+    }
+
+    void setResponseSize(final long compressedBytes, final long uncompressedBytes) {
+        mCompressedBytes = compressedBytes;
+        mUncompressedBytes = uncompressedBytes;
+    }
+
+    /**
+     * @return Number of body bytes received, before decompression. {@link #SIZE_UNKNOWN} if the
+     * body was not read.
+     */
+    long getCompressedBytes() {
+        return mCompressedBytes;
+    }
+
+    /**
+     * @return Number of body bytes after decompression. {@link #SIZE_UNKNOWN} if the body was not
+     * read.
+     */
+    long getUncompressedBytes() {
+        return mUncompressedBytes;
+    }
+}
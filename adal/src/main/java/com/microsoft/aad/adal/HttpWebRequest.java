@@ -24,7 +24,6 @@
 package com.microsoft.aad.adal;
 
 import android.content.Context;
-import android.os.Build;
 import android.os.Debug;
 import android.os.Process;
 
@@ -32,20 +31,26 @@ import com.microsoft.identity.common.adal.internal.net.DefaultConnectionService;
 import com.microsoft.identity.common.adal.internal.net.HttpUrlConnectionFactory;
 import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Webrequest are called in background thread from API level. HttpWebRequest
@@ -59,6 +64,17 @@ class HttpWebRequest {
     private static final int DEBUG_SIMULATE_DELAY = 0;
     private static final int CONNECT_TIME_OUT = AuthenticationSettings.INSTANCE.getConnectTimeOut();
     private static final int READ_TIME_OUT = AuthenticationSettings.INSTANCE.getReadTimeOut();
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ACCEPT_ENCODING_GZIP_DEFLATE = "gzip, deflate";
+    private static final String CONTENT_ENCODING_GZIP = "gzip";
+    private static final String CONTENT_ENCODING_DEFLATE = "deflate";
+    private static final int ZLIB_HEADER_CHECK = 31;
+    private static final int ZLIB_COMPRESSION_METHOD_MASK = 0x0F;
+    private static final int ZLIB_COMPRESSION_METHOD_DEFLATE = 8;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int BITS_PER_BYTE = 8;
     private final String mRequestMethod;
     private final URL mUrl;
     private final byte[] mRequestContent;
@@ -99,14 +115,23 @@ class HttpWebRequest {
                 && !mUrl.getProtocol().equalsIgnoreCase("https")) {
             throw new IllegalArgumentException("requestURL");
         }
+        if (RequestDeadline.isCurrentExpired()) {
+            throw new SocketTimeoutException("Request timeout expired before connecting to " + mUrl.getHost());
+        }
         HttpURLConnection.setFollowRedirects(true);
         final HttpURLConnection connection = HttpUrlConnectionFactory.createHttpUrlConnection(mUrl);
-        connection.setConnectTimeout(CONNECT_TIME_OUT);
-        // To prevent EOF exception.
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.HONEYCOMB_MR2) {
+        // Socket timeouts never outlast the time left to the request that sends them.
+        connection.setConnectTimeout(RequestDeadline.capCurrentTimeout(CONNECT_TIME_OUT));
+        // Connections are kept alive by default so that the metadata requests of one flow share the
+        // TLS session, the platform pool decides how long they stay idle. A POST is not safe to
+        // resend if its connection turns out stale, so it is sent with "Connection: close".
+        if (!AuthenticationSettings.INSTANCE.getKeepAliveEnabled() || !REQUEST_METHOD_GET.equals(mRequestMethod)) {
             connection.setRequestProperty("Connection", "close");
         }
 
+        // Responses are decompressed by decodeContent while they are read.
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING_GZIP_DEFLATE);
+
         // Apply the request headers
         final Set<Map.Entry<String, String>> headerEntries = mRequestHeaders.entrySet();
         for (final Map.Entry<String, String> entry : headerEntries) {
@@ -114,7 +139,7 @@ class HttpWebRequest {
             connection.setRequestProperty(entry.getKey(), entry.getValue());
         }
 
-        connection.setReadTimeout(READ_TIME_OUT);
+        connection.setReadTimeout(RequestDeadline.capCurrentTimeout(READ_TIME_OUT));
         connection.setInstanceFollowRedirects(true);
         connection.setUseCaches(false);
         connection.setRequestMethod(mRequestMethod);
@@ -130,7 +155,28 @@ class HttpWebRequest {
      */
     public HttpWebResponse send() throws IOException {
         final String methodName = ":send";
+        if (mUrl == null) {
+            throw new IllegalArgumentException("requestURL");
+        }
+
+        try {
+            return sendOnce();
+        } catch (final EOFException e) {
+            // Only a GET is safe to send again, the server may have processed a POST before closing.
+            if (!AuthenticationSettings.INSTANCE.getKeepAliveEnabled() || !REQUEST_METHOD_GET.equals(mRequestMethod)) {
+                throw e;
+            }
+
+            // The server likely closed the idle connection the platform pool picked, retry once.
+            Logger.v(TAG + methodName, "Connection was closed by the server, retrying the request.");
+            return sendOnce();
+        }
+    }
+
+    private HttpWebResponse sendOnce() throws IOException {
+        final String methodName = ":sendOnce";
         Logger.v(TAG + methodName, "HttpWebRequest send. ", " Thread: " + Process.myTid(), null);
+        final HttpResponseStats stats = HttpResponseStats.start();
         final HttpURLConnection connection = setupConnection();
         final HttpWebResponse response;
         InputStream responseStream = null;
@@ -149,7 +195,12 @@ class HttpWebRequest {
             // GET request should read status after getInputStream to make
             // this work for different SDKs
             final int statusCode = connection.getResponseCode();
-            final String responseBody = convertStreamToString(responseStream);
+            final CountingInputStream compressedStream = new CountingInputStream(responseStream);
+            final CountingInputStream uncompressedStream = new CountingInputStream(
+                    decodeContent(compressedStream, connection.getContentEncoding()));
+            responseStream = uncompressedStream;
+            final String responseBody = convertStreamToString(uncompressedStream);
+            stats.setResponseSize(compressedStream.getCount(), uncompressedStream.getCount());
 
             // It will only run in debugger and set from outside for testing
             if (Debug.isDebuggerConnected() && DEBUG_SIMULATE_DELAY > 0) {
@@ -204,24 +255,22 @@ class HttpWebRequest {
     }
 
     /**
-     * Convert stream into the string.
+     * Convert stream into the string. The response is decoded as UTF-8, the charset of the JSON
+     * responses of the authority, through a fixed size buffer.
      *
      * @param inputStream {@link InputStream} to be converted to be a string.
      * @return The converted string
      * @throws IOException Thrown when failing to access inputStream stream.
      */
-    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private static String convertStreamToString(InputStream inputStream) throws IOException {
-        BufferedReader reader = null;
+        Reader reader = null;
         try {
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (sb.length() > 0) {
-                    sb.append('\n');
-                }
-                sb.append(line);
+            reader = new InputStreamReader(inputStream, UTF8);
+            final StringBuilder sb = new StringBuilder();
+            final char[] buffer = new char[READ_BUFFER_SIZE];
+            int charsRead;
+            while ((charsRead = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, charsRead);
             }
 
             return sb.toString();
@@ -232,6 +281,60 @@ class HttpWebRequest {
         }
     }
 
+    /**
+     * Wraps the response stream to decompress it while it is read, according to the
+     * Content-Encoding of the response.
+     *
+     * @param inputStream     The response stream as received.
+     * @param contentEncoding The Content-Encoding header of the response, may be null.
+     * @return The stream of the decompressed response.
+     * @throws IOException Thrown when failing to read the compression header.
+     */
+    private static InputStream decodeContent(final InputStream inputStream, final String contentEncoding)
+            throws IOException {
+        if (contentEncoding == null) {
+            return inputStream;
+        }
+
+        final String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (!CONTENT_ENCODING_GZIP.equals(encoding) && !CONTENT_ENCODING_DEFLATE.equals(encoding)) {
+            return inputStream;
+        }
+
+        // Read ahead the first two bytes, empty bodies (like 204 or 304) carry no compression header.
+        final PushbackInputStream pushbackStream = new PushbackInputStream(inputStream, 2);
+        final int firstByte = pushbackStream.read();
+        if (firstByte == -1) {
+            return pushbackStream;
+        }
+
+        final int secondByte = pushbackStream.read();
+        if (secondByte != -1) {
+            pushbackStream.unread(secondByte);
+        }
+        pushbackStream.unread(firstByte);
+
+        if (CONTENT_ENCODING_GZIP.equals(encoding)) {
+            return new GZIPInputStream(pushbackStream, READ_BUFFER_SIZE);
+        }
+
+        // "deflate" is meant to be zlib wrapped, but some servers send raw deflate data.
+        final boolean isZlibWrapped = secondByte != -1
+                && (firstByte & ZLIB_COMPRESSION_METHOD_MASK) == ZLIB_COMPRESSION_METHOD_DEFLATE
+                && ((firstByte << BITS_PER_BYTE) | (secondByte & BYTE_MASK)) % ZLIB_HEADER_CHECK == 0;
+        return new InflaterInputStream(pushbackStream, new Inflater(!isZlibWrapped), READ_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // The inflater is not the default one of the stream, release it explicitly.
+                    inf.end();
+                }
+            }
+        };
+    }
+
     private static void setRequestBody(HttpURLConnection connection, byte[] contentRequest, String requestContentType) throws IOException {
         if (null != contentRequest) {
             connection.setDoOutput(true);
@@ -269,4 +372,46 @@ class HttpWebRequest {
             }
         }
     }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            if (result != -1) {
+                mCount++;
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int result = super.read(buffer, offset, length);
+            if (result != -1) {
+                mCount += result;
+            }
+
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
 }
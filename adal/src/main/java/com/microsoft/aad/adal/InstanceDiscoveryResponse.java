@@ -0,0 +1,60 @@
+//  Copyright (c) Microsoft Corporation.
+//  All rights reserved.
+//
+//  This code is licensed under the MIT License.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy
+//  of this software and associated documentation files(the "Software"), to deal
+//  in the Software without restriction, including without limitation the rights
+//  to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+//  copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions :
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//  THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.List;
+
+/**
+ * Hold the members of an instance discovery response which are used to validate the authority.
+ */
+final class InstanceDiscoveryResponse {
+    private final boolean mIsTenantDiscoveryEndpointReturned;
+    private final String mErrorCodes;
+    private final List<InstanceDiscoveryMetadata> mMetadata;
+
+    /**
+     * Constructor for {@link InstanceDiscoveryResponse}.
+     * @param isTenantDiscoveryEndpointReturned True if the response has a tenant discovery endpoint.
+     * @param errorCodes The JSON text of the returned error codes, null if none is returned.
+     * @param metadata The returned metadata entries, null if no metadata is returned.
+     */
+    InstanceDiscoveryResponse(final boolean isTenantDiscoveryEndpointReturned, final String errorCodes,
+                              final List<InstanceDiscoveryMetadata> metadata) {
+        mIsTenantDiscoveryEndpointReturned = isTenantDiscoveryEndpointReturned;
+        mErrorCodes = errorCodes;
+        mMetadata = metadata;
+    }
+
+    boolean isTenantDiscoveryEndpointReturned() {
+        return mIsTenantDiscoveryEndpointReturned;
+    }
+
+    String getErrorCodes() {
+        return mErrorCodes;
+    }
+
+    List<InstanceDiscoveryMetadata> getMetadata() {
+        return mMetadata;
+    }
+}
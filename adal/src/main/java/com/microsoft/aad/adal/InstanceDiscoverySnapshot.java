@@ -0,0 +1,88 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import org.json.JSONException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bundled snapshot of the instance discovery metadata of the known clouds, in the format of the
+ * metadata returned by the instance discovery. It lets the first request of a process skip the
+ * instance discovery, the snapshot is refreshed in the background.
+ */
+final class InstanceDiscoverySnapshot {
+    private static final String TAG = InstanceDiscoverySnapshot.class.getSimpleName();
+
+    /**
+     * Version of the snapshot, to be increased whenever the metadata below is updated.
+     */
+    static final int VERSION = 1;
+
+    private static final String METADATA = "["
+            + "{"
+            + "\"preferred_network\": \"login.microsoftonline.com\","
+            + "\"preferred_cache\": \"login.windows.net\","
+            + "\"aliases\": [\"login.microsoftonline.com\", \"login.windows.net\", \"login.microsoft.com\", \"sts.windows.net\"]"
+            + "},"
+            + "{"
+            + "\"preferred_network\": \"login.partner.microsoftonline.cn\","
+            + "\"preferred_cache\": \"login.partner.microsoftonline.cn\","
+            + "\"aliases\": [\"login.partner.microsoftonline.cn\", \"login.chinacloudapi.cn\"]"
+            + "},"
+            + "{"
+            + "\"preferred_network\": \"login.microsoftonline.de\","
+            + "\"preferred_cache\": \"login.microsoftonline.de\","
+            + "\"aliases\": [\"login.microsoftonline.de\"]"
+            + "},"
+            + "{"
+            + "\"preferred_network\": \"login.microsoftonline.us\","
+            + "\"preferred_cache\": \"login.microsoftonline.us\","
+            + "\"aliases\": [\"login.microsoftonline.us\", \"login.usgovcloudapi.net\"]"
+            + "},"
+            + "{"
+            + "\"preferred_network\": \"login-us.microsoftonline.com\","
+            + "\"preferred_cache\": \"login-us.microsoftonline.com\","
+            + "\"aliases\": [\"login-us.microsoftonline.com\"]"
+            + "}"
+            + "]";
+
+    private InstanceDiscoverySnapshot() {
+        // Utility class, no public constructor
+    }
+
+    /**
+     * @return The metadata of the known clouds, one entry per cloud.
+     */
+    static List<InstanceDiscoveryMetadata> getMetadata() {
+        try {
+            return JsonResponseParser.parseInstanceDiscoveryMetadata(METADATA);
+        } catch (final JSONException e) {
+            Logger.e(TAG + ":getMetadata", "Bundled instance discovery snapshot cannot be parsed. ", "",
+                    ADALError.JSON_PARSE_ERROR, e);
+            return Collections.emptyList();
+        }
+    }
+}
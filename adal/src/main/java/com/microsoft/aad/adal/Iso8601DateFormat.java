@@ -0,0 +1,184 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.Date;
+
+/**
+ * Thread-safe codec for the fixed ISO-8601 format "yyyy-MM-dd'T'HH:mm:ss'Z'" in UTC, which is the
+ * format {@link DateTimeAdapter} serializes dates with. Parsing and formatting are done with plain
+ * arithmetic, so no {@link java.text.DateFormat} or {@link java.util.Calendar} is involved and no
+ * lock is needed.
+ */
+final class Iso8601DateFormat {
+
+    private static final int LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final int SECONDS_PER_HOUR = 3600;
+    private static final int SECONDS_PER_MINUTE = 60;
+
+    /**
+     * {@link java.util.GregorianCalendar} switches to the Julian calendar before 1582, older dates
+     * are left to {@link java.text.SimpleDateFormat}.
+     */
+    private static final int MIN_YEAR = 1583;
+    private static final int MAX_YEAR = 9999;
+    private static final int MONTHS_PER_YEAR = 12;
+    private static final int MAX_HOUR = 23;
+    private static final int MAX_MINUTE_OR_SECOND = 59;
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private Iso8601DateFormat() {
+        // Utility class.
+    }
+
+    /**
+     * Parses a date in the fixed ISO-8601 format.
+     *
+     * @param value The string to parse.
+     * @return The parsed {@link Date}, or null if the value is not in the fixed ISO-8601 format
+     * or its year is not supported.
+     */
+    static Date parse(final String value) {
+        if (value == null || value.length() != LENGTH
+                || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || value.charAt(16) != ':' || value.charAt(19) != 'Z') {
+            return null;
+        }
+
+        final int year = readDigits(value, 0, 4);
+        final int month = readDigits(value, 5, 2);
+        final int day = readDigits(value, 8, 2);
+        final int hour = readDigits(value, 11, 2);
+        final int minute = readDigits(value, 14, 2);
+        final int second = readDigits(value, 17, 2);
+        if (year < MIN_YEAR || month < 1 || month > MONTHS_PER_YEAR || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > MAX_HOUR || minute < 0 || minute > MAX_MINUTE_OR_SECOND
+                || second < 0 || second > MAX_MINUTE_OR_SECOND) {
+            return null;
+        }
+
+        final long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * SECONDS_PER_HOUR + minute * SECONDS_PER_MINUTE + second;
+        return new Date(seconds * MILLIS_PER_SECOND);
+    }
+
+    /**
+     * Formats a date in the fixed ISO-8601 format. Milliseconds are dropped.
+     *
+     * @param date The {@link Date} to format.
+     * @return The formatted string, or null if the year is not supported.
+     */
+    static String format(final Date date) {
+        final long millis = date.getTime();
+        long seconds = millis / MILLIS_PER_SECOND;
+        if (millis % MILLIS_PER_SECOND < 0) {
+            seconds--;
+        }
+
+        long days = seconds / SECONDS_PER_DAY;
+        int secondOfDay = (int) (seconds % SECONDS_PER_DAY);
+        if (secondOfDay < 0) {
+            secondOfDay += SECONDS_PER_DAY;
+            days--;
+        }
+
+        // Days to civil date, see http://howardhinnant.github.io/date_algorithms.html
+        final long shifted = days + 719468;
+        final long era = (shifted >= 0 ? shifted : shifted - 146096) / 146097;
+        final int dayOfEra = (int) (shifted - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            return null;
+        }
+
+        final char[] chars = new char[LENGTH];
+        writeDigits(chars, 0, (int) year, 4);
+        chars[4] = '-';
+        writeDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, day, 2);
+        chars[10] = 'T';
+        writeDigits(chars, 11, secondOfDay / SECONDS_PER_HOUR, 2);
+        chars[13] = ':';
+        writeDigits(chars, 14, secondOfDay % SECONDS_PER_HOUR / SECONDS_PER_MINUTE, 2);
+        chars[16] = ':';
+        writeDigits(chars, 17, secondOfDay % SECONDS_PER_MINUTE, 2);
+        chars[19] = 'Z';
+        return new String(chars);
+    }
+
+    /**
+     * Civil date to days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        final int adjustedYear = month <= 2 ? year - 1 : year;
+        final int era = (adjustedYear >= 0 ? adjustedYear : adjustedYear - 399) / 400;
+        final int yearOfEra = adjustedYear - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * @return The number, or -1 if a character is not a digit.
+     */
+    private static int readDigits(final String value, final int start, final int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    private static void writeDigits(final char[] chars, final int start, final int value, final int count) {
+        int remaining = value;
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass parsers for the JSON responses of the token, instance discovery and metadata
+ * endpoints. Responses are read token by token with a {@link JsonReader}, without building an
+ * intermediate {@link org.json.JSONObject} tree.
+ */
+final class JsonResponseParser {
+
+    private static final String PREFERRED_NETWORK = "preferred_network";
+
+    private static final String PREFERRED_CACHE = "preferred_cache";
+
+    private static final String ALIASES = "aliases";
+
+    private JsonResponseParser() {
+        // Utility class, no public constructor
+    }
+
+    /**
+     * Reads the members of a JSON object into a map. Like {@link org.json.JSONObject#getString(String)},
+     * numbers and booleans are returned as their literal and nested objects and arrays as their
+     * JSON text.
+     *
+     * @param json The JSON object.
+     * @return The members of the object.
+     * @throws JSONException If the input is not a JSON object.
+     */
+    static Map<String, String> parseObject(final String json) throws JSONException {
+        final Map<String, String> members = new HashMap<>();
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                members.put(name, readValueAsString(reader));
+            }
+            reader.endObject();
+        } catch (final IOException | IllegalStateException | JsonParseException e) {
+            throw newJSONException(e);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        return members;
+    }
+
+    /**
+     * Reads an instance discovery response. The "metadata" array is read straight into
+     * {@link InstanceDiscoveryMetadata}, the members which are not used are skipped.
+     *
+     * @param json The JSON object of the response.
+     * @return The instance discovery response.
+     * @throws JSONException If the input is not an instance discovery response.
+     */
+    static InstanceDiscoveryResponse parseInstanceDiscoveryResponse(final String json) throws JSONException {
+        boolean isTenantDiscoveryEndpointReturned = false;
+        String errorCodes = null;
+        List<InstanceDiscoveryMetadata> metadata = null;
+
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (AuthorityValidationMetadataCache.TENANT_DISCOVERY_ENDPOINT.equals(name)) {
+                    isTenantDiscoveryEndpointReturned = true;
+                    reader.skipValue();
+                } else if (AuthenticationConstants.OAuth2.ERROR_CODES.equals(name)) {
+                    errorCodes = readValueAsString(reader);
+                } else if (AuthorityValidationMetadataCache.META_DATA.equals(name)
+                        && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    metadata = readInstanceDiscoveryMetadataArray(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (final IOException | IllegalStateException | JsonParseException e) {
+            throw newJSONException(e);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        return new InstanceDiscoveryResponse(isTenantDiscoveryEndpointReturned, errorCodes, metadata);
+    }
+
+    /**
+     * Reads the "metadata" array of an instance discovery response.
+     *
+     * @param metadata The JSON array of the metadata entries.
+     * @return One {@link InstanceDiscoveryMetadata} per entry.
+     * @throws JSONException If the input is not an array of metadata entries.
+     */
+    static List<InstanceDiscoveryMetadata> parseInstanceDiscoveryMetadata(final String metadata)
+            throws JSONException {
+        final JsonReader reader = new JsonReader(new StringReader(metadata));
+        try {
+            return readInstanceDiscoveryMetadataArray(reader);
+        } catch (final IOException | IllegalStateException | JsonParseException e) {
+            throw newJSONException(e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static List<InstanceDiscoveryMetadata> readInstanceDiscoveryMetadataArray(final JsonReader reader)
+            throws IOException, JSONException {
+        final List<InstanceDiscoveryMetadata> entries = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            entries.add(readInstanceDiscoveryMetadata(reader));
+        }
+        reader.endArray();
+
+        return entries;
+    }
+
+    private static InstanceDiscoveryMetadata readInstanceDiscoveryMetadata(final JsonReader reader)
+            throws IOException, JSONException {
+        String preferredNetwork = null;
+        String preferredCache = null;
+        List<String> aliases = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (PREFERRED_NETWORK.equals(name)) {
+                preferredNetwork = reader.nextString();
+            } else if (PREFERRED_CACHE.equals(name)) {
+                preferredCache = reader.nextString();
+            } else if (ALIASES.equals(name)) {
+                aliases = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    aliases.add(reader.nextString());
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (preferredNetwork == null || preferredCache == null || aliases == null) {
+            throw new JSONException("Instance discovery metadata is missing "
+                    + PREFERRED_NETWORK + ", " + PREFERRED_CACHE + " or " + ALIASES);
+        }
+
+        return new InstanceDiscoveryMetadata(preferredNetwork, preferredCache, aliases);
+    }
+
+    private static String readValueAsString(final JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+            final StringWriter json = new StringWriter();
+            copyValue(reader, new JsonWriter(json));
+            return json.toString();
+        }
+
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return "null";
+        }
+
+        // Strings and numbers, numbers keep their literal.
+        return reader.nextString();
+    }
+
+    /**
+     * Copies the next value of the reader to the writer, token by token.
+     */
+    private static void copyValue(final JsonReader reader, final JsonWriter writer) throws IOException {
+        int depth = 0;
+        do {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    writer.beginObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    writer.endObject();
+                    depth--;
+                    break;
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    writer.beginArray();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    writer.endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    writer.name(reader.nextName());
+                    break;
+                case STRING:
+                    writer.value(reader.nextString());
+                    break;
+                case NUMBER:
+                    writer.jsonValue(reader.nextString());
+                    break;
+                case BOOLEAN:
+                    writer.value(reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    writer.nullValue();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected token " + reader.peek());
+            }
+        } while (depth > 0);
+
+        writer.flush();
+    }
+
+    private static JSONException newJSONException(final Exception cause) {
+        final JSONException jsonException = new JSONException(cause.getMessage());
+        jsonException.initCause(cause);
+        return jsonException;
+    }
+
+    private static void closeQuietly(final JsonReader reader) {
+        try {
+            reader.close();
+        } catch (final IOException e) {
+            // Reading from a string, nothing to release.
+        }
+    }
+}
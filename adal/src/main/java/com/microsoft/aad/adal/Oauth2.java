@@ -37,7 +37,6 @@ import com.microsoft.identity.common.exception.ServiceException;
 import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.ClientInfo;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -45,10 +44,8 @@ import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -71,20 +68,15 @@ class Oauth2 {
 
     private static final String TAG = "Oauth";
 
-    private boolean mRetryOnce = true;
-
-    private static final int DELAY_TIME_PERIOD = 1000;
-
-    private static final int MAX_RESILIENCY_ERROR_CODE = 599;
-
-    private static final String DEFAULT_AUTHORIZE_ENDPOINT = "/oauth2/authorize";
+    /**
+     * Attempt number of the token request being sent, starting at 1.
+     */
+    private int mAttempt = 1;
 
-    private static final String DEFAULT_TOKEN_ENDPOINT = "/oauth2/token";
+    private static final long MILLIS_PER_SECOND = 1000L;
 
     private static final String HTTPS_PROTOCOL_STRING = "https";
 
-    private static final String STRING_FORMAT_QUERY_PARAM = "%s&%s=%s";
-
     private String mBrokerClientVersion = "";
 
     private String mClientVersion = "";
@@ -93,14 +85,14 @@ class Oauth2 {
         mRequest = request;
         mWebRequestHandler = null;
         mJWSBuilder = null;
-        setTokenEndpoint(mRequest.getAuthority() + DEFAULT_TOKEN_ENDPOINT);
+        setTokenEndpoint(getTokenEndpointOf(mRequest.getAuthority()));
     }
 
     Oauth2(AuthenticationRequest request, IWebRequestHandler webRequestHandler) {
         mRequest = request;
         mWebRequestHandler = webRequestHandler;
         mJWSBuilder = null;
-        setTokenEndpoint(mRequest.getAuthority() + DEFAULT_TOKEN_ENDPOINT);
+        setTokenEndpoint(getTokenEndpointOf(mRequest.getAuthority()));
     }
 
     Oauth2(AuthenticationRequest request, IWebRequestHandler webRequestHandler,
@@ -108,7 +100,7 @@ class Oauth2 {
         mRequest = request;
         mWebRequestHandler = webRequestHandler;
         mJWSBuilder = jwsMessageBuilder;
-        setTokenEndpoint(mRequest.getAuthority() + DEFAULT_TOKEN_ENDPOINT);
+        setTokenEndpoint(getTokenEndpointOf(mRequest.getAuthority()));
     }
 
     public void setClientVersion(String version) {
@@ -123,7 +115,9 @@ class Oauth2 {
     }
 
     public String getAuthorizationEndpoint() {
-        return mRequest.getAuthority() + DEFAULT_AUTHORIZE_ENDPOINT;
+        final Authority authority = Authority.ofOrNull(mRequest.getAuthority());
+        return authority == null
+                ? mRequest.getAuthority() + Authority.AUTHORIZE_ENDPOINT_PATH : authority.getAuthorizeEndpoint();
     }
 
     public String getTokenEndpoint() {
@@ -224,70 +218,54 @@ class Oauth2 {
     }
 
     public String buildTokenRequestMessage(String code) throws UnsupportedEncodingException {
-        Logger.v(TAG, "Building request message for redeeming token with auth code.");
-
-        String message =  String.format("%s=%s&%s=%s&%s=%s&%s=%s&%s=%s",
-                AuthenticationConstants.OAuth2.GRANT_TYPE,
-                StringExtensions.urlFormEncode(AuthenticationConstants.OAuth2.AUTHORIZATION_CODE),
-
-                AuthenticationConstants.OAuth2.CODE,
-                StringExtensions.urlFormEncode(code),
-
-                AuthenticationConstants.OAuth2.CLIENT_ID,
-                StringExtensions.urlFormEncode(mRequest.getClientId()),
+        return buildTokenRequestBody(code).toString();
+    }
 
-                AuthenticationConstants.OAuth2.REDIRECT_URI,
-                StringExtensions.urlFormEncode(mRequest.getRedirectUri()),
+    public String buildRefreshTokenRequestMessage(String refreshToken)
+            throws UnsupportedEncodingException {
+        return buildRefreshTokenRequestBody(refreshToken).toString();
+    }
 
+    private FormBodyEncoder buildTokenRequestBody(final String code) {
+        Logger.v(TAG, "Building request message for redeeming token with auth code.");
+        final FormBodyEncoder body = new FormBodyEncoder()
+                .add(AuthenticationConstants.OAuth2.GRANT_TYPE, AuthenticationConstants.OAuth2.AUTHORIZATION_CODE)
+                .add(AuthenticationConstants.OAuth2.CODE, code)
+                .add(AuthenticationConstants.OAuth2.CLIENT_ID, mRequest.getClientId())
+                .add(AuthenticationConstants.OAuth2.REDIRECT_URI, mRequest.getRedirectUri())
                 // Request client_info
-                AuthenticationConstants.OAuth2.CLIENT_INFO,
-                AuthenticationConstants.OAuth2.CLIENT_INFO_TRUE
-        );
+                .add(AuthenticationConstants.OAuth2.CLIENT_INFO, AuthenticationConstants.OAuth2.CLIENT_INFO_TRUE);
 
         if (!StringExtensions.isNullOrBlank(mRequest.getClaimsChallenge())) {
-            message = String.format(STRING_FORMAT_QUERY_PARAM, message, AuthenticationConstants.OAuth2.CLAIMS,
-                    StringExtensions.urlFormEncode(mRequest.getClaimsChallenge()));
+            body.add(AuthenticationConstants.OAuth2.CLAIMS, mRequest.getClaimsChallenge());
         }
 
-        return message;
-
+        return body;
     }
 
-    public String buildRefreshTokenRequestMessage(String refreshToken)
-            throws UnsupportedEncodingException {
+    private FormBodyEncoder buildRefreshTokenRequestBody(final String refreshToken) {
         Logger.v(TAG, "Building request message for redeeming token with refresh token.");
-        String message = String.format("%s=%s&%s=%s&%s=%s&%s=%s",
-                AuthenticationConstants.OAuth2.GRANT_TYPE,
-                StringExtensions.urlFormEncode(AuthenticationConstants.OAuth2.REFRESH_TOKEN),
-
-                AuthenticationConstants.OAuth2.REFRESH_TOKEN,
-                StringExtensions.urlFormEncode(refreshToken),
-
-                AuthenticationConstants.OAuth2.CLIENT_ID,
-                StringExtensions.urlFormEncode(mRequest.getClientId()),
-
-                AuthenticationConstants.OAuth2.CLIENT_INFO,
-                AuthenticationConstants.OAuth2.CLIENT_INFO_TRUE
-        );
+        final FormBodyEncoder body = new FormBodyEncoder()
+                .add(AuthenticationConstants.OAuth2.GRANT_TYPE, AuthenticationConstants.OAuth2.REFRESH_TOKEN)
+                .add(AuthenticationConstants.OAuth2.REFRESH_TOKEN, refreshToken)
+                .add(AuthenticationConstants.OAuth2.CLIENT_ID, mRequest.getClientId())
+                .add(AuthenticationConstants.OAuth2.CLIENT_INFO, AuthenticationConstants.OAuth2.CLIENT_INFO_TRUE);
 
         if (!StringExtensions.isNullOrBlank(mRequest.getResource())) {
-            message = String.format(STRING_FORMAT_QUERY_PARAM, message, AuthenticationConstants.AAD.RESOURCE,
-                    StringExtensions.urlFormEncode(mRequest.getResource()));
+            body.add(AuthenticationConstants.AAD.RESOURCE, mRequest.getResource());
         }
 
         // sending redirect uri for the refresh token request if it's provided
         if (!StringExtensions.isNullOrBlank(mRequest.getRedirectUri())
                 && !mRequest.getClientId().equalsIgnoreCase(AuthenticationConstants.Broker.BROKER_CLIENT_ID)) {
-            message = String.format(STRING_FORMAT_QUERY_PARAM, message, AuthenticationConstants.OAuth2.REDIRECT_URI,
-                    StringExtensions.urlFormEncode(mRequest.getRedirectUri()));
+            body.add(AuthenticationConstants.OAuth2.REDIRECT_URI, mRequest.getRedirectUri());
         }
 
         if (!StringExtensions.isNullOrBlank(mRequest.getClaimsChallenge())) {
-            message = String.format(STRING_FORMAT_QUERY_PARAM, message, AuthenticationConstants.OAuth2.CLAIMS,
-                    StringExtensions.urlFormEncode(mRequest.getClaimsChallenge()));
+            body.add(AuthenticationConstants.OAuth2.CLAIMS, mRequest.getClaimsChallenge());
         }
 
-        return message;
+        return body;
     }
 
     public AuthenticationResult processUIResponseParams(Map<String, String> response) throws AuthenticationException {
@@ -356,7 +334,7 @@ class Oauth2 {
                         .path(authorityUrl.getPath())
                         .build().toString();
 
-                setTokenEndpoint(newAuthorityUrlString + DEFAULT_TOKEN_ENDPOINT);
+                setTokenEndpoint(getTokenEndpointOf(newAuthorityUrlString));
                 result.setAuthority(newAuthorityUrlString);
             }
         } else if (response.containsKey(AuthenticationConstants.OAuth2.ACCESS_TOKEN)) {
@@ -364,15 +342,14 @@ class Oauth2 {
             boolean isMultiResourceToken = false;
             String expiresIn = response.get(AuthenticationConstants.OAuth2.EXPIRES_IN);
             Long expiresInLong;
-            Calendar expires = new GregorianCalendar();
+            final long responseReceivedMillis = Clock.getInstance().currentTimeMillis();
 
             expiresInLong = (expiresIn == null || expiresIn.isEmpty() ? ((long) AuthenticationConstants.DEFAULT_EXPIRATION_TIME_SEC) : Long.parseLong(expiresIn));
 
             // Compute token expiration
-            expires.add(
-                    Calendar.SECOND,
-                    expiresIn == null || expiresIn.isEmpty() ? AuthenticationConstants.DEFAULT_EXPIRATION_TIME_SEC
-                            : Integer.parseInt(expiresIn));
+            final Date expires = new Date(responseReceivedMillis + MILLIS_PER_SECOND
+                    * (expiresIn == null || expiresIn.isEmpty() ? AuthenticationConstants.DEFAULT_EXPIRATION_TIME_SEC
+                    : Integer.parseInt(expiresIn)));
 
             final String refreshToken = response.get(AuthenticationConstants.OAuth2.REFRESH_TOKEN);
 
@@ -420,7 +397,7 @@ class Oauth2 {
             result = new AuthenticationResult(
                     response.get(AuthenticationConstants.OAuth2.ACCESS_TOKEN),
                     refreshToken,
-                    expires.getTime(),
+                    expires,
                     isMultiResourceToken,
                     userinfo,
                     tenantId,
@@ -432,17 +409,14 @@ class Oauth2 {
             result.setResource(resource);
             result.setClientInfo(clientInfo);
             result.setExpiresIn(expiresInLong);
-            result.setResponseReceived(System.currentTimeMillis());
+            result.setResponseReceived(responseReceivedMillis);
 
             if (response.containsKey(AuthenticationConstants.OAuth2.EXT_EXPIRES_IN)) {
                 final String extendedExpiresIn = response.get(AuthenticationConstants.OAuth2.EXT_EXPIRES_IN);
-                final Calendar extendedExpires = new GregorianCalendar();
                 // Compute extended token expiration
-                extendedExpires.add(
-                        Calendar.SECOND,
-                        StringExtensions.isNullOrBlank(extendedExpiresIn) ? AuthenticationConstants.DEFAULT_EXPIRATION_TIME_SEC
-                                : Integer.parseInt(extendedExpiresIn));
-                result.setExtendedExpiresOn(extendedExpires.getTime());
+                result.setExtendedExpiresOn(new Date(responseReceivedMillis + MILLIS_PER_SECOND
+                        * (StringExtensions.isNullOrBlank(extendedExpiresIn) ? AuthenticationConstants.DEFAULT_EXPIRATION_TIME_SEC
+                        : Integer.parseInt(extendedExpiresIn))));
             }
 
             //Set family client id on authentication result for TokenCacheItem to pick up
@@ -456,35 +430,18 @@ class Oauth2 {
 
     public static void extractJsonObjects(Map<String, String> responseItems, String jsonStr)
             throws JSONException {
-        final JSONObject jsonObject = new JSONObject(jsonStr);
-
-        final Iterator<?> i = jsonObject.keys();
-
-        while (i.hasNext()) {
-            final String key = (String) i.next();
-            responseItems.put(key, jsonObject.getString(key));
-        }
+        responseItems.putAll(JsonResponseParser.parseObject(jsonStr));
     }
 
     public AuthenticationResult refreshToken(String refreshToken) throws IOException,
             AuthenticationException {
-        final String requestMessage;
         if (mWebRequestHandler == null) {
             Logger.v(TAG, "Web request is not set correctly.");
             throw new IllegalArgumentException("webRequestHandler is null.");
         }
 
-        // Token request message
-        try {
-            requestMessage = buildRefreshTokenRequestMessage(refreshToken);
-        } catch (UnsupportedEncodingException encoding) {
-            Logger.e(TAG,
-                    ADALError.ENCODING_IS_NOT_SUPPORTED.getDescription(),
-                    encoding.getMessage(),
-                    ADALError.ENCODING_IS_NOT_SUPPORTED,
-                    encoding);
-            return null;
-        }
+        // Token request message, encoded once for all the attempts
+        final byte[] requestBody = buildRefreshTokenRequestBody(refreshToken).toByteArray();
 
         final Map<String, String> headers = getRequestHeaders();
 
@@ -493,7 +450,7 @@ class Oauth2 {
         headers.put(AuthenticationConstants.Broker.CHALLENGE_TLS_INCAPABLE,
                 AuthenticationConstants.Broker.CHALLENGE_TLS_INCAPABLE_VERSION);
         Logger.v(TAG, "Sending request to redeem token with refresh token.");
-        return postMessage(requestMessage, headers);
+        return postMessage(requestBody, headers);
     }
 
     /**
@@ -565,33 +522,25 @@ class Oauth2 {
      */
     public AuthenticationResult getTokenForCode(String code) throws IOException, AuthenticationException {
         final String methodName = ":getTokenForCode";
-        final String requestMessage;
         if (mWebRequestHandler == null) {
             throw new IllegalArgumentException("webRequestHandler");
         }
 
-        // Token request message
-        try {
-            requestMessage = buildTokenRequestMessage(code);
-        } catch (UnsupportedEncodingException encoding) {
-            Logger.e(TAG + methodName,
-                    ADALError.ENCODING_IS_NOT_SUPPORTED.getDescription(),
-                    encoding.getMessage(),
-                    ADALError.ENCODING_IS_NOT_SUPPORTED,
-                    encoding);
-            return null;
-        }
+        // Token request message, encoded once for all the attempts
+        final byte[] requestBody = buildTokenRequestBody(code).toByteArray();
 
         final Map<String, String> headers = getRequestHeaders();
 
         Logger.v(TAG + methodName, "Sending request to redeem token with auth code.");
-        return postMessage(requestMessage, headers);
+        return postMessage(requestBody, headers);
     }
 
-    private AuthenticationResult postMessage(String requestMessage, Map<String, String> headers)
+    private AuthenticationResult postMessage(final byte[] requestBody, final Map<String, String> headers)
             throws IOException, AuthenticationException {
         final String methodName = ":postMessage";
         AuthenticationResult result = null;
+        final RequestDeadline deadline = RequestDeadline.getCurrent();
+        RequestDeadline.throwIfCurrentExpired("sending the token request");
         final HttpEvent httpEvent = startHttpEvent();
 
         final URL authority = StringExtensions.getUrl(getTokenEndpoint());
@@ -602,13 +551,46 @@ class Oauth2 {
 
         httpEvent.setHttpPath(authority);
 
+        // Fail fast while the server asked all requests to this host to wait, with the stale token if the app
+        // accepts one. Waiting would hold the request thread, retries have waited already.
+        if (mAttempt == 1) {
+            final long throttleDelayMillis = RetryPolicy.getInstance().getThrottleDelayMillis(authority.getHost());
+            if (throttleDelayMillis > 0) {
+                stopHttpEvent(httpEvent);
+                final String message = "Server asked to wait " + throttleDelayMillis + " ms before sending requests to "
+                        + authority.getHost() + ", the token request is not sent.";
+                Logger.w(TAG + methodName, message, "", ADALError.SERVER_THROTTLED);
+                if (mRequest.getIsExtendedLifetimeEnabled()) {
+                    throw new ServerRespondingWithRetryableException(message);
+                }
+
+                throw new AuthenticationException(ADALError.SERVER_THROTTLED, message);
+            }
+        }
+
+        // Fail fast while the host is failing, with the stale token if the app accepts one.
+        final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+        if (!circuitBreaker.allowRequest(authority.getHost())) {
+            httpEvent.setCircuitBreakerState(CircuitBreaker.State.OPEN.toString());
+            stopHttpEvent(httpEvent);
+            final String message = "Circuit breaker is open for " + authority.getHost() + ", the token request is not sent.";
+            Logger.w(TAG + methodName, message, "", ADALError.SERVER_CIRCUIT_BREAKER_OPEN);
+            if (mRequest.getIsExtendedLifetimeEnabled()) {
+                throw new ServerRespondingWithRetryableException(message);
+            }
+
+            throw new AuthenticationException(ADALError.SERVER_CIRCUIT_BREAKER_OPEN, message);
+        }
+
+        if (mRequest.getCorrelationId() != null) {
+            headers.put(AuthenticationConstants.AAD.CLIENT_REQUEST_ID, mRequest.getCorrelationId().toString());
+        }
+
         try {
             mWebRequestHandler.setRequestCorrelationId(mRequest.getCorrelationId());
             ClientMetrics.INSTANCE.beginClientMetricsRecord(authority, mRequest.getCorrelationId(),
                     headers);
-            HttpWebResponse response = mWebRequestHandler.sendPost(authority, headers,
-                    requestMessage.getBytes(AuthenticationConstants.ENCODING_UTF8),
-                    "application/x-www-form-urlencoded");
+            HttpWebResponse response = sendPost(authority, headers, requestBody, httpEvent);
 
             httpEvent.setResponseCode(response.getStatusCode());
             httpEvent.setCorrelationId(mRequest.getCorrelationId().toString());
@@ -642,9 +624,7 @@ class Oauth2 {
                             headers.put(AuthenticationConstants.Broker.CHALLENGE_RESPONSE_HEADER,
                                     challengeResponse.getAuthorizationHeaderValue());
                             Logger.v(TAG + methodName, "Sending request with challenge response.");
-                            response = mWebRequestHandler.sendPost(authority, headers,
-                                    requestMessage.getBytes(AuthenticationConstants.ENCODING_UTF8),
-                                    "application/x-www-form-urlencoded");
+                            response = sendPost(authority, headers, requestBody, challengeHttpEvent);
                             challengeHttpEvent.setResponseCode(response.getStatusCode());
                             challengeHttpEvent.setCorrelationId(mRequest.getCorrelationId().toString());
                             stopHttpEvent(challengeHttpEvent);
@@ -669,7 +649,8 @@ class Oauth2 {
                 try {
                     result = processTokenResponse(response, httpEvent);
                 } catch (final ServerRespondingWithRetryableException e) {
-                    result = retry(requestMessage, headers);
+                    result = retry(requestBody, headers,
+                            RetryPolicy.getRetryAfterMillis(response.getResponseHeaders()));
                     if (result != null) {
                         return result;
                     }
@@ -682,7 +663,7 @@ class Oauth2 {
                         throw new AuthenticationException(ADALError.SERVER_ERROR, "WebResponse is not a success due to: " + response.getStatusCode(), response);
                     }
                 }
-                ClientMetrics.INSTANCE.setLastError(null);
+                ClientMetrics.INSTANCE.setLastError(mRequest.getCorrelationId(), null);
             }
             if (result == null) {
                 // non-protocol related error
@@ -690,22 +671,29 @@ class Oauth2 {
                 Logger.e(TAG + methodName, ADALError.SERVER_ERROR.getDescription(), errMessage, ADALError.SERVER_ERROR);
                 throw new AuthenticationException(ADALError.SERVER_ERROR, errMessage, response);
             } else {
-                ClientMetrics.INSTANCE.setLastErrorCodes(result.getErrorCodes());
+                ClientMetrics.INSTANCE.setLastErrorCodes(mRequest.getCorrelationId(), result.getErrorCodes());
             }
         } catch (final UnsupportedEncodingException e) {
-            ClientMetrics.INSTANCE.setLastError(null);
+            ClientMetrics.INSTANCE.setLastError(mRequest.getCorrelationId(), null);
             Logger.e(TAG + methodName,
                     ADALError.ENCODING_IS_NOT_SUPPORTED.getDescription(),
                     e.getMessage(),
                     ADALError.ENCODING_IS_NOT_SUPPORTED, e);
             throw e;
         } catch (final SocketTimeoutException e) {
-            result = retry(requestMessage, headers);
+            result = retry(requestBody, headers, 0);
             if (result != null) {
                 return result;
             }
 
-            ClientMetrics.INSTANCE.setLastError(null);
+            ClientMetrics.INSTANCE.setLastError(mRequest.getCorrelationId(), null);
+            // The read timeout is capped by the request timeout, report the request running out of time as such.
+            if (deadline != null && deadline.isExpired()) {
+                Logger.e(TAG + methodName, ADALError.REQUEST_DEADLINE_EXCEEDED.getDescription(), e.getMessage(),
+                        ADALError.REQUEST_DEADLINE_EXCEEDED, e);
+                throw deadline.newExpiredException("receiving the token response");
+            }
+
             if (mRequest.getIsExtendedLifetimeEnabled()) {
                 Logger.e(TAG + methodName, ADALError.SERVER_ERROR.getDescription(), e.getMessage(), ADALError.SERVER_ERROR, e);
                 throw new ServerRespondingWithRetryableException(e.getMessage(), e);
@@ -714,7 +702,7 @@ class Oauth2 {
                 throw e;
             }
         } catch (final IOException e) {
-            ClientMetrics.INSTANCE.setLastError(null);
+            ClientMetrics.INSTANCE.setLastError(mRequest.getCorrelationId(), null);
             Logger.e(TAG + methodName, ADALError.SERVER_ERROR.getDescription(), e.getMessage(), ADALError.SERVER_ERROR, e);
             throw e;
         } finally {
@@ -724,22 +712,71 @@ class Oauth2 {
         return result;
     }
 
-    private AuthenticationResult retry(String requestMessage, Map<String, String> headers) throws IOException, AuthenticationException {
+    /**
+     * Posts the token request and reports the outcome to the {@link CircuitBreaker} of the host.
+     */
+    private HttpWebResponse sendPost(final URL authority, final Map<String, String> headers,
+                                     final byte[] requestBody, final HttpEvent httpEvent) throws IOException {
+        final CircuitBreaker circuitBreaker = CircuitBreaker.getInstance();
+        final String host = authority.getHost();
+        httpEvent.setCircuitBreakerState(circuitBreaker.getState(host).toString());
+
+        final HttpWebResponse response;
+        try {
+            response = mWebRequestHandler.sendPost(authority, headers, requestBody,
+                    "application/x-www-form-urlencoded");
+        } catch (final IOException e) {
+            setCircuitBreakerTransition(httpEvent, circuitBreaker.onFailure(host));
+            throw e;
+        }
+
+        setCircuitBreakerTransition(httpEvent, CircuitBreaker.isFailureStatusCode(response.getStatusCode())
+                ? circuitBreaker.onFailure(host) : circuitBreaker.onSuccess(host));
+        return response;
+    }
+
+    private static void setCircuitBreakerTransition(final HttpEvent httpEvent, final CircuitBreaker.State newState) {
+        if (newState != null) {
+            httpEvent.setCircuitBreakerTransition(newState.toString());
+        }
+    }
+
+    private AuthenticationResult retry(final byte[] requestBody, final Map<String, String> headers,
+                                       final long retryAfterMillis) throws IOException, AuthenticationException {
         final String methodName = ":retry";
-        //retry once if there is an observation of a network timeout by the client
-        if (mRetryOnce) {
-            mRetryOnce = false;
-            try {
-                Thread.sleep(DELAY_TIME_PERIOD);
-            } catch (final InterruptedException exception) {
-                Logger.v(TAG + methodName, "The thread is interrupted while it is sleeping. ");
-            }
+        final RetryPolicy retryPolicy = RetryPolicy.getInstance();
+        if (mAttempt >= retryPolicy.getMaxAttempts()) {
+            Logger.v(TAG + methodName, "No retry left after attempt " + mAttempt + ".");
+            return null;
+        }
 
-            Logger.v(TAG + methodName, "Try again...");
-            return postMessage(requestMessage, headers);
+        final String host = StringExtensions.getUrl(getTokenEndpoint()).getHost();
+        if (CircuitBreaker.getInstance().isOpen(host)) {
+            Logger.v(TAG + methodName, "Circuit breaker is open, not retrying.");
+            return null;
         }
 
-        return null;
+        final long delayMillis = retryPolicy.nextDelayMillis(host, mAttempt, retryAfterMillis);
+        if (delayMillis > AuthenticationSettings.INSTANCE.getRetryMaxDelayMillis()) {
+            Logger.v(TAG + methodName, "Server asked to retry after " + delayMillis + " ms, not retrying.");
+            return null;
+        }
+
+        final RequestDeadline deadline = RequestDeadline.getCurrent();
+        if (deadline != null && delayMillis >= deadline.getRemainingMillis()) {
+            Logger.v(TAG + methodName, "Retry delay of " + delayMillis + " ms exceeds the request timeout, not retrying.");
+            return null;
+        }
+
+        // The retry honors the Retry-After, have the other requests to the host honor it as well.
+        retryPolicy.recordThrottle(host, retryAfterMillis);
+        if (!retryPolicy.await(delayMillis)) {
+            return null;
+        }
+
+        mAttempt++;
+        Logger.v(TAG + methodName, "Try again... Attempt: " + mAttempt);
+        return postMessage(requestBody, headers);
     }
 
     public static String decodeProtocolState(String encodedState) throws UnsupportedEncodingException {
@@ -833,7 +870,7 @@ class Oauth2 {
                         "Can't parse server response. " + webResponse.getBody(),
                         webResponse, jsonException);
             }
-        } else if (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR && statusCode <= MAX_RESILIENCY_ERROR_CODE) {
+        } else if (RetryPolicy.isRetryableStatusCode(statusCode)) {
             throw new ServerRespondingWithRetryableException("Server Error " + statusCode + " "
                     + webResponse.getBody(), webResponse);
         } else {
@@ -885,11 +922,20 @@ class Oauth2 {
         final HttpEvent httpEvent = new HttpEvent(EventStrings.HTTP_EVENT);
         httpEvent.setRequestId(mRequest.getTelemetryRequestId());
         httpEvent.setMethod(EventStrings.HTTP_METHOD_POST);
+        // Forget the stats of a previous request on this thread.
+        HttpResponseStats.takeLast();
         Telemetry.getInstance().startEvent(mRequest.getTelemetryRequestId(), EventStrings.HTTP_EVENT);
         return httpEvent;
     }
 
     private void stopHttpEvent(final HttpEvent httpEvent) {
+        final HttpResponseStats stats = HttpResponseStats.takeLast();
+        if (stats != null) {
+            if (stats.getUncompressedBytes() != HttpResponseStats.SIZE_UNKNOWN) {
+                httpEvent.setResponseSize(stats.getCompressedBytes(), stats.getUncompressedBytes());
+            }
+        }
+
         Telemetry.getInstance().stopEvent(mRequest.getTelemetryRequestId(), httpEvent,
                 EventStrings.HTTP_EVENT);
     }
@@ -897,4 +943,13 @@ class Oauth2 {
     public void setTokenEndpoint(final String tokenEndpoint) {
         mTokenEndpoint = tokenEndpoint;
     }
+
+    /**
+     * @return The token endpoint of the authority, precomputed by its shared parsed form when the
+     * authority is a valid url.
+     */
+    private static String getTokenEndpointOf(final String authority) {
+        final Authority parsedAuthority = Authority.ofOrNull(authority);
+        return parsedAuthority == null ? authority + Authority.TOKEN_ENDPOINT_PATH : parsedAuthority.getTokenEndpoint();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.os.Build;
+
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Default process-wide {@link IWebRequestHandler}, returned by
+ * {@link AuthenticationSettings#getWebRequestHandler()} unless the app sets its own. Requests are
+ * sent with {@link HttpWebRequest}, so every ADAL network call shares the keep-alive connections
+ * of the platform connection pool.
+ * <p>
+ * The same instance is used concurrently by all requests, the correlation id and client version
+ * set through {@link IWebRequestHandler} are kept per thread. The correlation id only applies to
+ * the next request sent on that thread, and never replaces a client-request-id header passed by
+ * the caller.
+ */
+final class PooledWebRequestHandler implements IWebRequestHandler {
+
+    private static final String TAG = PooledWebRequestHandler.class.getSimpleName();
+
+    private static final PooledWebRequestHandler INSTANCE = new PooledWebRequestHandler();
+
+    private final ThreadLocal<UUID> mRequestCorrelationId = new ThreadLocal<>();
+
+    private final ThreadLocal<String> mClientVersion = new ThreadLocal<>();
+
+    private PooledWebRequestHandler() {
+        // Singleton, use getInstance().
+    }
+
+    static PooledWebRequestHandler getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public HttpWebResponse sendGet(final URL url, final Map<String, String> headers) throws IOException {
+        Logger.v(TAG + ":sendGet", "Sending GET request.", "Thread: " + android.os.Process.myTid(), null);
+        try {
+            final HttpWebRequest request = new HttpWebRequest(url, HttpWebRequest.REQUEST_METHOD_GET,
+                    updateHeaders(headers));
+            return request.send();
+        } finally {
+            mRequestCorrelationId.remove();
+        }
+    }
+
+    @Override
+    public HttpWebResponse sendPost(final URL url, final Map<String, String> headers, final byte[] content,
+                                    final String contentType) throws IOException {
+        Logger.v(TAG + ":sendPost", "Sending POST request.", "Thread: " + android.os.Process.myTid(), null);
+        try {
+            final HttpWebRequest request = new HttpWebRequest(url, HttpWebRequest.REQUEST_METHOD_POST,
+                    updateHeaders(headers), content, contentType);
+            return request.send();
+        } finally {
+            mRequestCorrelationId.remove();
+        }
+    }
+
+    @Override
+    public void setRequestCorrelationId(final UUID requestCorrelationId) {
+        mRequestCorrelationId.set(requestCorrelationId);
+    }
+
+    @Override
+    public void setClientVersion(final String clientVersion) {
+        mClientVersion.set(clientVersion);
+    }
+
+    private Map<String, String> updateHeaders(final Map<String, String> headers) {
+        final Map<String, String> updatedHeaders = new HashMap<>();
+        if (headers != null) {
+            updatedHeaders.putAll(headers);
+        }
+
+        final UUID correlationId = mRequestCorrelationId.get();
+        if (correlationId != null && !updatedHeaders.containsKey(AuthenticationConstants.AAD.CLIENT_REQUEST_ID)) {
+            updatedHeaders.put(AuthenticationConstants.AAD.CLIENT_REQUEST_ID, correlationId.toString());
+        }
+
+        final String clientVersion = mClientVersion.get();
+        updatedHeaders.put(AuthenticationConstants.AAD.ADAL_ID_PLATFORM,
+                AuthenticationConstants.AAD.ADAL_ID_PLATFORM_VALUE);
+        updatedHeaders.put(AuthenticationConstants.AAD.ADAL_ID_VERSION,
+                clientVersion != null ? clientVersion : AuthenticationContext.getVersionName());
+        updatedHeaders.put(AuthenticationConstants.AAD.ADAL_ID_OS_VER, String.valueOf(Build.VERSION.SDK_INT));
+        updatedHeaders.put(AuthenticationConstants.AAD.ADAL_ID_DM, Build.MODEL);
+        return updatedHeaders;
+    }
+}
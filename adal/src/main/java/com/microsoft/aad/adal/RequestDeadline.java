@@ -0,0 +1,144 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of an acquire token call, set with {@link AuthenticationContext#setRequestTimeout(long)}.
+ * <p>
+ * The deadline of the request being processed is tracked per thread, like the correlation id of
+ * the {@link Logger}: {@link AcquireTokenRequest} sets it on its worker thread and every hop on the
+ * way (authority validation, token requests, broker calls, socket timeouts) reads it from there,
+ * including the hops that are not handed the {@link AuthenticationRequest}.
+ */
+final class RequestDeadline {
+
+    private static final String TAG = RequestDeadline.class.getSimpleName();
+
+    private static final ThreadLocal<RequestDeadline> CURRENT_DEADLINE = new ThreadLocal<>();
+
+    private final long mTimeoutMillis;
+
+    private final long mExpiresAtNanos;
+
+    /**
+     * Creates a deadline expiring {@code timeoutMillis} from now.
+     */
+    RequestDeadline(final long timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+        mExpiresAtNanos = Clock.getInstance().nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * @return The deadline of the request processed on the current thread, null if it has none.
+     */
+    static RequestDeadline getCurrent() {
+        return CURRENT_DEADLINE.get();
+    }
+
+    /**
+     * Sets the deadline of the request processed on the current thread.
+     *
+     * @param deadline The deadline, null if the request has none.
+     */
+    static void setCurrent(final RequestDeadline deadline) {
+        if (deadline == null) {
+            CURRENT_DEADLINE.remove();
+        } else {
+            CURRENT_DEADLINE.set(deadline);
+        }
+    }
+
+    /**
+     * Fails the request processed on the current thread if it ran out of time.
+     *
+     * @param step What the request was about to do, for the logs.
+     * @throws AuthenticationException {@link ADALError#REQUEST_DEADLINE_EXCEEDED} if the deadline expired.
+     */
+    static void throwIfCurrentExpired(final String step) throws AuthenticationException {
+        final RequestDeadline deadline = getCurrent();
+        if (deadline != null) {
+            deadline.throwIfExpired(step);
+        }
+    }
+
+    /**
+     * @return True if the request processed on the current thread has a deadline and it expired.
+     */
+    static boolean isCurrentExpired() {
+        final RequestDeadline deadline = getCurrent();
+        return deadline != null && deadline.isExpired();
+    }
+
+    /**
+     * Caps a blocking wait of the request processed on the current thread by its remaining time.
+     *
+     * @param timeoutMillis The timeout the wait would use without a deadline, 0 for no timeout.
+     * @return The timeout to use, at least 1 ms since 0 means no timeout for sockets.
+     */
+    static int capCurrentTimeout(final int timeoutMillis) {
+        final RequestDeadline deadline = getCurrent();
+        if (deadline == null) {
+            return timeoutMillis;
+        }
+
+        final long remainingMillis = deadline.getRemainingMillis();
+        final long cappedMillis = timeoutMillis > 0 ? Math.min(timeoutMillis, remainingMillis) : remainingMillis;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, cappedMillis));
+    }
+
+    /**
+     * @return The time left before the deadline in milliseconds rounded up, so that waiting for it
+     * reaches the deadline, 0 once expired.
+     */
+    long getRemainingMillis() {
+        final long remainingNanos = mExpiresAtNanos - Clock.getInstance().nanoTime();
+        if (remainingNanos <= 0) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    boolean isExpired() {
+        return mExpiresAtNanos - Clock.getInstance().nanoTime() <= 0;
+    }
+
+    void throwIfExpired(final String step) throws AuthenticationException {
+        if (isExpired()) {
+            throw newExpiredException(step);
+        }
+    }
+
+    /**
+     * @param step What the request was doing when it ran out of time, for the logs.
+     * @return The {@link ADALError#REQUEST_DEADLINE_EXCEEDED} exception to fail the request with.
+     */
+    AuthenticationException newExpiredException(final String step) {
+        final String message = "Request timeout of " + mTimeoutMillis + " ms expired before " + step + ".";
+        Logger.w(TAG, message, "", ADALError.REQUEST_DEADLINE_EXCEEDED);
+        return new AuthenticationException(ADALError.REQUEST_DEADLINE_EXCEEDED, message);
+    }
+}
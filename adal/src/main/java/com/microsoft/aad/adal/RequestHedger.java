@@ -0,0 +1,281 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.support.annotation.Nullable;
+
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+import com.microsoft.identity.common.adal.internal.net.IWebRequestHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the idempotent metadata GET requests (instance discovery, DRS, WebFinger), hedging them when
+ * {@link AuthenticationSettings#getHedgedRequestsEnabled()} is on: if the response does not arrive
+ * within the hedge delay, the request is sent a second time, to an alias of the host if the caller
+ * knows one, and the first response wins. Token requests are POSTs and never go through here.
+ * <p>
+ * Unless {@link AuthenticationSettings#getHedgeDelayMillis()} is set, the hedge delay is the 95th
+ * percentile of the latencies of the recent metadata requests, hedged or not.
+ */
+final class RequestHedger {
+
+    private static final String TAG = RequestHedger.class.getSimpleName();
+
+    private static final int LATENCY_WINDOW_SIZE = 64;
+
+    /**
+     * Below this number of samples the percentile means little, the default delay is used instead.
+     */
+    private static final int MIN_LATENCY_SAMPLES = 8;
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+
+    private static final RequestHedger INSTANCE = new RequestHedger();
+
+    /**
+     * Sends run on their own threads so that the caller can wait for the first of them. The loser
+     * is left to complete or time out in the background.
+     */
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Ring of the latest request latencies, guarded by itself.
+     */
+    private final long[] mLatenciesMillis = new long[LATENCY_WINDOW_SIZE];
+
+    private int mLatencyCount;
+
+    private int mNextLatencyIndex;
+
+    private RequestHedger() {
+        // Singleton, use getInstance().
+    }
+
+    static RequestHedger getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sends a metadata GET request, hedged if enabled.
+     *
+     * @param webRequestHandler The handler sending the requests.
+     * @param url               The url to request.
+     * @param hedgeUrl          The same request on an alias host, null to hedge to {@code url}.
+     * @param headers           The request headers.
+     * @return The first response received, with the url which answered it.
+     * @throws IOException The failure of the last request to complete if none succeeded.
+     */
+    Result sendGet(final IWebRequestHandler webRequestHandler, final URL url, @Nullable final URL hedgeUrl,
+                            final Map<String, String> headers) throws IOException {
+        final String methodName = ":sendGet";
+        if (!AuthenticationSettings.INSTANCE.getHedgedRequestsEnabled()) {
+            return timedSendGet(webRequestHandler, url, headers);
+        }
+
+        final CompletionService<Result> completionService = new ExecutorCompletionService<>(mExecutor);
+        final List<Future<Result>> sends = new ArrayList<>(2);
+        final RequestDeadline deadline = RequestDeadline.getCurrent();
+        try {
+            sends.add(completionService.submit(newSend(webRequestHandler, url, headers, deadline)));
+            final long hedgeDelayMillis = getHedgeDelayMillis();
+            Future<Result> completed = completionService.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            if (completed == null) {
+                final URL hedgedUrl = hedgeUrl == null ? url : hedgeUrl;
+                Logger.v(TAG + methodName, "No response after " + hedgeDelayMillis + " ms, hedging the request. ",
+                        "Host: " + hedgedUrl.getHost(), null);
+                sends.add(completionService.submit(newSend(webRequestHandler, hedgedUrl, headers, deadline)));
+                completed = completionService.take();
+            }
+
+            for (int pending = sends.size(); ; pending--) {
+                try {
+                    return completed.get();
+                } catch (final ExecutionException e) {
+                    // Wait for the other request if the first one to complete failed.
+                    if (pending == 1) {
+                        throw asIOException(e.getCause());
+                    }
+
+                    Logger.v(TAG + methodName, "Request failed, waiting for the other one. " + e.getCause());
+                }
+
+                completed = completionService.take();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url.getHost());
+        } finally {
+            for (final Future<Result> send : sends) {
+                send.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return How long to wait for a response before hedging, in milliseconds.
+     */
+    long getHedgeDelayMillis() {
+        final long configuredDelayMillis = AuthenticationSettings.INSTANCE.getHedgeDelayMillis();
+        if (configuredDelayMillis > 0) {
+            return configuredDelayMillis;
+        }
+
+        final long[] latenciesMillis;
+        synchronized (mLatenciesMillis) {
+            if (mLatencyCount < MIN_LATENCY_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY_MILLIS;
+            }
+
+            latenciesMillis = Arrays.copyOf(mLatenciesMillis, mLatencyCount);
+        }
+
+        Arrays.sort(latenciesMillis);
+        final int percentileIndex = (int) Math.ceil(HEDGE_PERCENTILE * latenciesMillis.length) - 1;
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, latenciesMillis[percentileIndex]);
+    }
+
+    void recordLatency(final long latencyMillis) {
+        synchronized (mLatenciesMillis) {
+            mLatenciesMillis[mNextLatencyIndex] = latencyMillis;
+            mNextLatencyIndex = (mNextLatencyIndex + 1) % LATENCY_WINDOW_SIZE;
+            mLatencyCount = Math.min(mLatencyCount + 1, LATENCY_WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * Forgets the recorded latencies.
+     */
+    void reset() {
+        synchronized (mLatenciesMillis) {
+            mLatencyCount = 0;
+            mNextLatencyIndex = 0;
+        }
+    }
+
+    private Callable<Result> newSend(final IWebRequestHandler webRequestHandler, final URL url,
+                                     final Map<String, String> headers, final RequestDeadline deadline) {
+        // Each send gets its own headers since handlers may add to them.
+        final Map<String, String> sendHeaders = new HashMap<>(headers);
+        return new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                // Socket timeouts of the send are capped by the deadline of the caller.
+                RequestDeadline.setCurrent(deadline);
+                try {
+                    return timedSendGet(webRequestHandler, url, sendHeaders);
+                } finally {
+                    RequestDeadline.setCurrent(null);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends the request on the current thread. The stats of the request are taken from the thread
+     * since hedged sends run on the threads of the executor.
+     */
+    private Result timedSendGet(final IWebRequestHandler webRequestHandler, final URL url,
+                                final Map<String, String> headers) throws IOException {
+        // Forget the stats of a previous request on this thread.
+        HttpResponseStats.takeLast();
+        final long startNanos = Clock.getInstance().nanoTime();
+        final HttpWebResponse response = webRequestHandler.sendGet(url, headers);
+        recordLatency(TimeUnit.NANOSECONDS.toMillis(Clock.getInstance().nanoTime() - startNanos));
+        return new Result(url, response, HttpResponseStats.takeLast());
+    }
+
+    private static IOException asIOException(final Throwable throwable) {
+        if (throwable instanceof IOException) {
+            return (IOException) throwable;
+        }
+
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+
+        return new IOException(throwable);
+    }
+
+    /**
+     * The response of a metadata request, with the url which answered it.
+     */
+    static final class Result {
+        private final URL mUrl;
+
+        private final HttpWebResponse mResponse;
+
+        private final HttpResponseStats mStats;
+
+        Result(final URL url, final HttpWebResponse response, @Nullable final HttpResponseStats stats) {
+            mUrl = url;
+            mResponse = response;
+            mStats = stats;
+        }
+
+        /**
+         * @return The url the response came from, the alias of the requested url if the hedged
+         * request answered first.
+         */
+        URL getUrl() {
+            return mUrl;
+        }
+
+        HttpWebResponse getResponse() {
+            return mResponse;
+        }
+
+        /**
+         * @return The transport details of the request, null if the request handler did not go
+         * through {@link HttpWebRequest}.
+         */
+        @Nullable
+        HttpResponseStats getStats() {
+            return mStats;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.net.HttpURLConnection;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether and when a failed request to the authority is retried.
+ * <p>
+ * Retries use exponential backoff with full jitter: the n-th retry waits a random time between 0
+ * and min({@link AuthenticationSettings#getRetryMaxDelayMillis()},
+ * {@link AuthenticationSettings#getRetryBaseDelayMillis()} * 2^(n-1)), so clients failing at the
+ * same time do not retry at the same time. A Retry-After header from the server is a lower bound
+ * of the delay. Once a retry honoring it is scheduled, it is shared with all the requests to the
+ * same host, which fail fast until it expires instead of waiting.
+ */
+final class RetryPolicy {
+
+    private static final String TAG = RetryPolicy.class.getSimpleName();
+
+    static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int MAX_SERVER_ERROR_CODE = 599;
+
+    /**
+     * Beyond this exponent the backoff is capped by the max delay anyway.
+     */
+    private static final int MAX_BACKOFF_EXPONENT = 62;
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private static final RetryPolicy INSTANCE = new RetryPolicy();
+
+    /**
+     * Per host {@link Clock#nanoTime()} until which requests should not be sent.
+     */
+    private final ConcurrentMap<String, Long> mThrottledUntilNanos = new ConcurrentHashMap<>();
+
+    private final Random mRandom = new Random();
+
+    private RetryPolicy() {
+        // Singleton, use getInstance().
+    }
+
+    static RetryPolicy getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The maximum number of attempts of a request, including the first one.
+     */
+    int getMaxAttempts() {
+        return AuthenticationSettings.INSTANCE.getRetryMaxAttempts();
+    }
+
+    /**
+     * @param statusCode Http status code of the response.
+     * @return True if the request may succeed when sent again: 429 throttling and 5xx server errors.
+     */
+    static boolean isRetryableStatusCode(final int statusCode) {
+        return statusCode == HTTP_TOO_MANY_REQUESTS
+                || statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR && statusCode <= MAX_SERVER_ERROR_CODE;
+    }
+
+    /**
+     * Computes how long to wait before sending the attempt following {@code failedAttempt}. The
+     * Retry-After is not recorded for the host, see {@link #recordThrottle(String, long)}.
+     *
+     * @param host             Host the request is sent to.
+     * @param failedAttempt    The attempt that failed, 1 for the first one.
+     * @param retryAfterMillis The Retry-After of the response, 0 if none.
+     * @return The delay in milliseconds.
+     */
+    long nextDelayMillis(final String host, final int failedAttempt, final long retryAfterMillis) {
+        final AuthenticationSettings settings = AuthenticationSettings.INSTANCE;
+        final long maxDelayMillis = settings.getRetryMaxDelayMillis();
+        final int exponent = Math.min(Math.max(failedAttempt - 1, 0), MAX_BACKOFF_EXPONENT);
+        final long baseDelayMillis = settings.getRetryBaseDelayMillis();
+        // Compare before shifting, so that the backoff does not overflow.
+        final long backoffMillis = baseDelayMillis > (maxDelayMillis >> exponent)
+                ? maxDelayMillis : baseDelayMillis << exponent;
+        final long jitteredMillis = (long) (mRandom.nextDouble() * (backoffMillis + 1));
+
+        return Math.max(Math.max(jitteredMillis, retryAfterMillis), getThrottleDelayMillis(host));
+    }
+
+    /**
+     * @param host Host the request is sent to.
+     * @return How long requests to the host should still hold back because of a Retry-After, 0 if
+     * they don't.
+     */
+    long getThrottleDelayMillis(final String host) {
+        final Long throttledUntilNanos = mThrottledUntilNanos.get(host.toLowerCase(Locale.US));
+        if (throttledUntilNanos == null) {
+            return 0;
+        }
+
+        final long remainingNanos = throttledUntilNanos - Clock.getInstance().nanoTime();
+        if (remainingNanos <= 0) {
+            mThrottledUntilNanos.remove(host.toLowerCase(Locale.US), throttledUntilNanos);
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos);
+    }
+
+    /**
+     * Waits before a retry. The wait is capped by {@link AuthenticationSettings#getRetryMaxDelayMillis()}.
+     *
+     * @param delayMillis The delay from {@link #nextDelayMillis(String, int, long)}.
+     * @return False if the thread was interrupted while waiting, the request should not be retried.
+     */
+    boolean await(final long delayMillis) {
+        final String methodName = ":await";
+        final long cappedDelayMillis = Math.min(delayMillis, AuthenticationSettings.INSTANCE.getRetryMaxDelayMillis());
+        if (cappedDelayMillis <= 0) {
+            return true;
+        }
+
+        Logger.v(TAG + methodName, "Waiting " + cappedDelayMillis + " ms before sending the request.");
+        try {
+            TimeUnit.MILLISECONDS.sleep(cappedDelayMillis);
+            return true;
+        } catch (final InterruptedException e) {
+            Logger.v(TAG + methodName, "The thread is interrupted while waiting to retry.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the Retry-After header, given either as delay seconds or as an http date.
+     *
+     * @param headers Response headers, may be null.
+     * @return The Retry-After in milliseconds, 0 if there is none or it is invalid.
+     */
+    static long getRetryAfterMillis(final Map<String, List<String>> headers) {
+        if (headers == null) {
+            return 0;
+        }
+
+        List<String> values = null;
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // Header names are case insensitive.
+            if (HEADER_RETRY_AFTER.equalsIgnoreCase(header.getKey())) {
+                values = header.getValue();
+                break;
+            }
+        }
+
+        if (values == null || values.isEmpty() || values.get(0) == null) {
+            return 0;
+        }
+
+        final String value = values.get(0).trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (final NumberFormatException e) {
+            final SimpleDateFormat httpDateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            final Date retryAfterDate = httpDateFormat.parse(value, new ParsePosition(0));
+            if (retryAfterDate == null) {
+                Logger.v(TAG, "Ignoring invalid Retry-After header: " + value);
+                return 0;
+            }
+
+            return Math.max(0, retryAfterDate.getTime() - Clock.getInstance().currentTimeMillis());
+        }
+    }
+
+    /**
+     * Clears the shared throttle state.
+     */
+    void reset() {
+        mThrottledUntilNanos.clear();
+    }
+
+    /**
+     * Records the Retry-After of a response for the host, once a retry honoring it is scheduled, so
+     * that the other requests to the host do not send before it expires.
+     *
+     * @param host             Host the request is sent to.
+     * @param retryAfterMillis The Retry-After of the response.
+     */
+    void recordThrottle(final String host, final long retryAfterMillis) {
+        if (retryAfterMillis <= 0) {
+            return;
+        }
+
+        final String key = host.toLowerCase(Locale.US);
+        final long throttledUntilNanos = Clock.getInstance().nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+        while (true) {
+            final Long current = mThrottledUntilNanos.putIfAbsent(key, throttledUntilNanos);
+            if (current == null) {
+                return;
+            }
+
+            // Keep the latest expiry if several responses set it concurrently.
+            if (current - throttledUntilNanos >= 0
+                    || mThrottledUntilNanos.replace(key, current, throttledUntilNanos)) {
+                return;
+            }
+        }
+    }
+
+}
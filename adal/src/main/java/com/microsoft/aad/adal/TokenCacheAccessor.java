@@ -23,6 +23,7 @@
 package com.microsoft.aad.adal;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 
 import com.microsoft.aad.adal.AuthenticationResult.AuthenticationStatus;
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
@@ -45,11 +46,11 @@ import com.microsoft.identity.common.internal.providers.microsoft.azureactivedir
 import com.microsoft.identity.common.internal.providers.microsoft.azureactivedirectory.AzureActiveDirectoryTokenResponse;
 
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 import static com.microsoft.aad.adal.TokenEntryType.FRT_TOKEN_ENTRY;
@@ -63,6 +64,19 @@ import static com.microsoft.identity.common.internal.cache.AccountCredentialCach
 class TokenCacheAccessor {
     private static final String TAG = TokenCacheAccessor.class.getSimpleName();
 
+    /**
+     * Shared preferences recording, by store class and preferred cache host, the version of the
+     * migration of the aliased entries that ran on the store.
+     */
+    static final String ALIAS_MIGRATION_SHARED_PREFERENCE_NAME = "com.microsoft.aad.adal.cache.alias.migration";
+
+    /**
+     * Bump it to run the migration of the aliased entries again on the stores migrated before.
+     */
+    private static final int ALIAS_MIGRATION_VERSION = 1;
+
+    private final Context mContext;
+
     private final ITokenCacheStore mTokenCacheStore;
 
     private String mAuthority; // Remove final to update the authority when preferred cache location is not the same as passed in authority
@@ -85,6 +99,7 @@ class TokenCacheAccessor {
             throw new IllegalArgumentException("requestId");
         }
 
+        mContext = appContext;
         mTokenCacheStore = tokenCacheStore;
         mAuthority = authority;
         mTelemetryRequestId = telemetryRequestId;
@@ -150,7 +165,7 @@ class TokenCacheAccessor {
         throwIfMultipleATExisted(clientId, resource, user);
 
         if (!StringExtensions.isNullOrBlank(accessTokenItem.getAccessToken())) {
-            if (TokenCacheItem.isTokenExpired(accessTokenItem.getExpiresOn())) {
+            if (TokenCacheItem.isTokenExpired(accessTokenItem.getExpiresOnMillis())) {
                 Logger.v(TAG + methodName, "Access token exists, but already expired.");
                 return null;
             }
@@ -175,8 +190,8 @@ class TokenCacheAccessor {
         final String cacheKey = CacheKey.createCacheKeyForRTEntry(getAuthorityUrlWithPreferredCache(), resource, clientId, user);
 
         TokenCacheItem item = mTokenCacheStore.getItem(cacheKey);
-        // try all the alias
-        if (item == null) {
+        // try all the alias if they could not be migrated to the preferred cache location
+        if (item == null && !migrateAliasedEntries()) {
             item = performAdditionalCacheLookup(resource, clientId, null, user, REGULAR_TOKEN_ENTRY);
         }
 
@@ -197,7 +212,7 @@ class TokenCacheAccessor {
         final String cacheKey = CacheKey.createCacheKeyForMRRT(getAuthorityUrlWithPreferredCache(), clientId, user);
 
         TokenCacheItem item = mTokenCacheStore.getItem(cacheKey);
-        if (item == null) {
+        if (item == null && !migrateAliasedEntries()) {
             item = performAdditionalCacheLookup(null, clientId, null, user, MRRT_TOKEN_ENTRY);
         }
 
@@ -224,7 +239,7 @@ class TokenCacheAccessor {
         final String cacheKey = CacheKey.createCacheKeyForFRT(getAuthorityUrlWithPreferredCache(), familyClientId, user);
 
         TokenCacheItem item = mTokenCacheStore.getItem(cacheKey);
-        if (item == null) {
+        if (item == null && !migrateAliasedEntries()) {
             item = performAdditionalCacheLookup(null, null, familyClientId, user, FRT_TOKEN_ENTRY);
         }
         if (item != null) {
@@ -248,8 +263,8 @@ class TokenCacheAccessor {
 
         if (accessTokenItem != null
                 && !StringExtensions.isNullOrBlank(accessTokenItem.getAccessToken())
-                && accessTokenItem.getExtendedExpiresOn() != null
-                && !TokenCacheItem.isTokenExpired(accessTokenItem.getExtendedExpiresOn())) {
+                && accessTokenItem.getExtendedExpiresOnMillis() != TokenCacheItem.TIME_NOT_SET
+                && !TokenCacheItem.isTokenExpired(accessTokenItem.getExtendedExpiresOnMillis())) {
             throwIfMultipleATExisted(authRequest.getClientId(), authRequest.getResource(), authRequest.getUserFromRequest());
             Logger.i(TAG + methodName, "The stale access token is returned.", "");
             return accessTokenItem;
@@ -288,7 +303,7 @@ class TokenCacheAccessor {
             }
 
             try {
-                if (mUseCommonCache && !UrlExtensions.isADFSAuthority(new URL(mAuthority))) {
+                if (mUseCommonCache && !getAuthority().isADFS()) {
                     updateTokenCacheUsingCommonCache(request, result);
                 } else {
                     updateTokenCache(request, result);
@@ -311,7 +326,7 @@ class TokenCacheAccessor {
             return;
         }
 
-        if (mUseCommonCache && !UrlExtensions.isADFSAuthority(new URL(mAuthority))) {
+        if (mUseCommonCache && !getAuthority().isADFS()) {
             updateTokenCacheUsingCommonCache(request, result);
             return;
         }
@@ -339,14 +354,14 @@ class TokenCacheAccessor {
         AzureActiveDirectoryOAuth2Configuration config = new AzureActiveDirectoryOAuth2Configuration();
         config.setAuthorityHostValidationEnabled(this.isValidateAuthorityHost());
         if (null != this.mAuthority) {
-            config.setAuthorityUrl(new URL(this.mAuthority));
+            config.setAuthorityUrl(getAuthority().getUrl());
         }
         AzureActiveDirectoryOAuth2Strategy strategy = ad.createOAuth2Strategy(config);
         AzureActiveDirectoryAuthorizationRequest aadAuthRequest = new AzureActiveDirectoryAuthorizationRequest.Builder()
                 .setClientId(request.getClientId())
                 .setResource(request.getResource())
                 .setScope(request.getResource())
-                .setAuthority(new URL(mAuthority))
+                .setAuthority(getAuthority().getUrl())
                 .setRedirectUri(request.getRedirectUri())
                 .setLoginHint(request.getLoginHint())
                 .setCorrelationId(request.getCorrelationId())
@@ -660,6 +675,131 @@ class TokenCacheAccessor {
         return cacheEvent;
     }
 
+    /**
+     * Moves the entries keyed by an alias of the preferred cache host, written by older versions or
+     * before the instance discovery metadata was known, under the preferred cache host. It runs once
+     * per store and preferred cache host, recorded across processes, and only with metadata returned
+     * by the instance discovery since the aliased keys are removed. Entries of the passed in
+     * authority win over the ones of the other aliases, as in the lookup through aliases. Once
+     * migrated, entries are only written under the preferred cache host.
+     *
+     * @return True if the entries of the store are under the preferred cache host, now or by an
+     * earlier migration, false if the aliases have to be looked up: the migration cannot run with
+     * the cached metadata or the store cannot list its entries.
+     */
+    private boolean migrateAliasedEntries() throws MalformedURLException {
+        final String methodName = ":migrateAliasedEntries";
+        final InstanceDiscoveryMetadata metadata = getInstanceDiscoveryMetadata();
+        if (metadata == null || !metadata.isValidated() || metadata.getPreferredCache() == null) {
+            return true;
+        }
+
+        // The bundled snapshot can be outdated, do not remove keys based on it.
+        if (!AuthorityValidationMetadataCache.isReturnedByInstanceDiscovery(getAuthority().getUrl())) {
+            return false;
+        }
+
+        final String preferredCache = metadata.getPreferredCache().toLowerCase(Locale.US);
+        final SharedPreferences migrations = mContext.getSharedPreferences(ALIAS_MIGRATION_SHARED_PREFERENCE_NAME,
+                Context.MODE_PRIVATE);
+        final String migrationKey = mTokenCacheStore.getClass().getName() + "|" + preferredCache;
+        synchronized (mTokenCacheStore) {
+            if (migrations.getInt(migrationKey, 0) >= ALIAS_MIGRATION_VERSION) {
+                return true;
+            }
+
+            final Iterator<TokenCacheItem> allItems;
+            try {
+                allItems = mTokenCacheStore.getAll();
+            } catch (final UnsupportedOperationException e) {
+                return false;
+            }
+
+            if (allItems == null) {
+                return false;
+            }
+
+            final List<String> aliases = new ArrayList<>();
+            // The passed in authority first, then the other aliases in order.
+            aliases.add(getAuthority().getHost());
+            for (final String alias : metadata.getAliases()) {
+                if (!aliases.contains(alias.toLowerCase(Locale.US))) {
+                    aliases.add(alias.toLowerCase(Locale.US));
+                }
+            }
+            aliases.remove(preferredCache);
+
+            final List<List<TokenCacheItem>> itemsByAlias = new ArrayList<>();
+            for (int i = 0; i < aliases.size(); i++) {
+                itemsByAlias.add(new ArrayList<TokenCacheItem>());
+            }
+
+            while (allItems.hasNext()) {
+                final TokenCacheItem item = allItems.next();
+                final Authority itemAuthority = item == null ? null : Authority.ofOrNull(item.getAuthority());
+                final int aliasIndex = itemAuthority == null ? -1 : aliases.indexOf(itemAuthority.getHost());
+                if (aliasIndex >= 0) {
+                    itemsByAlias.get(aliasIndex).add(item);
+                }
+            }
+
+            int migratedCount = 0;
+            for (final List<TokenCacheItem> items : itemsByAlias) {
+                for (final TokenCacheItem item : items) {
+                    try {
+                        migratedCount += migrateAliasedItem(item, preferredCache);
+                    } catch (final IllegalArgumentException e) {
+                        // Incomplete item, no key can be created for it.
+                        Logger.v(TAG + methodName, "Aliased cache entry cannot be migrated. " + e.getMessage());
+                    }
+                }
+            }
+
+            migrations.edit().putInt(migrationKey, ALIAS_MIGRATION_VERSION).apply();
+            Logger.v(TAG + methodName, "Aliased cache entries migrated to the preferred cache location. ",
+                    "Preferred cache: " + preferredCache + " Entries: " + migratedCount, null);
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves the keys of the item under the preferred cache host, keeping the entry already there.
+     *
+     * @return The number of keys moved.
+     */
+    private int migrateAliasedItem(final TokenCacheItem item, final String preferredCache) throws MalformedURLException {
+        final TokenCacheItem migratedItem = new TokenCacheItem(item);
+        migratedItem.setAuthority(Authority.of(item.getAuthority()).onHost(preferredCache));
+
+        final Set<String> users = new HashSet<>();
+        users.add(null);
+        if (item.getUserInfo() != null) {
+            users.add(item.getUserInfo().getUserId());
+            users.add(item.getUserInfo().getDisplayableId());
+        }
+
+        int migratedCount = 0;
+        final TokenEntryType type = item.getTokenEntryType();
+        for (final String user : users) {
+            final String aliasedKey = getCacheKey(item.getAuthority(), item.getResource(), item.getClientId(), user,
+                    item.getFamilyClientId(), type);
+            if (aliasedKey == null || !mTokenCacheStore.contains(aliasedKey)) {
+                continue;
+            }
+
+            final String migratedKey = getCacheKey(migratedItem.getAuthority(), item.getResource(), item.getClientId(), user,
+                    item.getFamilyClientId(), type);
+            if (!mTokenCacheStore.contains(migratedKey)) {
+                mTokenCacheStore.setItem(migratedKey, migratedItem);
+            }
+            mTokenCacheStore.removeItem(aliasedKey);
+            migratedCount++;
+        }
+
+        return migratedCount;
+    }
+
     private TokenCacheItem performAdditionalCacheLookup(final String resource, final String clientid, final String familyClientId,
                                                         final String user, final TokenEntryType type) throws MalformedURLException {
         TokenCacheItem item = getTokenCacheItemFromPassedInAuthority(resource, clientid, familyClientId, user, type);
@@ -692,7 +832,7 @@ class TokenCacheAccessor {
         TokenCacheItem tokenCacheItemForAliasedHost = null;
         final List<String> aliasHosts = instanceDiscoveryMetadata.getAliases();
         for (final String aliasHost : aliasHosts) {
-            final String authority = constructAuthorityUrl(aliasHost);
+            final String authority = getAuthority().onHost(aliasHost);
             // Already looked cache with preferred cache location and passed in authority, needs to look through other
             // aliased host.
             if (authority.equalsIgnoreCase(mAuthority) || authority.equalsIgnoreCase(getAuthorityUrlWithPreferredCache())) {
@@ -732,28 +872,18 @@ class TokenCacheAccessor {
     }
 
     String getAuthorityUrlWithPreferredCache() throws MalformedURLException {
-        final InstanceDiscoveryMetadata instanceDiscoveryMetadata = getInstanceDiscoveryMetadata();
-        if (instanceDiscoveryMetadata == null || !instanceDiscoveryMetadata.isValidated()) {
-            return mAuthority;
-        }
-
-        final String preferredLocation = instanceDiscoveryMetadata.getPreferredCache();
-
         // mAuthority can be updated to preferred location.
-        return constructAuthorityUrl(preferredLocation);
+        return getAuthority().getPreferredCacheAuthority();
     }
 
-    private String constructAuthorityUrl(final String host) throws MalformedURLException {
-        final URL passedInAuthority = new URL(mAuthority);
-        if (passedInAuthority.getHost().equalsIgnoreCase(host)) {
-            return mAuthority;
-        }
-
-        return Discovery.constructAuthorityUrl(passedInAuthority, host).toString();
+    /**
+     * @return The parsed form of the current authority, shared with the rest of the pipeline.
+     */
+    private Authority getAuthority() throws MalformedURLException {
+        return Authority.of(mAuthority);
     }
 
     private InstanceDiscoveryMetadata getInstanceDiscoveryMetadata() throws MalformedURLException {
-        final URL passedInAuthority = new URL(mAuthority);
-        return AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(passedInAuthority);
+        return AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(getAuthority().getUrl());
     }
 }
@@ -23,10 +23,14 @@
 
 package com.microsoft.aad.adal;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Calendar;
 import java.util.Date;
 
 /**
@@ -40,7 +44,49 @@ public class TokenCacheItem implements Serializable {
      */
     private static final long serialVersionUID = 1L;
 
-    private static final String TAG = "TokenCacheItem";
+    /**
+     * Value of the time fields when they are not set. No real time takes it, a time at the epoch is
+     * a valid time and an expiry at the epoch is expired.
+     */
+    static final long TIME_NOT_SET = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    private static final String FIELD_USER_INFO = "mUserInfo";
+    private static final String FIELD_RESOURCE = "mResource";
+    private static final String FIELD_AUTHORITY = "mAuthority";
+    private static final String FIELD_CLIENT_ID = "mClientId";
+    private static final String FIELD_ACCESS_TOKEN = "mAccessToken";
+    private static final String FIELD_REFRESH_TOKEN = "mRefreshtoken";
+    private static final String FIELD_RAW_ID_TOKEN = "mRawIdToken";
+    private static final String FIELD_EXPIRES_ON = "mExpiresOn";
+    private static final String FIELD_IS_MRRT = "mIsMultiResourceRefreshToken";
+    private static final String FIELD_TENANT_ID = "mTenantId";
+    private static final String FIELD_FAMILY_CLIENT_ID = "mFamilyClientId";
+    private static final String FIELD_TOKEN_UPDATED_TIME = "mTokenUpdatedTime";
+    private static final String FIELD_EXTENDED_EXPIRES_ON = "mExtendedExpiresOn";
+    private static final String FIELD_SPE_RING = "mSpeRing";
+
+    /**
+     * Time fields are kept as epoch milliseconds but serialized as {@link Date}, so that items
+     * written by previous versions of {@link FileTokenCacheStore} can still be read.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField(FIELD_USER_INFO, UserInfo.class),
+            new ObjectStreamField(FIELD_RESOURCE, String.class),
+            new ObjectStreamField(FIELD_AUTHORITY, String.class),
+            new ObjectStreamField(FIELD_CLIENT_ID, String.class),
+            new ObjectStreamField(FIELD_ACCESS_TOKEN, String.class),
+            new ObjectStreamField(FIELD_REFRESH_TOKEN, String.class),
+            new ObjectStreamField(FIELD_RAW_ID_TOKEN, String.class),
+            new ObjectStreamField(FIELD_EXPIRES_ON, Date.class),
+            new ObjectStreamField(FIELD_IS_MRRT, boolean.class),
+            new ObjectStreamField(FIELD_TENANT_ID, String.class),
+            new ObjectStreamField(FIELD_FAMILY_CLIENT_ID, String.class),
+            new ObjectStreamField(FIELD_TOKEN_UPDATED_TIME, Date.class),
+            new ObjectStreamField(FIELD_EXTENDED_EXPIRES_ON, Date.class),
+            new ObjectStreamField(FIELD_SPE_RING, String.class)
+    };
 
     private UserInfo mUserInfo;
 
@@ -57,9 +103,10 @@ public class TokenCacheItem implements Serializable {
     private String mRawIdToken;
 
     /**
-     * This time is GMT.
+     * This time is GMT, in milliseconds since epoch.
      */
-    private Date mExpiresOn;
+    @JsonAdapter(EpochMillisDateAdapter.class)
+    private long mExpiresOn = TIME_NOT_SET;
 
     private boolean mIsMultiResourceRefreshToken;
 
@@ -67,9 +114,11 @@ public class TokenCacheItem implements Serializable {
 
     private String mFamilyClientId;
 
-    private Date mTokenUpdatedTime;
+    @JsonAdapter(EpochMillisDateAdapter.class)
+    private long mTokenUpdatedTime = TIME_NOT_SET;
 
-    private Date mExtendedExpiresOn;
+    @JsonAdapter(EpochMillisDateAdapter.class)
+    private long mExtendedExpiresOn = TIME_NOT_SET;
 
     private String mSpeRing;
 
@@ -88,11 +137,11 @@ public class TokenCacheItem implements Serializable {
         mRefreshtoken = tokenCacheItem.getRefreshToken();
         mRawIdToken = tokenCacheItem.getRawIdToken();
         mUserInfo = tokenCacheItem.getUserInfo();
-        mExpiresOn = tokenCacheItem.getExpiresOn();
+        mExpiresOn = tokenCacheItem.mExpiresOn;
         mIsMultiResourceRefreshToken = tokenCacheItem.getIsMultiResourceRefreshToken();
         mTenantId = tokenCacheItem.getTenantId();
         mFamilyClientId = tokenCacheItem.getFamilyClientId();
-        mExtendedExpiresOn = tokenCacheItem.getExtendedExpiresOn();
+        mExtendedExpiresOn = tokenCacheItem.mExtendedExpiresOn;
         mSpeRing = tokenCacheItem.getSpeRing();
     }
 
@@ -109,7 +158,7 @@ public class TokenCacheItem implements Serializable {
         }
 
         mAuthority = authority;
-        mExpiresOn = authenticationResult.getExpiresOn();
+        mExpiresOn = toMillis(authenticationResult.getExpiresOn());
         // Multi-resource refresh token won't have resource recorded. To support back-compability
         // for existing token cache item.
         mIsMultiResourceRefreshToken = authenticationResult.getIsMultiResourceRefreshToken();
@@ -118,7 +167,7 @@ public class TokenCacheItem implements Serializable {
         mRawIdToken = authenticationResult.getIdToken();
         mRefreshtoken = authenticationResult.getRefreshToken();
         mFamilyClientId = authenticationResult.getFamilyClientId();
-        mExtendedExpiresOn = authenticationResult.getExtendedExpiresOn();
+        mExtendedExpiresOn = toMillis(authenticationResult.getExtendedExpiresOn());
         if (null != authenticationResult.getCliTelemInfo()) {
             mSpeRing = authenticationResult.getCliTelemInfo().getSpeRing();
         }
@@ -283,7 +332,14 @@ public class TokenCacheItem implements Serializable {
      * @return the time the token get expired.
      */
     public Date getExpiresOn() {
-        return DateExtensions.createCopy(mExpiresOn);
+        return toDate(mExpiresOn);
+    }
+
+    /**
+     * @return the time the token get expired in milliseconds since epoch, or {@link #TIME_NOT_SET}.
+     */
+    final long getExpiresOnMillis() {
+        return mExpiresOn;
     }
 
     /**
@@ -292,7 +348,7 @@ public class TokenCacheItem implements Serializable {
      * @param expiresOn the expire time.
      */
     public void setExpiresOn(final Date expiresOn) {
-        mExpiresOn = DateExtensions.createCopy(expiresOn);
+        mExpiresOn = toMillis(expiresOn);
     }
 
     /**
@@ -373,7 +429,7 @@ public class TokenCacheItem implements Serializable {
      * @param extendedExpiresOn extended expired date.
      */
     public final void setExtendedExpiresOn(final Date extendedExpiresOn) {
-        mExtendedExpiresOn = DateExtensions.createCopy(extendedExpiresOn);
+        mExtendedExpiresOn = toMillis(extendedExpiresOn);
     }
 
     /**
@@ -382,7 +438,14 @@ public class TokenCacheItem implements Serializable {
      * @return the extended expired date.
      */
     public final Date getExtendedExpiresOn() {
-        return DateExtensions.createCopy(mExtendedExpiresOn);
+        return toDate(mExtendedExpiresOn);
+    }
+
+    /**
+     * @return the extended expired time in milliseconds since epoch, or {@link #TIME_NOT_SET}.
+     */
+    final long getExtendedExpiresOnMillis() {
+        return mExtendedExpiresOn;
     }
 
     /**
@@ -393,7 +456,7 @@ public class TokenCacheItem implements Serializable {
      */
     public final boolean isExtendedLifetimeValid() {
         //extended lifetime is only valid if it contains an access token
-        if (mExtendedExpiresOn != null && !StringExtensions.isNullOrBlank(mAccessToken)) {
+        if (mExtendedExpiresOn != TIME_NOT_SET && !StringExtensions.isNullOrBlank(mAccessToken)) {
             return !isTokenExpired(mExtendedExpiresOn);
         }
 
@@ -401,18 +464,13 @@ public class TokenCacheItem implements Serializable {
     }
 
     protected final Date getTokenUpdateTime() {
-        return this.mTokenUpdatedTime;
+        return toDate(mTokenUpdatedTime);
     }
 
     final void setTokenUpdateTime(final Date tokenUpateTime) {
-        if (null == tokenUpateTime) {
-            this.mTokenUpdatedTime = null;
-        } else {
-            this.mTokenUpdatedTime = new Date(tokenUpateTime.getTime());
-        }
+        mTokenUpdatedTime = toMillis(tokenUpateTime);
     }
 
-
     /**
      * Checks expiration time.
      *
@@ -420,14 +478,66 @@ public class TokenCacheItem implements Serializable {
      * @return true if expired
      */
     public static boolean isTokenExpired(final Date expiresOn) {
-        Calendar calendarWithBuffer = Calendar.getInstance();
-        calendarWithBuffer.add(Calendar.SECOND,
-                AuthenticationSettings.INSTANCE.getExpirationBuffer());
-        Date validity = calendarWithBuffer.getTime();
-        Logger.i(TAG, "Check token expiration time.", "expiresOn:" + expiresOn + " timeWithBuffer:" + calendarWithBuffer.getTime()
-                + " Buffer:" + AuthenticationSettings.INSTANCE.getExpirationBuffer());
-
-        return expiresOn != null && expiresOn.before(validity);
+        return expiresOn != null && isTokenExpired(expiresOn.getTime());
+    }
+
+    /**
+     * Checks expiration time against {@link Clock} with the expiration buffer from
+     * {@link AuthenticationSettings}.
+     *
+     * @param expiresOnMillis the time in milliseconds since epoch to check if it is expired,
+     *                        {@link #TIME_NOT_SET} is never expired.
+     * @return true if expired
+     */
+    static boolean isTokenExpired(final long expiresOnMillis) {
+        final long validity = Clock.getInstance().currentTimeMillis()
+                + AuthenticationSettings.INSTANCE.getExpirationBuffer() * MILLIS_PER_SECOND;
+        return expiresOnMillis != TIME_NOT_SET && expiresOnMillis < validity;
+    }
+
+    private static long toMillis(final Date date) {
+        return date == null ? TIME_NOT_SET : date.getTime();
+    }
+
+    private static Date toDate(final long millis) {
+        return millis == TIME_NOT_SET ? null : new Date(millis);
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put(FIELD_USER_INFO, mUserInfo);
+        fields.put(FIELD_RESOURCE, mResource);
+        fields.put(FIELD_AUTHORITY, mAuthority);
+        fields.put(FIELD_CLIENT_ID, mClientId);
+        fields.put(FIELD_ACCESS_TOKEN, mAccessToken);
+        fields.put(FIELD_REFRESH_TOKEN, mRefreshtoken);
+        fields.put(FIELD_RAW_ID_TOKEN, mRawIdToken);
+        fields.put(FIELD_EXPIRES_ON, toDate(mExpiresOn));
+        fields.put(FIELD_IS_MRRT, mIsMultiResourceRefreshToken);
+        fields.put(FIELD_TENANT_ID, mTenantId);
+        fields.put(FIELD_FAMILY_CLIENT_ID, mFamilyClientId);
+        fields.put(FIELD_TOKEN_UPDATED_TIME, toDate(mTokenUpdatedTime));
+        fields.put(FIELD_EXTENDED_EXPIRES_ON, toDate(mExtendedExpiresOn));
+        fields.put(FIELD_SPE_RING, mSpeRing);
+        out.writeFields();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        mUserInfo = (UserInfo) fields.get(FIELD_USER_INFO, null);
+        mResource = (String) fields.get(FIELD_RESOURCE, null);
+        mAuthority = (String) fields.get(FIELD_AUTHORITY, null);
+        mClientId = (String) fields.get(FIELD_CLIENT_ID, null);
+        mAccessToken = (String) fields.get(FIELD_ACCESS_TOKEN, null);
+        mRefreshtoken = (String) fields.get(FIELD_REFRESH_TOKEN, null);
+        mRawIdToken = (String) fields.get(FIELD_RAW_ID_TOKEN, null);
+        mExpiresOn = toMillis((Date) fields.get(FIELD_EXPIRES_ON, null));
+        mIsMultiResourceRefreshToken = fields.get(FIELD_IS_MRRT, false);
+        mTenantId = (String) fields.get(FIELD_TENANT_ID, null);
+        mFamilyClientId = (String) fields.get(FIELD_FAMILY_CLIENT_ID, null);
+        mTokenUpdatedTime = toMillis((Date) fields.get(FIELD_TOKEN_UPDATED_TIME, null));
+        mExtendedExpiresOn = toMillis((Date) fields.get(FIELD_EXTENDED_EXPIRES_ON, null));
+        mSpeRing = (String) fields.get(FIELD_SPE_RING, null);
     }
 
     /**
@@ -0,0 +1,296 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.content.SharedPreferences;
+import android.os.Process;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Re-encrypts the entries of {@link DefaultTokenCacheStore} with the current key, for example
+ * after switching between the key persisted in AndroidKeyStore and a key provided through
+ * {@link AuthenticationSettings#setSecretKey(byte[])}. Entries are decrypted with the key they
+ * were written with, so they stay usable instead of being dropped on the next read.
+ * <p>
+ * The job walks the cache in batches on a background thread with background priority, pausing
+ * between batches so that it does not compete with token requests. Each batch is committed in
+ * one write, under the write lock of the cache so that entries written by token requests in the
+ * meantime are kept. Entries already encrypted with the current key are skipped without being
+ * decrypted, so a cancelled or interrupted job resumes where it left off when started again.
+ */
+public class TokenCacheReEncryptionJob {
+
+    private static final String TAG = "TokenCacheReEncryptionJob";
+
+    private static final int DEFAULT_BATCH_SIZE = 20;
+
+    private static final long DEFAULT_BATCH_PAUSE_MILLIS = 100;
+
+    /**
+     * Listener for the progress of {@link TokenCacheReEncryptionJob}. Methods are called on the
+     * job thread.
+     */
+    public interface Listener {
+        /**
+         * Called after a batch has been committed.
+         *
+         * @param processed Number of entries processed so far.
+         * @param total     Number of entries in the cache when the job started.
+         */
+        void onProgress(int processed, int total);
+
+        /**
+         * Called when the job has walked the whole cache or was cancelled.
+         *
+         * @param reEncrypted Number of entries re-encrypted with the current key.
+         * @param failed      Number of entries that could not be decrypted. They are kept in the cache.
+         *                    Entries rewritten or removed by token requests while the job ran are
+         *                    counted in neither.
+         */
+        void onCompleted(int reEncrypted, int failed);
+    }
+
+    private final DefaultTokenCacheStore mCacheStore;
+
+    private final AtomicBoolean mIsRunning = new AtomicBoolean(false);
+
+    private volatile boolean mIsCancelled = false;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    private long mBatchPauseMillis = DEFAULT_BATCH_PAUSE_MILLIS;
+
+    private Listener mListener;
+
+    /**
+     * @param cacheStore The {@link DefaultTokenCacheStore} to re-encrypt.
+     */
+    public TokenCacheReEncryptionJob(final DefaultTokenCacheStore cacheStore) {
+        if (cacheStore == null) {
+            throw new IllegalArgumentException("cacheStore");
+        }
+
+        mCacheStore = cacheStore;
+    }
+
+    /**
+     * @param batchSize Number of entries committed together. Default is 20.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * @param batchPauseMillis Time in milliseconds to pause between batches. Default is 100.
+     */
+    public void setBatchPauseMillis(final long batchPauseMillis) {
+        if (batchPauseMillis < 0) {
+            throw new IllegalArgumentException("batchPauseMillis");
+        }
+
+        mBatchPauseMillis = batchPauseMillis;
+    }
+
+    /**
+     * @param listener {@link Listener} to report progress to, can be null.
+     */
+    public void setListener(final Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts the job on a background thread. Does nothing if the job is already running.
+     */
+    public void start() {
+        if (!mIsRunning.compareAndSet(false, true)) {
+            Logger.v(TAG, "Re-encryption job is already running.");
+            return;
+        }
+
+        mIsCancelled = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    runBatches();
+                } finally {
+                    mIsRunning.set(false);
+                }
+            }
+        }, "adal-cache-reencryption").start();
+    }
+
+    /**
+     * Stops the job after the current batch has been committed.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+    }
+
+    /**
+     * Walks the cache on the calling thread.
+     */
+    void runBatches() {
+        final String methodName = ":runBatches";
+        final String currentKeyVersion = DefaultTokenCacheStore.getCurrentKeyVersion();
+        final SharedPreferences prefs = mCacheStore.getSharedPreferences();
+
+        // Sorted snapshot of the cache, so that the walk order is stable across runs.
+        final Map<String, String> entries = new TreeMap<>();
+        for (final Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof String) {
+                entries.put(entry.getKey(), (String) entry.getValue());
+            }
+        }
+
+        Logger.i(TAG + methodName, "Start re-encrypting token cache. ",
+                "Entries: " + entries.size() + " Key version: " + currentKeyVersion);
+        final int total = entries.size();
+        final List<Map.Entry<String, String>> batch = new ArrayList<>(mBatchSize);
+        int processed = 0;
+        int reEncrypted = 0;
+        int failed = 0;
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            if (mIsCancelled) {
+                Logger.v(TAG + methodName, "Re-encryption job is cancelled.");
+                break;
+            }
+
+            processed++;
+            if (!currentKeyVersion.equals(DefaultTokenCacheStore.getKeyVersion(entry.getValue()))) {
+                batch.add(entry);
+            }
+
+            if (batch.size() == mBatchSize || processed == total) {
+                final Map<String, String> reEncryptedEntries = reEncryptBatch(batch);
+                failed += batch.size() - reEncryptedEntries.size();
+                reEncrypted += commitBatch(prefs, batch, reEncryptedEntries);
+                batch.clear();
+
+                if (mListener != null) {
+                    mListener.onProgress(processed, total);
+                }
+
+                if (processed < total && !pause()) {
+                    break;
+                }
+            }
+        }
+
+        Logger.i(TAG + methodName, "Finished re-encrypting token cache. ",
+                "Re-encrypted: " + reEncrypted + " Failed: " + failed);
+        if (mListener != null) {
+            mListener.onCompleted(reEncrypted, failed);
+        }
+    }
+
+    /**
+     * Re-encrypts the batch outside of the write lock, decryption is the slow part.
+     *
+     * @return The re-encrypted values by key, without the entries that could not be decrypted.
+     */
+    private Map<String, String> reEncryptBatch(final List<Map.Entry<String, String>> batch) {
+        final String methodName = ":reEncryptBatch";
+        final Map<String, String> reEncryptedEntries = new TreeMap<>();
+        for (final Map.Entry<String, String> entry : batch) {
+            try {
+                reEncryptedEntries.put(entry.getKey(), mCacheStore.reEncrypt(entry.getValue()));
+            } catch (final GeneralSecurityException | IOException | IllegalArgumentException e) {
+                // Leave the entry as is, failing the job should not sign the user out.
+                Logger.w(TAG + methodName, "Failed to re-encrypt cache entry. ", e.getMessage(),
+                        ADALError.DECRYPTION_FAILED);
+            }
+        }
+
+        return reEncryptedEntries;
+    }
+
+    /**
+     * Commits the re-encrypted entries in one write, skipping the ones a token request rewrote or
+     * removed since they were read.
+     *
+     * @return The number of entries written.
+     */
+    private int commitBatch(final SharedPreferences prefs, final List<Map.Entry<String, String>> batch,
+                            final Map<String, String> reEncryptedEntries) {
+        final String methodName = ":commitBatch";
+        if (reEncryptedEntries.isEmpty()) {
+            return 0;
+        }
+
+        // The check and the commit must not interleave with a token request writing the same entry.
+        synchronized (DefaultTokenCacheStore.getWriteLock()) {
+            final SharedPreferences.Editor editor = prefs.edit();
+            int written = 0;
+            for (final Map.Entry<String, String> entry : batch) {
+                final String reEncryptedValue = reEncryptedEntries.get(entry.getKey());
+                if (reEncryptedValue != null && entry.getValue().equals(prefs.getString(entry.getKey(), null))) {
+                    editor.putString(entry.getKey(), reEncryptedValue);
+                    written++;
+                }
+            }
+
+            if (written > 0 && !editor.commit()) {
+                Logger.w(TAG + methodName, "Failed to commit re-encrypted batch.", "", ADALError.ENCRYPTION_FAILED);
+                return 0;
+            }
+
+            if (written < reEncryptedEntries.size()) {
+                Logger.v(TAG + methodName, "Cache entries changed by token requests are skipped: "
+                        + (reEncryptedEntries.size() - written));
+            }
+
+            return written;
+        }
+    }
+
+    /**
+     * @return false if the job thread is interrupted.
+     */
+    private boolean pause() {
+        if (mBatchPauseMillis == 0) {
+            return true;
+        }
+
+        try {
+            Thread.sleep(mBatchPauseMillis);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
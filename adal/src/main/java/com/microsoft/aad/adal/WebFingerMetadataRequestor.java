@@ -51,12 +51,7 @@ class WebFingerMetadataRequestor
             URL webFingerUrl = buildWebFingerUrl(domain, drsMetadata);
 
             // make the request
-            final HttpWebResponse webResponse =
-                    getWebrequestHandler()
-                            .sendGet(
-                                    webFingerUrl,
-                                    new HashMap<String, String>()
-                            );
+            final HttpWebResponse webResponse = sendGet(webFingerUrl, new HashMap<String, String>());
 
             // get the status code
             final int statusCode = webResponse.getStatusCode();
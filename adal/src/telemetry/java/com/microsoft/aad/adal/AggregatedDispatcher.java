@@ -23,13 +23,18 @@
 
 package com.microsoft.aad.adal;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 final class AggregatedDispatcher extends DefaultDispatcher {
 
+    /**
+     * The aggregated events of the requests not flushed yet, keyed by request id.
+     */
+    private final ConcurrentMap<String, RequestAggregate> mRequestAggregates = new ConcurrentHashMap<>();
+
     AggregatedDispatcher(final IDispatcher dispatcher) {
         super(dispatcher);
     }
@@ -39,38 +44,91 @@ final class AggregatedDispatcher extends DefaultDispatcher {
      * This class condenses multiple telemetry events to a single one.
      * A part of the work done in this class is to remove the duplicate event properties from the events which all
      * have the common fields like application_name et al from DefaultEvents class
+     * The events are aggregated as they are received, the flush of a request only hands its aggregate over to the
+     * dispatcher and does not wait on the other requests.
      * @param requestId to be aggregated
      */
-    @SuppressWarnings("unchecked")
-    synchronized void flush(final String requestId) {
-        final Map<String, String> dispatchMap = new HashMap<>();
+    void flush(final String requestId) {
         if (getDispatcher() == null) {
             return;
         }
 
-        final List<IEvents> events = getObjectsToBeDispatched().remove(requestId);
-        if (events == null || events.isEmpty()) {
+        final RequestAggregate requestAggregate = mRequestAggregates.remove(requestId);
+        if (requestAggregate == null) {
             return;
         }
 
-        for (int i = 0; i < events.size(); i++) {
-            IEvents event = events.get(i);
-
-            // The child class of IEvent that is received here will call its processEvent
-            event.processEvent(dispatchMap);
+        final Map<String, String> dispatchMap = requestAggregate.close();
+        if (dispatchMap == null) {
+            return;
         }
 
         getDispatcher().dispatchEvent(dispatchMap);
     }
 
-    @SuppressWarnings("unchecked")
     void receive(final String requestId, final IEvents events) {
-        List<IEvents> eventsList = getObjectsToBeDispatched().get(requestId);
-        if (eventsList == null) {
-            eventsList = new ArrayList<>();
+        if (getDispatcher() == null) {
+            return;
+        }
+
+        while (true) {
+            RequestAggregate requestAggregate = mRequestAggregates.get(requestId);
+            if (requestAggregate == null) {
+                final RequestAggregate newRequestAggregate = new RequestAggregate();
+                requestAggregate = mRequestAggregates.putIfAbsent(requestId, newRequestAggregate);
+                if (requestAggregate == null) {
+                    requestAggregate = newRequestAggregate;
+                }
+            }
+
+            if (requestAggregate.add(events)) {
+                return;
+            }
+
+            // The request was flushed concurrently, the event starts a new aggregate.
+            mRequestAggregates.remove(requestId, requestAggregate);
+        }
+    }
+
+    /**
+     * @return The number of requests with aggregated events not flushed yet.
+     */
+    int getPendingRequestCount() {
+        return mRequestAggregates.size();
+    }
+
+    /**
+     * The events of a request, merged into its dispatch map as they are received. Only the stages of
+     * the same request synchronize on it.
+     */
+    private static final class RequestAggregate {
+
+        private final Map<String, String> mDispatchMap = new HashMap<>();
+
+        private boolean mIsEmpty = true;
+
+        private boolean mIsClosed = false;
+
+        /**
+         * @return false if the aggregate was already flushed.
+         */
+        synchronized boolean add(final IEvents events) {
+            if (mIsClosed) {
+                return false;
+            }
+
+            // The child class of IEvent that is received here will call its processEvent
+            events.processEvent(mDispatchMap);
+            mIsEmpty = false;
+            return true;
         }
 
-        eventsList.add(events);
-        getObjectsToBeDispatched().put(requestId, eventsList);
+        /**
+         * @return The aggregated dispatch map, null if no event was received.
+         */
+        synchronized Map<String, String> close() {
+            mIsClosed = true;
+            return mIsEmpty ? null : mDispatchMap;
+        }
     }
 }
@@ -0,0 +1,160 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the events over to the app's {@link IDispatcher} on a background thread, so that a slow
+ * dispatcher does not delay the thread completing the request. The events wait in a bounded
+ * queue; once it is full they are dropped and counted, or the caller waits for space when
+ * {@link AuthenticationSettings#getTelemetryDispatchBlockWhenFull()} is set.
+ */
+final class AsyncDispatcher implements IDispatcher {
+
+    private static final String TAG = AsyncDispatcher.class.getSimpleName();
+
+    /**
+     * Maximum number of events handed over to the dispatcher per wake up of the background thread.
+     */
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private final IDispatcher mDispatcher;
+
+    private final boolean mBlockWhenFull;
+
+    private final Queue<Map<String, String>> mEvents = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Free slots in the queue.
+     */
+    private final Semaphore mFreeSlots;
+
+    /**
+     * Events in the queue waiting for the background thread.
+     */
+    private final Semaphore mQueuedEvents = new Semaphore(0);
+
+    private final AtomicLong mDroppedEventCount = new AtomicLong();
+
+    private volatile boolean mIsClosed = false;
+
+    AsyncDispatcher(final IDispatcher dispatcher, final int capacity, final boolean blockWhenFull) {
+        mDispatcher = dispatcher;
+        mBlockWhenFull = blockWhenFull;
+        mFreeSlots = new Semaphore(capacity);
+
+        final Thread dispatchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "adal-telemetry-dispatch");
+        dispatchThread.setDaemon(true);
+        dispatchThread.start();
+    }
+
+    @Override
+    public void dispatchEvent(final Map<String, String> events) {
+        if (mIsClosed) {
+            mDroppedEventCount.incrementAndGet();
+            return;
+        }
+
+        if (!mFreeSlots.tryAcquire()) {
+            if (!mBlockWhenFull) {
+                if (mDroppedEventCount.incrementAndGet() == 1) {
+                    Logger.w(TAG, "Telemetry dispatch queue is full, events are dropped.", "", null);
+                }
+                return;
+            }
+
+            try {
+                mFreeSlots.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mDroppedEventCount.incrementAndGet();
+                return;
+            }
+        }
+
+        mEvents.offer(events);
+        mQueuedEvents.release();
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full.
+     */
+    long getDroppedEventCount() {
+        return mDroppedEventCount.get();
+    }
+
+    /**
+     * Stops the background thread once the queued events are dispatched. The events received
+     * afterwards are dropped.
+     */
+    void close() {
+        mIsClosed = true;
+        mQueuedEvents.release();
+    }
+
+    private void drain() {
+        while (true) {
+            try {
+                mQueuedEvents.acquire();
+            } catch (final InterruptedException e) {
+                return;
+            }
+
+            int batchSize = 1 + mQueuedEvents.drainPermits();
+            if (batchSize > MAX_BATCH_SIZE) {
+                mQueuedEvents.release(batchSize - MAX_BATCH_SIZE);
+                batchSize = MAX_BATCH_SIZE;
+            }
+
+            for (int i = 0; i < batchSize; i++) {
+                final Map<String, String> events = mEvents.poll();
+                if (events == null) {
+                    // The permit released by close.
+                    break;
+                }
+
+                mFreeSlots.release();
+                try {
+                    mDispatcher.dispatchEvent(events);
+                } catch (final RuntimeException e) {
+                    Logger.w(TAG, "Telemetry dispatcher failed. ", e.getMessage(), null);
+                }
+            }
+
+            if (mIsClosed && mEvents.isEmpty()) {
+                return;
+            }
+        }
+    }
+}
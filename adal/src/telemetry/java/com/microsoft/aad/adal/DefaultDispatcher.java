@@ -34,7 +34,6 @@ import java.util.Map;
  * The expectation is that the data will be correlated at the query.
  */
 class DefaultDispatcher {
-    private final Map<String, List<IEvents>> mObjectsToBeDispatched = new HashMap<>();
     private final IDispatcher mDispatcher;
 
     private DefaultDispatcher() {
@@ -49,7 +48,7 @@ class DefaultDispatcher {
      * Flush is intentionally blank here, events are dispatched as they are received.
      * @param requestId
      */
-    synchronized void flush(final String requestId) {
+    void flush(final String requestId) {
     }
 
     void receive(final String requestId, final IEvents events) {
@@ -70,8 +69,4 @@ class DefaultDispatcher {
     IDispatcher getDispatcher() {
         return mDispatcher;
     }
-
-    Map<String, List<IEvents>> getObjectsToBeDispatched() {
-        return mObjectsToBeDispatched;
-    }
 }
\ No newline at end of file
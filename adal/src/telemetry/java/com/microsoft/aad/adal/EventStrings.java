@@ -140,6 +140,14 @@ final class EventStrings {
 
     static final String HTTP_API_VERSION = EVENT_PREFIX + "api_version";
 
+    static final String HTTP_RESPONSE_COMPRESSED_BYTES = EVENT_PREFIX + "response_compressed_bytes";
+
+    static final String HTTP_RESPONSE_UNCOMPRESSED_BYTES = EVENT_PREFIX + "response_uncompressed_bytes";
+
+    static final String HTTP_CIRCUIT_BREAKER_STATE = EVENT_PREFIX + "circuit_breaker_state";
+
+    static final String HTTP_CIRCUIT_BREAKER_TRANSITION = EVENT_PREFIX + "circuit_breaker_transition";
+
     static final String REQUEST_ID_HEADER = EVENT_PREFIX + "x_ms_request_id";
 
     static final String SERVER_ERROR_CODE = EVENT_PREFIX + "server_error_code";
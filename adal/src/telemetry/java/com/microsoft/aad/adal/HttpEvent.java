@@ -61,6 +61,26 @@ final class HttpEvent extends DefaultEvent {
         setProperty(EventStrings.HTTP_API_VERSION, apiVersion);
     }
 
+    void setResponseSize(final long compressedBytes, final long uncompressedBytes) {
+        setProperty(EventStrings.HTTP_RESPONSE_COMPRESSED_BYTES, String.valueOf(compressedBytes));
+        setProperty(EventStrings.HTTP_RESPONSE_UNCOMPRESSED_BYTES, String.valueOf(uncompressedBytes));
+    }
+
+    /**
+     * @param state State of the circuit breaker of the host when the request was sent, or
+     *              rejected if it is open.
+     */
+    void setCircuitBreakerState(final String state) {
+        setProperty(EventStrings.HTTP_CIRCUIT_BREAKER_STATE, state);
+    }
+
+    /**
+     * @param newState State the circuit breaker of the host moved to because of this request.
+     */
+    void setCircuitBreakerTransition(final String newState) {
+        setProperty(EventStrings.HTTP_CIRCUIT_BREAKER_TRANSITION, newState);
+    }
+
     void setHttpPath(final URL httpPath) {
         final String authority = httpPath.getAuthority();
         if (!Discovery.getValidHosts().contains(authority)) {
@@ -138,14 +158,7 @@ final class HttpEvent extends DefaultEvent {
      */
     @Override
     public void processEvent(final Map<String, String> dispatchMap) {
-        final String countObject = dispatchMap.get(EventStrings.HTTP_EVENT_COUNT);
-
-        if (countObject == null) {
-            dispatchMap.put(EventStrings.HTTP_EVENT_COUNT, "1");
-        } else {
-            dispatchMap.put(EventStrings.HTTP_EVENT_COUNT,
-                    Integer.toString(Integer.parseInt(countObject) + 1));
-        }
+        incrementCount(dispatchMap, EventStrings.HTTP_EVENT_COUNT);
 
         // If there was a previous entry clear out its fields.
         if (dispatchMap.containsKey(EventStrings.HTTP_RESPONSE_CODE)) {
@@ -191,9 +204,33 @@ final class HttpEvent extends DefaultEvent {
                     || name.equals(EventStrings.SERVER_ERROR_CODE)
                     || name.equals(EventStrings.SERVER_SUBERROR_CODE)
                     || name.equals(EventStrings.TOKEN_AGE)
-                    || name.equals(EventStrings.SPE_INFO)) {
+                    || name.equals(EventStrings.SPE_INFO)
+                    || name.equals(EventStrings.HTTP_CIRCUIT_BREAKER_STATE)
+                    || name.equals(EventStrings.HTTP_CIRCUIT_BREAKER_TRANSITION)) {
                 dispatchMap.put(name, eventPair.second);
+            } else if (name.equals(EventStrings.HTTP_RESPONSE_COMPRESSED_BYTES)
+                    || name.equals(EventStrings.HTTP_RESPONSE_UNCOMPRESSED_BYTES)) {
+                // Response sizes are summed across the http events of the request.
+                addToTotal(dispatchMap, name, Long.parseLong(eventPair.second));
             }
         }
     }
+
+    private static void addToTotal(final Map<String, String> dispatchMap, final String totalName, final long value) {
+        final String totalObject = dispatchMap.get(totalName);
+        if (totalObject == null) {
+            dispatchMap.put(totalName, Long.toString(value));
+        } else {
+            dispatchMap.put(totalName, Long.toString(Long.parseLong(totalObject) + value));
+        }
+    }
+
+    private static void incrementCount(final Map<String, String> dispatchMap, final String countName) {
+        final String countObject = dispatchMap.get(countName);
+        if (countObject == null) {
+            dispatchMap.put(countName, "1");
+        } else {
+            dispatchMap.put(countName, Integer.toString(Integer.parseInt(countObject) + 1));
+        }
+    }
 }
@@ -23,26 +23,29 @@
 
 package com.microsoft.aad.adal;
 
-import com.microsoft.identity.common.adal.internal.util.StringExtensions;
-
-import android.util.Pair;
-
-import java.util.Map;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public final class Telemetry {
     private static final String TAG = Telemetry.class.getSimpleName();
-    private DefaultDispatcher mDispatcher = null;
+    private volatile DefaultDispatcher mDispatcher = null;
+    private AsyncDispatcher mAsyncDispatcher = null;
     private static boolean sAllowPii = false;
-    private final Map<Pair<String, String>, String> mEventTracking = new ConcurrentHashMap<Pair<String, String>, String>();
+
+    /**
+     * The events in progress of the requests in progress, keyed by request id.
+     */
+    private final ConcurrentMap<String, RequestEvents> mRequestEvents = new ConcurrentHashMap<>();
     private static final Telemetry INSTANCE = new Telemetry();
 
     /**
      * Method to get the singleton instance of the Telemetry object.
      * @return Telemetry object
      */
-    public static synchronized Telemetry getInstance() {
+    public static Telemetry getInstance() {
         return INSTANCE;
     }
 
@@ -78,17 +81,43 @@ public final class Telemetry {
      * The choice between aggregation required or not should be made based on what Telemetry system is being used and
      * whether its optimized to aggregate or handle large telemetry payloads.
      *
+     * If {@link AuthenticationSettings#getTelemetryDispatchAsync()} is set, the dispatcher is called on a background
+     * thread.
+     *
      * @param dispatcher the IDispatcher interface to be registered
      * @param aggregationRequired true if client wants a single event per call to AcquireToken, false otherwise
      */
     public synchronized void registerDispatcher(final IDispatcher dispatcher, final boolean aggregationRequired) {
+        if (mAsyncDispatcher != null) {
+            mAsyncDispatcher.close();
+            mAsyncDispatcher = null;
+        }
+
+        IDispatcher targetDispatcher = dispatcher;
+        if (dispatcher != null && AuthenticationSettings.INSTANCE.getTelemetryDispatchAsync()) {
+            mAsyncDispatcher = new AsyncDispatcher(dispatcher,
+                    AuthenticationSettings.INSTANCE.getTelemetryDispatchQueueCapacity(),
+                    AuthenticationSettings.INSTANCE.getTelemetryDispatchBlockWhenFull());
+            targetDispatcher = mAsyncDispatcher;
+        }
+
         if (aggregationRequired) {
-            mDispatcher = new AggregatedDispatcher(dispatcher);
+            mDispatcher = new AggregatedDispatcher(targetDispatcher);
         } else {
-            mDispatcher = new DefaultDispatcher(dispatcher);
+            mDispatcher = new DefaultDispatcher(targetDispatcher);
         }
     }
 
+    /**
+     * Gets the number of telemetry events dropped because the asynchronous dispatch queue was full, since the
+     * dispatcher was registered.
+     *
+     * @return the dropped event count, 0 if the events are not dispatched asynchronously.
+     */
+    public synchronized long getDroppedEventCount() {
+        return mAsyncDispatcher == null ? 0 : mAsyncDispatcher.getDroppedEventCount();
+    }
+
     static String registerNewRequest() {
         return UUID.randomUUID().toString();
     }
@@ -99,35 +128,66 @@ public final class Telemetry {
             return;
         }
 
-        mEventTracking.put(new Pair<>(requestId, eventName), Long.toString(System.currentTimeMillis()));
+        final Clock clock = Clock.getInstance();
+        final long startTimeMillis = clock.currentTimeMillis();
+        final long startTimeNanos = clock.nanoTime();
+        while (true) {
+            RequestEvents requestEvents = mRequestEvents.get(requestId);
+            if (requestEvents == null) {
+                final RequestEvents newRequestEvents = new RequestEvents();
+                requestEvents = mRequestEvents.putIfAbsent(requestId, newRequestEvents);
+                if (requestEvents == null) {
+                    requestEvents = newRequestEvents;
+                }
+            }
+
+            if (requestEvents.start(eventName, startTimeMillis, startTimeNanos)) {
+                return;
+            }
+
+            // The request completed its last event concurrently, start over with a new one.
+            mRequestEvents.remove(requestId, requestEvents);
+        }
     }
 
     void stopEvent(final String requestId, final IEvents events, final String eventName) {
         // We do not need to log if we do not have a dispatcher.
-        if (mDispatcher == null) {
+        final DefaultDispatcher dispatcher = mDispatcher;
+        if (dispatcher == null) {
             return;
         }
 
-        final String startTime = mEventTracking.remove(new Pair<>(requestId, eventName));
+        final long stopTimeNanos = Clock.getInstance().nanoTime();
+        final RequestEvents requestEvents = mRequestEvents.get(requestId);
+        boolean isStarted = false;
+        long startTimeMillis = 0;
+        long diffTime = 0;
+        if (requestEvents != null) {
+            synchronized (requestEvents) {
+                final int index = requestEvents.indexOf(eventName);
+                if (index >= 0) {
+                    isStarted = true;
+                    startTimeMillis = requestEvents.mStartTimesMillis[index];
+                    diffTime = TimeUnit.NANOSECONDS.toMillis(stopTimeNanos - requestEvents.mStartTimesNanos[index]);
+                    if (requestEvents.remove(index)) {
+                        mRequestEvents.remove(requestId, requestEvents);
+                    }
+                }
+            }
+        }
 
-        // If we did not get anything back from the dictionary, most likely its a bug that stopEvent was called without
+        // If we did not find the event, most likely its a bug that stopEvent was called without
         // a corresponding startEvent
-        if (StringExtensions.isNullOrBlank(startTime)) {
+        if (!isStarted) {
             Logger.w(TAG, "Stop Event called without a corresponding start_event", "", null);
             return;
         }
 
-        long startTimeLong = Long.parseLong(startTime);
-        long stopTimeLong  = System.currentTimeMillis();
-        long diffTime = stopTimeLong - startTimeLong;
-
-        final String stopTime = Long.toString(stopTimeLong);
-
-        events.setProperty(EventStrings.START_TIME, startTime);
-        events.setProperty(EventStrings.STOP_TIME, stopTime);
+        events.setProperty(EventStrings.START_TIME, Long.toString(startTimeMillis));
+        events.setProperty(EventStrings.STOP_TIME, Long.toString(startTimeMillis + diffTime));
         events.setProperty(EventStrings.RESPONSE_TIME, Long.toString(diffTime));
 
-        mDispatcher.receive(requestId, events);
+        dispatcher.receive(requestId, events);
     }
 
     void flush(final String requestId) {
@@ -135,4 +195,76 @@ public final class Telemetry {
             mDispatcher.flush(requestId);
         }
     }
+
+    /**
+     * The events in progress of a request: their names and start times, in primitive arrays that
+     * only grow with the number of events in progress at the same time.
+     */
+    private static final class RequestEvents {
+
+        private static final int INITIAL_CAPACITY = 4;
+
+        private String[] mEventNames = new String[INITIAL_CAPACITY];
+
+        private long[] mStartTimesMillis = new long[INITIAL_CAPACITY];
+
+        private long[] mStartTimesNanos = new long[INITIAL_CAPACITY];
+
+        private int mSize = 0;
+
+        /**
+         * Set once the last event in progress stopped, the request events are not used anymore.
+         */
+        private boolean mIsCompleted = false;
+
+        /**
+         * @return false if the request events completed and cannot be used anymore.
+         */
+        synchronized boolean start(final String eventName, final long startTimeMillis, final long startTimeNanos) {
+            if (mIsCompleted) {
+                return false;
+            }
+
+            int index = indexOf(eventName);
+            if (index < 0) {
+                if (mSize == mEventNames.length) {
+                    final int capacity = mSize * 2;
+                    mEventNames = Arrays.copyOf(mEventNames, capacity);
+                    mStartTimesMillis = Arrays.copyOf(mStartTimesMillis, capacity);
+                    mStartTimesNanos = Arrays.copyOf(mStartTimesNanos, capacity);
+                }
+
+                index = mSize++;
+                mEventNames[index] = eventName;
+            }
+
+            mStartTimesMillis[index] = startTimeMillis;
+            mStartTimesNanos[index] = startTimeNanos;
+            return true;
+        }
+
+        synchronized int indexOf(final String eventName) {
+            for (int i = 0; i < mSize; i++) {
+                if (mEventNames[i].equals(eventName)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * @return true if it was the last event in progress, the request events are then completed.
+         */
+        synchronized boolean remove(final int index) {
+            mSize--;
+            mEventNames[index] = mEventNames[mSize];
+            mStartTimesMillis[index] = mStartTimesMillis[mSize];
+            mStartTimesNanos[index] = mStartTimesNanos[mSize];
+            mEventNames[mSize] = null;
+
+            mIsCompleted = mSize == 0;
+            return mIsCompleted;
+        }
+    }
 }